@@ -31,7 +31,15 @@
 public class Main {
 
     public static void main(final String[] args) {
-        new CommandLine(new ProxyMenu()).execute(args);
+        final int exitCode;
+
+        exitCode = new CommandLine(new ProxyMenu()).setCaseInsensitiveEnumValuesAllowed(true)
+            .execute(args);
+
+        // The proxies keep running after the command returns, so the process only exits here on errors
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
     }
 
     public Main() {
@@ -24,6 +24,7 @@
 
 package com.bernardomg.example.netty.proxy.cli;
 
+import com.bernardomg.example.netty.proxy.cli.command.StartAllProxiesCommand;
 import com.bernardomg.example.netty.proxy.cli.command.StartProxyCommand;
 import com.bernardomg.example.netty.proxy.cli.version.ManifestVersionProvider;
 
@@ -35,8 +36,8 @@
  * @author Bernardo Mart&iacute;nez Garrido
  *
  */
-@Command(description = "Proxy", subcommands = { StartProxyCommand.class }, mixinStandardHelpOptions = true,
-        versionProvider = ManifestVersionProvider.class)
+@Command(description = "Proxy", subcommands = { StartProxyCommand.class, StartAllProxiesCommand.class },
+        mixinStandardHelpOptions = true, versionProvider = ManifestVersionProvider.class)
 public class ProxyMenu {
 
     /**
@@ -0,0 +1,97 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Connection listener which captures the relayed data into a file. Each piece of data is stored as a record with:
+ * <ul>
+ * <li>Connection id, eight bytes</li>
+ * <li>Direction, one byte: zero for requests and one for responses</li>
+ * <li>{@link System#nanoTime()} when it was received, eight bytes</li>
+ * <li>Length, four bytes</li>
+ * <li>The data itself</li>
+ * </ul>
+ * <p>
+ * Writing the file may block, so this listener should run in its own thread, through an
+ * {@code AsyncConnectionListener}.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class TrafficCaptureListener implements ConnectionListener, Closeable {
+
+    /**
+     * Output for the capture file.
+     */
+    private final DataOutputStream output;
+
+    public TrafficCaptureListener(final Path file) throws IOException {
+        super();
+
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    @Override
+    public final void close() throws IOException {
+        output.close();
+    }
+
+    @Override
+    public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+            final int length, final long nanoTime) {
+        try {
+            output.writeLong(connectionId);
+            output.writeByte(direction.ordinal());
+            output.writeLong(nanoTime);
+            output.writeInt(length);
+            data.getBytes(data.readerIndex(), output, length);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public final void onDisconnect(final long connectionId, final long nanoTime) {
+        try {
+            output.flush();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -67,6 +67,12 @@ public TransactionPrinterListener(final Integer prt, final String trgtHost, fina
         writer = Objects.requireNonNull(writ);
     }
 
+    @Override
+    public final void onDrain(final int remaining) {
+        writer.printf("Draining, %d connections left", remaining);
+        writer.println();
+    }
+
     @Override
     public final void onRequest(final Object message) {
         writer.printf("Received request message: %s", message);
@@ -0,0 +1,429 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.cli.command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import com.bernardomg.example.netty.proxy.cli.TrafficCaptureListener;
+import com.bernardomg.example.netty.proxy.cli.TransactionPrinterListener;
+import com.bernardomg.example.netty.proxy.cli.version.ManifestVersionProvider;
+import com.bernardomg.example.netty.proxy.server.AsyncConnectionListener;
+import com.bernardomg.example.netty.proxy.server.CompositeConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ExecutorConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ListenerExecution;
+import com.bernardomg.example.netty.proxy.server.ListenerExecutors;
+import com.bernardomg.example.netty.proxy.server.NettyTcpProxyServer;
+import com.bernardomg.example.netty.proxy.server.ProxyEventLoops;
+import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ProxyListenerAdapter;
+import com.bernardomg.example.netty.proxy.server.ProxyServerGroup;
+import com.bernardomg.example.netty.proxy.server.Server;
+import com.bernardomg.example.netty.proxy.server.admin.AdminServer;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfigReader;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfigWatcher;
+import com.bernardomg.example.netty.proxy.server.config.ProxyMapping;
+import com.bernardomg.example.netty.proxy.server.config.ReloadableProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.trace.AccessLog;
+
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExecutionException;
+import picocli.CommandLine.Help;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
+
+/**
+ * Start all TCP proxies command. Starts all the proxy mappings in a configuration file, sharing the event loops.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Command(name = "start-all", description = "Starts all the TCP proxies in a configuration file",
+        mixinStandardHelpOptions = true, versionProvider = ManifestVersionProvider.class)
+@Slf4j
+public final class StartAllProxiesCommand implements Runnable {
+
+    /**
+     * Maximum time to wait for the self test connection.
+     */
+    private static final Duration SELF_TEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Access log flag. Writes a line for each connection into the access log.
+     */
+    @Option(names = { "--accessLog" }, paramLabel = "flag",
+            description = "Write a line for each closed connection into access.log.", defaultValue = "false")
+    private boolean               accessLog;
+
+    /**
+     * Admin endpoint port. Disabled if not set.
+     */
+    @Option(names = { "--adminPort" }, paramLabel = "port",
+            description = "Port for the admin HTTP endpoint, on loopback. Lists and closes live connections.")
+    private Integer               adminPort;
+
+    /**
+     * Capture file. All the relayed data is stored in it.
+     */
+    @Option(names = { "--capture" }, paramLabel = "file",
+            description = "Capture the relayed data into a file, without slowing the proxy.")
+    private Path                  captureFile;
+
+    /**
+     * Configuration file. Reloaded whenever it changes.
+     */
+    @Option(names = { "--config" }, paramLabel = "file", description = "Configuration file with the proxy mappings.",
+            required = true)
+    private Path                  configFile;
+
+    /**
+     * Debug flag. Shows debug logs.
+     */
+    @Option(names = { "--debug" }, paramLabel = "flag", description = "Enable debug logs.", defaultValue = "false")
+    private boolean               debug;
+
+    /**
+     * Drain timeout.
+     */
+    @Option(names = { "--drainTimeout" }, paramLabel = "millis",
+            description = "On shutdown, time to wait for open connections before closing them.",
+            defaultValue = "30000", showDefaultValue = Help.Visibility.ALWAYS)
+    private long                  drainTimeout;
+
+    /**
+     * Exit when ready flag. Stops the proxy as soon as it is ready.
+     */
+    @Option(names = { "--exitWhenReady" }, paramLabel = "flag",
+            description = "Stop as soon as the proxy is ready. Used to create class data sharing archives.",
+            defaultValue = "false")
+    private boolean               exitWhenReady;
+
+    /**
+     * Where the listener is run.
+     */
+    @Option(names = { "--listenerExecutor" }, paramLabel = "executor",
+            description = "Where to run the listener. Valid values: ${COMPLETION-CANDIDATES}.",
+            defaultValue = "EVENT_LOOP", showDefaultValue = Help.Visibility.ALWAYS)
+    private ListenerExecution     listenerExecution;
+
+    /**
+     * Reuse port flag. Allows other processes to bind to the same ports.
+     */
+    @Option(names = { "--reusePort" }, paramLabel = "flag",
+            description = "Allow other processes to bind to the ports, for restarts without downtime. Requires epoll.",
+            defaultValue = "false")
+    private boolean               reusePort;
+
+    /**
+     * Self test flag. Sends a probe through the proxy before reporting it as ready.
+     */
+    @Option(names = { "--selfTest" }, paramLabel = "flag",
+            description = "Send a probe through the proxy before reporting it as ready. Stops if it fails.",
+            defaultValue = "false")
+    private boolean               selfTest;
+
+    /**
+     * Command specification. Used to get the line output.
+     */
+    @Spec
+    private CommandSpec           spec;
+
+    /**
+     * Verbose mode. If active prints info into the console. Active by default.
+     */
+    @Option(names = { "--verbose" }, paramLabel = "flag", description = "Print information to console.",
+            defaultValue = "true", showDefaultValue = Help.Visibility.ALWAYS)
+    private boolean               verbose;
+
+    /**
+     * Number of worker threads.
+     */
+    @Option(names = { "--workers" }, paramLabel = "threads",
+            description = "Threads shared by all the proxies. Zero uses the Netty default, twice the processors.",
+            defaultValue = "0")
+    private int                   workers;
+
+    /**
+     * Default constructor.
+     */
+    public StartAllProxiesCommand() {
+        super();
+    }
+
+    @Override
+    public final void run() {
+        final PrintWriter                        writer;
+        final Server                             server;
+        final List<ProxyMapping>                 mappings;
+        final Map<String, ReloadableProxyConfig> configs;
+        final Collection<Server>                 servers;
+        final ProxyEventLoops                    loops;
+        final ProxyConfigWatcher                 watcher;
+        final Executor                           listenerExecutor;
+        final AsyncConnectionListener            capture;
+        final List<AsyncConnectionListener>      sinks;
+        final AdminServer                        admin;
+        ReloadableProxyConfig   config;
+        ProxyTarget             target;
+        ProxyListener           listener;
+        ConnectionListener      printerListener;
+        AsyncConnectionListener printerSink;
+
+        if (debug) {
+            activateDebugLog();
+        }
+        if (accessLog) {
+            Configurator.setLevel(AccessLog.LOGGER_NAME, Level.INFO);
+        }
+
+        if (verbose) {
+            // Prints to console
+            writer = spec.commandLine()
+                .getOut();
+        } else {
+            // Prints nothing
+            writer = new PrintWriter(OutputStream.nullOutputStream());
+        }
+
+        mappings = readMappings();
+
+        // Event loops shared by all the proxies, port reuse and some socket options require epoll
+        loops = new ProxyEventLoops(workers, reusePort || mappings.stream()
+            .anyMatch(m -> m.getConfig()
+                .isEpollRequired()));
+
+        // Executor shared by all the listeners
+        if (listenerExecution == ListenerExecution.VIRTUAL) {
+            listenerExecutor = ListenerExecutors.virtualThreads();
+        } else {
+            listenerExecutor = null;
+        }
+
+        // Capture shared by all the proxies
+        sinks = new ArrayList<>();
+        if (captureFile == null) {
+            capture = null;
+        } else {
+            capture = openCapture();
+            sinks.add(capture);
+        }
+
+        configs = new HashMap<>();
+        servers = new ArrayList<>();
+        for (final ProxyMapping mapping : mappings) {
+            config = new ReloadableProxyConfig(mapping.getConfig());
+            configs.put(mapping.getName(), config);
+            target = mapping.getConfig()
+                .getRoutes()
+                .getDefaultTarget();
+            listener = new TransactionPrinterListener(mapping.getPort(), target.getHost(), target.getPort(), writer);
+            if (listenerExecutor == null) {
+                printerListener = new ProxyListenerAdapter(listener);
+            } else {
+                printerListener = new ExecutorConnectionListener(new ProxyListenerAdapter(listener), listenerExecutor);
+            }
+            if (capture == null) {
+                servers.add(new NettyTcpProxyServer(mapping.getPort(), reusePort, config, loops, listener,
+                    printerListener));
+            } else {
+                // Each listener gets the same data, in its own thread, so a slow one slows neither the proxy nor others
+                printerSink = new AsyncConnectionListener(printerListener, "printer-" + mapping.getName());
+                sinks.add(printerSink);
+                servers.add(new NettyTcpProxyServer(mapping.getPort(), reusePort, config, loops, listener,
+                    new CompositeConnectionListener(List.of(printerSink, capture))));
+            }
+        }
+        server = new ProxyServerGroup(servers, loops);
+
+        server.start();
+
+        if (adminPort == null) {
+            admin = null;
+        } else {
+            admin = new AdminServer(adminPort, server);
+            admin.start();
+        }
+
+        if (!reportReady(server, writer)) {
+            // A proxy which can't relay a probe is not kept running
+            shutdown(server, sinks, admin);
+            throw new ExecutionException(spec.commandLine(), "Self test failed");
+        }
+        if (exitWhenReady) {
+            shutdown(server, sinks, admin);
+            return;
+        }
+
+        watcher = new ProxyConfigWatcher(configFile, () -> reload(mappings, configs));
+        try {
+            watcher.start();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Drains the servers on shutdown
+        Runtime.getRuntime()
+            .addShutdownHook(new Thread(() -> shutdown(server, sinks, admin), "proxy-drain"));
+    }
+
+    /**
+     * Opens the capture file, returning a listener which writes into it in its own thread.
+     *
+     * @return the capture listener
+     */
+    private final AsyncConnectionListener openCapture() {
+        try {
+            return new AsyncConnectionListener(new TrafficCaptureListener(captureFile), "capture");
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the admin endpoint, drains the server, and then stops the listener sinks, closing the capture if any.
+     * Finally stops the logs, flushing the access log, as they have no shutdown hook of their own.
+     *
+     * @param server
+     *            server to drain
+     * @param sinks
+     *            listeners running in their own threads
+     * @param admin
+     *            admin endpoint, or {@code null} if it is disabled
+     */
+    private final void shutdown(final Server server, final List<AsyncConnectionListener> sinks,
+            final AdminServer admin) {
+        if (admin != null) {
+            admin.stop();
+        }
+        server.drain(Duration.ofMillis(drainTimeout));
+        for (final AsyncConnectionListener sink : sinks) {
+            sink.shutdown(drainTimeout);
+        }
+        LogManager.shutdown();
+    }
+
+    /**
+     * Checks the server is ready, running the self test if required, and prints the time taken to be ready since the
+     * process started.
+     *
+     * @param server
+     *            server to check
+     * @param writer
+     *            writer to print the result
+     * @return {@code true} if the server is ready, {@code false} if the self test failed
+     */
+    private final boolean reportReady(final Server server, final PrintWriter writer) {
+        final boolean  ready;
+        final Duration startTime;
+
+        if (selfTest) {
+            ready = server.selfTest(SELF_TEST_TIMEOUT);
+        } else {
+            ready = true;
+        }
+
+        startTime = ProcessHandle.current()
+            .info()
+            .startInstant()
+            .map(start -> Duration.between(start, Instant.now()))
+            .orElse(Duration.ZERO);
+        if (ready) {
+            log.info("Ready in {} ms", startTime.toMillis());
+            writer.printf("Ready in %d ms%n", startTime.toMillis());
+        }
+
+        return ready;
+    }
+
+    /**
+     * Activates debug logs for the application.
+     */
+    private final void activateDebugLog() {
+        Configurator.setLevel("com.bernardomg.example", Level.DEBUG);
+        Configurator.setLevel("io.netty.handler.logging", Level.DEBUG);
+    }
+
+    /**
+     * Reads the mappings in the configuration file.
+     *
+     * @return the mappings in the configuration file
+     */
+    private final List<ProxyMapping> readMappings() {
+        try {
+            return new ProxyConfigReader().readAll(configFile);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reloads the configuration file, updating the running proxies. Adding, removing or changing the port of a mapping
+     * requires a restart, so these changes are ignored.
+     *
+     * @param initial
+     *            mappings read on start
+     * @param configs
+     *            configuration for each running mapping
+     */
+    private final void reload(final List<ProxyMapping> initial, final Map<String, ReloadableProxyConfig> configs) {
+        final Map<String, Integer> ports;
+        ReloadableProxyConfig config;
+
+        ports = new HashMap<>();
+        initial.forEach(m -> ports.put(m.getName(), m.getPort()));
+
+        for (final ProxyMapping mapping : readMappings()) {
+            config = configs.get(mapping.getName());
+            if (config == null) {
+                log.warn("New proxy {} requires a restart", mapping.getName());
+            } else if (!mapping.getPort()
+                .equals(ports.get(mapping.getName()))) {
+                log.warn("Port change for proxy {} requires a restart", mapping.getName());
+            } else {
+                config.update(mapping.getConfig());
+            }
+        }
+    }
+
+}
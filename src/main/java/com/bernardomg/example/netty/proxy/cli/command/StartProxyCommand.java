@@ -24,22 +24,60 @@
 
 package com.bernardomg.example.netty.proxy.cli.command;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.config.Configurator;
 
+import com.bernardomg.example.netty.proxy.cli.TrafficCaptureListener;
 import com.bernardomg.example.netty.proxy.cli.TransactionPrinterListener;
 import com.bernardomg.example.netty.proxy.cli.version.ManifestVersionProvider;
+import com.bernardomg.example.netty.proxy.server.AsyncConnectionListener;
+import com.bernardomg.example.netty.proxy.server.CompositeConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ExecutorConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ListenerExecution;
+import com.bernardomg.example.netty.proxy.server.ListenerExecutors;
 import com.bernardomg.example.netty.proxy.server.NettyTcpProxyServer;
 import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ProxyListenerAdapter;
 import com.bernardomg.example.netty.proxy.server.Server;
+import com.bernardomg.example.netty.proxy.server.admin.AdminServer;
+import com.bernardomg.example.netty.proxy.server.config.AffinityOptions;
+import com.bernardomg.example.netty.proxy.server.config.BufferOptions;
+import com.bernardomg.example.netty.proxy.server.config.ChaosOptions;
+import com.bernardomg.example.netty.proxy.server.config.ConcurrencyLimitOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfigReader;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfigWatcher;
+import com.bernardomg.example.netty.proxy.server.config.ReloadableProxyConfig;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.server.trace.AccessLog;
+import com.bernardomg.example.netty.proxy.server.udp.NettyUdpProxyServer;
 
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.ExecutionException;
 import picocli.CommandLine.Help;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Spec;
 
 /**
@@ -50,45 +88,300 @@
  */
 @Command(name = "start", description = "Starts a TCP proxy", mixinStandardHelpOptions = true,
         versionProvider = ManifestVersionProvider.class)
+@Slf4j
 public final class StartProxyCommand implements Runnable {
 
+    /**
+     * Maximum time to wait for the self test connection.
+     */
+    private static final Duration  SELF_TEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Access log flag. Writes a line for each connection into the access log.
+     */
+    @Option(names = { "--accessLog" }, paramLabel = "flag",
+            description = "Write a line for each closed connection into access.log.", defaultValue = "false")
+    private boolean                accessLog;
+
+    /**
+     * Accept multiplex flag. Connections are received multiplexed from another proxy.
+     */
+    @Option(names = { "--acceptMultiplex" }, paramLabel = "flag",
+            description = "Receive connections multiplexed from another proxy.", defaultValue = "false")
+    private boolean                acceptMultiplex;
+
+    /**
+     * Accept PROXY protocol flag. Connections are expected to start with a PROXY protocol header.
+     */
+    @Option(names = { "--acceptProxyProtocol" }, paramLabel = "flag",
+            description = "Expect a PROXY protocol header on each connection.", defaultValue = "false")
+    private boolean                acceptProxyProtocol;
+
+    /**
+     * Accept tunnel flag. Connections are received compressed from another proxy.
+     */
+    @Option(names = { "--acceptTunnel" }, paramLabel = "flag",
+            description = "Receive connections through a compressed tunnel from another proxy.", defaultValue = "false")
+    private boolean                acceptTunnel;
+
+    /**
+     * Admin endpoint port. Disabled if not set.
+     */
+    @Option(names = { "--adminPort" }, paramLabel = "port",
+            description = "Port for the admin HTTP endpoint, on loopback. Lists and closes live connections.")
+    private Integer                adminPort;
+
+    /**
+     * Sticky affinity between clients and targets.
+     */
+    @Option(names = { "--affinity" }, paramLabel = "option=value",
+            description = "Pins clients to the target they last connected to, such as key=ip or key=token.")
+    private Map<String, String>    affinity = new HashMap<>();
+
+    /**
+     * Adaptive limit for the connections to each target.
+     */
+    @Option(names = { "--backendLimit" }, paramLabel = "option=value",
+            description = "Adaptive limit for the concurrent connections to each target, enabled with max=1000.")
+    private Map<String, String>    backendLimit = new HashMap<>();
+
+    /**
+     * Buffering of the requests sent to the targets.
+     */
+    @Option(names = { "--buffer" }, paramLabel = "option=value",
+            description = "Buffer the requests for slow targets, enabled with memory=1048576. Can spill to a file.")
+    private Map<String, String>    buffer = new HashMap<>();
+
+    /**
+     * Capture file. All the relayed data is stored in it.
+     */
+    @Option(names = { "--capture" }, paramLabel = "file",
+            description = "Capture the relayed data into a file, without slowing the proxy.")
+    private Path                   captureFile;
+
+    /**
+     * Faults injected into the connections.
+     */
+    @Option(names = { "--chaos" }, paramLabel = "option=value",
+            description = "Injects faults into the connections, such as latency=100 or resetRate=0.01.")
+    private Map<String, String>    chaos = new HashMap<>();
+
+    /**
+     * Configuration file. Reloaded whenever it changes.
+     */
+    @Option(names = { "--config" }, paramLabel = "file",
+            description = "Configuration file. Changes are applied to new connections without restarting.")
+    private Path                   configFile;
+
+    /**
+     * Target connection retries.
+     */
+    @Option(names = { "--connectRetries" }, paramLabel = "number",
+            description = "Times all the targets are tried again after failing to connect.", defaultValue = "0")
+    private int                    connectRetries;
+
+    /**
+     * Target connection timeout.
+     */
+    @Option(names = { "--connectTimeout" }, paramLabel = "millis", description = "Target connection timeout.",
+            defaultValue = "10000", showDefaultValue = Help.Visibility.ALWAYS)
+    private int                    connectTimeout;
+
     /**
      * Debug flag. Shows debug logs.
      */
     @Option(names = { "--debug" }, paramLabel = "flag", description = "Enable debug logs.", defaultValue = "false")
-    private boolean     debug;
+    private boolean                debug;
+
+    /**
+     * Drain timeout.
+     */
+    @Option(names = { "--drainTimeout" }, paramLabel = "millis",
+            description = "On shutdown, time to wait for open connections before closing them.",
+            defaultValue = "30000", showDefaultValue = Help.Visibility.ALWAYS)
+    private long                   drainTimeout;
+
+    /**
+     * Exit when ready flag. Stops the proxy as soon as it is ready.
+     */
+    @Option(names = { "--exitWhenReady" }, paramLabel = "flag",
+            description = "Stop as soon as the proxy is ready. Used to create class data sharing archives.",
+            defaultValue = "false")
+    private boolean                exitWhenReady;
+
+    /**
+     * Failover targets.
+     */
+    @Option(names = { "--failover" }, paramLabel = "host:port",
+            description = "Backup target, tried in order when a target can't be connected.")
+    private List<String>           failover = new ArrayList<>();
+
+    /**
+     * Idle timeout.
+     */
+    @Option(names = { "--idleTimeout" }, paramLabel = "millis",
+            description = "Closes connections without traffic for this time. Zero disables it.", defaultValue = "0")
+    private long                   idleTimeout;
+
+    /**
+     * Where the listener is run.
+     */
+    @Option(names = { "--listenerExecutor" }, paramLabel = "executor",
+            description = "Where to run the listener. Valid values: ${COMPLETION-CANDIDATES}.",
+            defaultValue = "EVENT_LOOP", showDefaultValue = Help.Visibility.ALWAYS)
+    private ListenerExecution      listenerExecution;
+
+    /**
+     * Socket options for the accepted connections.
+     */
+    @Option(names = { "--listenerSocket" }, paramLabel = "option=value",
+            description = "Socket option for the accepted connections, such as receiveBuffer=262144.")
+    private Map<String, String>    listenerSocket = new HashMap<>();
+
+    /**
+     * Maximum number of connections.
+     */
+    @Option(names = { "--maxConnections" }, paramLabel = "number",
+            description = "Maximum number of concurrent connections. Zero disables the limit.", defaultValue = "0")
+    private int                    maxConnections;
+
+    /**
+     * Shadow target.
+     */
+    @Option(names = { "--mirror" }, paramLabel = "host:port",
+            description = "Sends a copy of the requests to a shadow target, discarding its responses.")
+    private String                 mirror;
+
+    /**
+     * Mirror buffer size.
+     */
+    @Option(names = { "--mirrorBuffer" }, paramLabel = "bytes",
+            description = "Maximum bytes waiting for the shadow target, for each connection. Mirroring stops if full.",
+            defaultValue = "1048576")
+    private int                    mirrorBuffer;
+
+    /**
+     * Multiplex flag. Connections to the target are multiplexed.
+     */
+    @Option(names = { "--multiplex" }, paramLabel = "flag",
+            description = "Multiplex the connections to the target, which should be a proxy accepting them.",
+            defaultValue = "false")
+    private boolean                multiplex;
 
     /**
      * Server port.
      */
     @Option(names = { "-p", "--port" }, paramLabel = "port", description = "Proxy server port to listen.",
             required = true)
-    private Integer     port;
+    private Integer                port;
+
+    /**
+     * Routes by first bytes.
+     */
+    @Option(names = { "--prefixRoute" }, paramLabel = "prefix=host:port",
+            description = "Routes connections starting with the prefix. Use 0x for hexadecimal prefixes.")
+    private Map<String, String>    prefixRoutes = new HashMap<>();
+
+    /**
+     * PROXY protocol version sent to the target.
+     */
+    @Option(names = { "--proxyProtocol" }, paramLabel = "version",
+            description = "Send a PROXY protocol header to the target. Valid values: ${COMPLETION-CANDIDATES}.")
+    private HAProxyProtocolVersion proxyProtocol;
+
+    /**
+     * Reuse port flag. Allows other processes to bind to the same port.
+     */
+    @Option(names = { "--reusePort" }, paramLabel = "flag",
+            description = "Allow other processes to bind to the port, for restarts without downtime. Requires epoll.",
+            defaultValue = "false")
+    private boolean                reusePort;
+
+    /**
+     * Backoff before retrying the connection.
+     */
+    @Option(names = { "--retryBackoff" }, paramLabel = "millis",
+            description = "Time to wait before the first connection retry, doubled on each retry.",
+            defaultValue = "100", showDefaultValue = Help.Visibility.ALWAYS)
+    private long                   retryBackoff;
+
+    /**
+     * Routes by host name.
+     */
+    @Option(names = { "--route" }, paramLabel = "hostName=host:port",
+            description = "Routes connections by TLS SNI or HTTP Host. Accepts wildcards such as *.example.com.")
+    private Map<String, String>    routes = new HashMap<>();
+
+    /**
+     * Sampling of the data given to the listeners.
+     */
+    @Option(names = { "--sampling" }, paramLabel = "option=value",
+            description = "Sample the data printed or captured, such as rate=100 or messageBytes=256.")
+    private Map<String, String>    sampling = new HashMap<>();
+
+    /**
+     * Self test flag. Sends a probe through the proxy before reporting it as ready.
+     */
+    @Option(names = { "--selfTest" }, paramLabel = "flag",
+            description = "Send a probe through the proxy before reporting it as ready. Stops if it fails.",
+            defaultValue = "false")
+    private boolean                selfTest;
+
+    /**
+     * Slow connections threshold.
+     */
+    @Option(names = { "--slowThreshold" }, paramLabel = "millis",
+            description = "Logs connections slower to connect or to get the first response. Zero disables it.",
+            defaultValue = "0")
+    private long                   slowThreshold;
 
     /**
      * Command specification. Used to get the line output.
      */
     @Spec
-    private CommandSpec spec;
+    private CommandSpec            spec;
 
     /**
      * Target host.
      */
-    @Option(names = { "-th", "--targetHost" }, paramLabel = "targetHost", description = "Target host.", required = true)
-    private String      targetHost;
+    @Option(names = { "-th", "--targetHost" }, paramLabel = "targetHost", description = "Target host.")
+    private String                 targetHost;
 
     /**
      * Target port.
      */
-    @Option(names = { "-tp", "--targetPort" }, paramLabel = "targetPort", description = "Target port.", required = true)
-    private Integer     targetPort;
+    @Option(names = { "-tp", "--targetPort" }, paramLabel = "targetPort", description = "Target port.")
+    private Integer                targetPort;
+
+    /**
+     * Socket options for the target connections.
+     */
+    @Option(names = { "--targetSocket" }, paramLabel = "option=value",
+            description = "Socket option for the target connections, such as noDelay=false.")
+    private Map<String, String>    targetSocket = new HashMap<>();
+
+    /**
+     * Tunnel flag. Connections to the target are compressed.
+     */
+    @Option(names = { "--tunnel" }, paramLabel = "flag",
+            description = "Compress the connections to the target, which should be a proxy accepting tunnels.",
+            defaultValue = "false")
+    private boolean                tunnel;
+
+    /**
+     * UDP flag. Relays datagrams instead of TCP connections.
+     */
+    @Option(names = { "--udp" }, paramLabel = "flag",
+            description = "Relay UDP datagrams instead of TCP connections. Only the default target is used.",
+            defaultValue = "false")
+    private boolean                udp;
 
     /**
      * Verbose mode. If active prints info into the console. Active by default.
      */
     @Option(names = { "--verbose" }, paramLabel = "flag", description = "Print information to console.",
             defaultValue = "true", showDefaultValue = Help.Visibility.ALWAYS)
-    private boolean     verbose;
+    private boolean                verbose;
 
     /**
      * Default constructor.
@@ -99,13 +392,22 @@ public StartProxyCommand() {
 
     @Override
     public final void run() {
-        final PrintWriter   writer;
-        final Server        server;
-        final ProxyListener listener;
+        final PrintWriter                   writer;
+        final Server                        server;
+        final ProxyListener                 listener;
+        final ConnectionListener            printerListener;
+        final List<AsyncConnectionListener> sinks;
+        final AdminServer                   admin;
+        final ConnectionListener            connectionListener;
+        final ReloadableProxyConfig         config;
+        final ProxyTarget                   defaultTarget;
 
         if (debug) {
             activateDebugLog();
         }
+        if (accessLog) {
+            Configurator.setLevel(AccessLog.LOGGER_NAME, Level.INFO);
+        }
 
         if (verbose) {
             // Prints to console
@@ -116,10 +418,126 @@ public final void run() {
             writer = new PrintWriter(OutputStream.nullOutputStream());
         }
 
-        listener = new TransactionPrinterListener(port, targetHost, targetPort, writer);
-        server = new NettyTcpProxyServer(port, targetHost, targetPort, listener);
+        config = new ReloadableProxyConfig(readConfig());
+        if (configFile != null) {
+            watchConfig(config);
+        }
+
+        defaultTarget = config.get()
+            .getRoutes()
+            .getDefaultTarget();
+        listener = new TransactionPrinterListener(port, defaultTarget.getHost(), defaultTarget.getPort(), writer);
+        if (listenerExecution == ListenerExecution.VIRTUAL) {
+            printerListener = new ExecutorConnectionListener(new ProxyListenerAdapter(listener),
+                ListenerExecutors.virtualThreads());
+        } else {
+            printerListener = new ProxyListenerAdapter(listener);
+        }
+        if (captureFile == null) {
+            sinks = List.of();
+            connectionListener = printerListener;
+        } else {
+            // Each listener gets the same data, in its own thread, so a slow one never slows the proxy or the others
+            sinks = List.of(new AsyncConnectionListener(printerListener, "printer"), openCapture());
+            connectionListener = new CompositeConnectionListener(List.copyOf(sinks));
+        }
+        if (udp) {
+            server = new NettyUdpProxyServer(port, config, listener, connectionListener);
+        } else {
+            server = new NettyTcpProxyServer(port, reusePort, config, listener, connectionListener);
+        }
 
         server.start();
+
+        if (adminPort == null) {
+            admin = null;
+        } else {
+            admin = new AdminServer(adminPort, server);
+            admin.start();
+        }
+
+        if (!reportReady(server, writer)) {
+            // A proxy which can't relay a probe is not kept running
+            shutdown(server, sinks, admin);
+            throw new ExecutionException(spec.commandLine(), "Self test failed");
+        }
+        if (exitWhenReady) {
+            shutdown(server, sinks, admin);
+            return;
+        }
+
+        // Drains the server on shutdown
+        Runtime.getRuntime()
+            .addShutdownHook(new Thread(() -> shutdown(server, sinks, admin), "proxy-drain"));
+    }
+
+    /**
+     * Opens the capture file, returning a listener which writes into it in its own thread.
+     *
+     * @return the capture listener
+     */
+    private final AsyncConnectionListener openCapture() {
+        try {
+            return new AsyncConnectionListener(new TrafficCaptureListener(captureFile), "capture");
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the admin endpoint, drains the server, and then stops the listener sinks, closing the capture if any.
+     * Finally stops the logs, flushing the access log, as they have no shutdown hook of their own.
+     *
+     * @param server
+     *            server to drain
+     * @param sinks
+     *            listeners running in their own threads
+     * @param admin
+     *            admin endpoint, or {@code null} if it is disabled
+     */
+    private final void shutdown(final Server server, final List<AsyncConnectionListener> sinks,
+            final AdminServer admin) {
+        if (admin != null) {
+            admin.stop();
+        }
+        server.drain(Duration.ofMillis(drainTimeout));
+        for (final AsyncConnectionListener sink : sinks) {
+            sink.shutdown(drainTimeout);
+        }
+        LogManager.shutdown();
+    }
+
+    /**
+     * Checks the server is ready, running the self test if required, and prints the time taken to be ready since the
+     * process started.
+     *
+     * @param server
+     *            server to check
+     * @param writer
+     *            writer to print the result
+     * @return {@code true} if the server is ready, {@code false} if the self test failed
+     */
+    private final boolean reportReady(final Server server, final PrintWriter writer) {
+        final boolean  ready;
+        final Duration startTime;
+
+        if (selfTest) {
+            ready = server.selfTest(SELF_TEST_TIMEOUT);
+        } else {
+            ready = true;
+        }
+
+        startTime = ProcessHandle.current()
+            .info()
+            .startInstant()
+            .map(start -> Duration.between(start, Instant.now()))
+            .orElse(Duration.ZERO);
+        if (ready) {
+            log.info("Ready in {} ms", startTime.toMillis());
+            writer.printf("Ready in %d ms%n", startTime.toMillis());
+        }
+
+        return ready;
     }
 
     /**
@@ -130,4 +548,99 @@ private final void activateDebugLog() {
         Configurator.setLevel("io.netty.handler.logging", Level.DEBUG);
     }
 
+    /**
+     * Returns the initial configuration. This is read from the configuration file, if there is one, otherwise from the
+     * command options.
+     *
+     * @return the initial configuration
+     */
+    private final ProxyConfig readConfig() {
+        final RouteTable routeTable;
+
+        if (configFile != null) {
+            return readConfigFile();
+        }
+
+        if ((targetHost == null) || (targetPort == null)) {
+            throw new ParameterException(spec.commandLine(),
+                "Missing target, set --targetHost and --targetPort or use a configuration file");
+        }
+
+        routeTable = new RouteTable(new ProxyTarget(targetHost, targetPort), parseTargets(routes),
+            parseTargets(prefixRoutes));
+        return ProxyConfig.builder()
+            .routes(routeTable)
+            .acceptProxyProtocol(acceptProxyProtocol)
+            .proxyProtocol(proxyProtocol)
+            .acceptTunnel(acceptTunnel)
+            .sendTunnel(tunnel)
+            .acceptMultiplex(acceptMultiplex)
+            .sendMultiplex(multiplex)
+            .connectTimeout(connectTimeout)
+            .connectRetries(connectRetries)
+            .retryBackoff(retryBackoff)
+            .failover(failover.stream()
+                .map(ProxyTarget::parse)
+                .collect(Collectors.toList()))
+            .idleTimeout(idleTimeout)
+            .maxConnections(maxConnections)
+            .listenerSocket(SocketOptions.parse(listenerSocket))
+            .targetSocket(SocketOptions.parse(targetSocket))
+            .affinity(AffinityOptions.parse(affinity))
+            .backendLimit(ConcurrencyLimitOptions.parse(backendLimit))
+            .buffer(BufferOptions.parse(buffer))
+            .chaos(ChaosOptions.parse(chaos))
+            .mirror((mirror == null) ? null : ProxyTarget.parse(mirror))
+            .mirrorBuffer(mirrorBuffer)
+            .sampling(SamplingOptions.parse(sampling))
+            .slowThreshold(slowThreshold)
+            .build();
+    }
+
+    /**
+     * Reads the configuration file.
+     *
+     * @return the configuration in the file
+     */
+    private final ProxyConfig readConfigFile() {
+        try {
+            return new ProxyConfigReader().read(configFile);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts watching the configuration file for changes.
+     *
+     * @param config
+     *            configuration to update
+     */
+    private final void watchConfig(final ReloadableProxyConfig config) {
+        final ProxyConfigWatcher watcher;
+
+        watcher = new ProxyConfigWatcher(configFile, () -> config.update(readConfigFile()));
+        try {
+            watcher.start();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses the targets of the received routes.
+     *
+     * @param values
+     *            routes to parse
+     * @return the routes with parsed targets
+     */
+    private final Map<String, ProxyTarget> parseTargets(final Map<String, String> values) {
+        final Map<String, ProxyTarget> targets;
+
+        targets = new HashMap<>();
+        values.forEach((key, target) -> targets.put(key, ProxyTarget.parse(target)));
+
+        return targets;
+    }
+
 }
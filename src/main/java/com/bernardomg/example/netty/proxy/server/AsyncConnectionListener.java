@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a connection listener in its own thread, with a bounded queue of data events. The event loops only add the
+ * events to the queue, and never wait for the listener. If the listener falls behind and the queue fills, new data
+ * events are dropped and counted, instead of growing the memory or slowing the proxy.
+ * <p>
+ * Connection, disconnection and error events are never dropped, so the listener always sees where each connection
+ * starts and ends. There are only a few of them for each connection, so they are not bounded.
+ * <p>
+ * As a single thread runs the listener, all the events are received in the same order they happened.
+ * <p>
+ * The data is queued as a retained duplicate. This shares the content of the relayed buffer, with its own indexes and
+ * without copying it, and is released once the listener returns or the event is dropped.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class AsyncConnectionListener implements ConnectionListener {
+
+    /**
+     * Default maximum number of queued data events.
+     */
+    public static final int          DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Maximum number of queued data events.
+     */
+    private final int                capacity;
+
+    /**
+     * Data events dropped because the queue was full.
+     */
+    private final LongAdder          dropped = new LongAdder();
+
+    /**
+     * Single thread executor with a bounded queue.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Wrapped listener.
+     */
+    private final ConnectionListener listener;
+
+    /**
+     * Name for the listener thread.
+     */
+    private final String             name;
+
+    /**
+     * Data events in the queue.
+     */
+    private final AtomicInteger      queuedData = new AtomicInteger();
+
+    public AsyncConnectionListener(final ConnectionListener lstn, final String nm) {
+        this(lstn, nm, DEFAULT_CAPACITY);
+    }
+
+    public AsyncConnectionListener(final ConnectionListener lstn, final String nm, final int cap) {
+        super();
+
+        listener = Objects.requireNonNull(lstn);
+        name = Objects.requireNonNull(nm);
+        capacity = cap;
+        // Only the data events are bounded
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new DefaultThreadFactory("proxy-listener-" + nm, true));
+    }
+
+    /**
+     * Returns the number of data events dropped because the queue was full.
+     *
+     * @return the number of data events dropped
+     */
+    public final long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public final void onConnect(final long connectionId, final SocketAddress client, final ProxyTarget target,
+            final long nanoTime) {
+        submit(() -> listener.onConnect(connectionId, client, target, nanoTime));
+    }
+
+    @Override
+    public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+            final int length, final long nanoTime) {
+        final ByteBuf view;
+
+        if (queuedData.incrementAndGet() > capacity) {
+            queuedData.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+
+        view = data.retainedDuplicate();
+        if (!submit(() -> {
+            try {
+                listener.onData(connectionId, direction, view, length, nanoTime);
+            } finally {
+                view.release();
+                queuedData.decrementAndGet();
+            }
+        })) {
+            view.release();
+            queuedData.decrementAndGet();
+        }
+    }
+
+    @Override
+    public final void onDisconnect(final long connectionId, final long nanoTime) {
+        submit(() -> listener.onDisconnect(connectionId, nanoTime));
+    }
+
+    @Override
+    public final void onError(final long connectionId, final Throwable cause) {
+        submit(() -> listener.onError(connectionId, cause));
+    }
+
+    /**
+     * Stops the listener thread, after running the events already queued. If the listener is {@link Closeable}, it is
+     * closed afterwards.
+     *
+     * @param timeout
+     *            maximum milliseconds to wait for the queued events
+     */
+    public final void shutdown(final long timeout) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Listener {} didn't finish in time, {} events left", name, executor.getQueue()
+                    .size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        }
+        if (listener instanceof Closeable) {
+            try {
+                ((Closeable) listener).close();
+            } catch (final IOException e) {
+                log.error("Failed closing listener {}", name, e);
+            }
+        }
+        if (getDropped() > 0) {
+            log.warn("Listener {} dropped {} data events", name, getDropped());
+        }
+    }
+
+    /**
+     * Queues an event. If the listener was already shut down the event is dropped.
+     *
+     * @param event
+     *            event to queue
+     * @return {@code true} if the event was queued, {@code false} if it was dropped
+     */
+    private final boolean submit(final Runnable event) {
+        boolean queued;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    event.run();
+                } catch (final RuntimeException e) {
+                    log.error("Listener {} failed", name, e);
+                }
+            });
+            queued = true;
+        } catch (final RejectedExecutionException e) {
+            dropped.increment();
+            queued = false;
+        }
+
+        return queued;
+    }
+
+}
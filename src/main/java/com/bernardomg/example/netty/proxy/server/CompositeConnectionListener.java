@@ -0,0 +1,113 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.net.SocketAddress;
+import java.util.List;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the connection events to several listeners. All of them receive the same buffer, so nothing is copied for each
+ * listener. A listener which needs to keep the data after the call should retain it, as an
+ * {@link AsyncConnectionListener} does.
+ * <p>
+ * The listeners are isolated from each other: an error in one of them is logged, and the rest still receive the
+ * event. The buffer indexes are restored before calling each listener.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class CompositeConnectionListener implements ConnectionListener {
+
+    /**
+     * Listeners receiving the events.
+     */
+    private final ConnectionListener[] listeners;
+
+    public CompositeConnectionListener(final List<ConnectionListener> lstns) {
+        super();
+
+        listeners = lstns.toArray(new ConnectionListener[0]);
+    }
+
+    @Override
+    public final void onConnect(final long connectionId, final SocketAddress client, final ProxyTarget target,
+            final long nanoTime) {
+        for (final ConnectionListener listener : listeners) {
+            try {
+                listener.onConnect(connectionId, client, target, nanoTime);
+            } catch (final RuntimeException e) {
+                log.error("Listener failed on connect", e);
+            }
+        }
+    }
+
+    @Override
+    public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+            final int length, final long nanoTime) {
+        final int readerIndex;
+        final int writerIndex;
+
+        readerIndex = data.readerIndex();
+        writerIndex = data.writerIndex();
+        for (final ConnectionListener listener : listeners) {
+            try {
+                listener.onData(connectionId, direction, data, length, nanoTime);
+            } catch (final RuntimeException e) {
+                log.error("Listener failed on data", e);
+            } finally {
+                data.setIndex(readerIndex, writerIndex);
+            }
+        }
+    }
+
+    @Override
+    public final void onDisconnect(final long connectionId, final long nanoTime) {
+        for (final ConnectionListener listener : listeners) {
+            try {
+                listener.onDisconnect(connectionId, nanoTime);
+            } catch (final RuntimeException e) {
+                log.error("Listener failed on disconnect", e);
+            }
+        }
+    }
+
+    @Override
+    public final void onError(final long connectionId, final Throwable cause) {
+        for (final ConnectionListener listener : listeners) {
+            try {
+                listener.onError(connectionId, cause);
+            } catch (final RuntimeException e) {
+                log.error("Listener failed on error", e);
+            }
+        }
+    }
+
+}
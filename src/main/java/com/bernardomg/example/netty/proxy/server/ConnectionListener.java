@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.net.SocketAddress;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Proxied connection listener. Receives the events of each connection, identified by a connection id unique in the
+ * process.
+ * <p>
+ * These methods are called from the event loop of the connection, so they shouldn't block. Nothing is allocated to
+ * call them, the data received is the same buffer being relayed.
+ * <p>
+ * The data may be sampled, see {@link com.bernardomg.example.netty.proxy.server.config.SamplingOptions}. Then only
+ * part of the messages are received, and they may be truncated.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public interface ConnectionListener {
+
+    /**
+     * Reacts to a connection being established with the target.
+     *
+     * @param connectionId
+     *            connection id
+     * @param client
+     *            client address
+     * @param target
+     *            target the connection is proxied to
+     * @param nanoTime
+     *            {@link System#nanoTime()} for the event
+     */
+    public default void onConnect(final long connectionId, final SocketAddress client, final ProxyTarget target,
+            final long nanoTime) {}
+
+    /**
+     * Reacts to data being relayed. The buffer is only valid during this call, and should be treated as read only. Its
+     * indexes are restored afterwards, but the content is not protected. To keep it, it should be retained or copied.
+     *
+     * @param connectionId
+     *            connection id
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data being relayed
+     * @param length
+     *            number of bytes readable in the data
+     * @param nanoTime
+     *            {@link System#nanoTime()} for the event
+     */
+    public void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data, final int length,
+            final long nanoTime);
+
+    /**
+     * Reacts to a connection being closed.
+     *
+     * @param connectionId
+     *            connection id
+     * @param nanoTime
+     *            {@link System#nanoTime()} for the event
+     */
+    public default void onDisconnect(final long connectionId, final long nanoTime) {}
+
+    /**
+     * Reacts to an error in a connection.
+     *
+     * @param connectionId
+     *            connection id
+     * @param cause
+     *            error cause
+     */
+    public default void onError(final long connectionId, final Throwable cause) {}
+
+}
@@ -0,0 +1,185 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.net.SocketAddress;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a connection listener in an executor, so the event loops never wait for it. The events of each connection are
+ * received in the same order they happened, but events from different connections may run concurrently.
+ * <p>
+ * Connections are spread over a fixed number of serial executors by their id. All the events of a connection go to the
+ * same one, so they are kept in order without tracking each connection.
+ * <p>
+ * Each serial executor has a bounded number of data events waiting. If the listener falls behind and it fills, new
+ * data events for its connections are dropped and counted, instead of growing the memory. Connection, disconnection
+ * and error events are never dropped, so the listener always sees where each connection starts and ends.
+ * <p>
+ * The data is sent as a retained duplicate, which shares the content of the relayed buffer without copying it, and is
+ * released once the listener returns or the event is dropped.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ExecutorConnectionListener implements ConnectionListener {
+
+    /**
+     * Default maximum number of data events waiting in each serial executor.
+     */
+    public static final int          DEFAULT_CAPACITY = 64;
+
+    /**
+     * Number of serial executors. Must be a power of two.
+     */
+    private static final int         STRIPES = 1024;
+
+    /**
+     * Maximum number of data events waiting in each serial executor.
+     */
+    private final int                capacity;
+
+    /**
+     * Data events dropped because their serial executor was full.
+     */
+    private final LongAdder          dropped = new LongAdder();
+
+    /**
+     * Wrapped listener.
+     */
+    private final ConnectionListener listener;
+
+    /**
+     * Data events waiting in each serial executor.
+     */
+    private final AtomicIntegerArray queuedData;
+
+    /**
+     * Serial executors, keeping the events of each connection in order.
+     */
+    private final Executor[]         stripes;
+
+    public ExecutorConnectionListener(final ConnectionListener lstn, final Executor exec) {
+        this(lstn, exec, DEFAULT_CAPACITY);
+    }
+
+    public ExecutorConnectionListener(final ConnectionListener lstn, final Executor exec, final int cap) {
+        super();
+
+        Objects.requireNonNull(exec);
+
+        listener = Objects.requireNonNull(lstn);
+        capacity = cap;
+        queuedData = new AtomicIntegerArray(STRIPES);
+        stripes = new Executor[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new SerialExecutor(exec);
+        }
+    }
+
+    /**
+     * Returns the number of data events dropped because their serial executor was full.
+     *
+     * @return the number of data events dropped
+     */
+    public final long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public final void onConnect(final long connectionId, final SocketAddress client, final ProxyTarget target,
+            final long nanoTime) {
+        getExecutor(connectionId).execute(() -> listener.onConnect(connectionId, client, target, nanoTime));
+    }
+
+    @Override
+    public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+            final int length, final long nanoTime) {
+        final int     stripe;
+        final ByteBuf view;
+
+        stripe = getStripe(connectionId);
+        if (queuedData.incrementAndGet(stripe) > capacity) {
+            queuedData.decrementAndGet(stripe);
+            if (dropped.sum() == 0) {
+                log.warn("Listener falling behind, dropping data events");
+            }
+            dropped.increment();
+            return;
+        }
+
+        view = data.retainedDuplicate();
+        stripes[stripe].execute(() -> {
+            try {
+                listener.onData(connectionId, direction, view, length, nanoTime);
+            } finally {
+                view.release();
+                queuedData.decrementAndGet(stripe);
+            }
+        });
+    }
+
+    @Override
+    public final void onDisconnect(final long connectionId, final long nanoTime) {
+        getExecutor(connectionId).execute(() -> listener.onDisconnect(connectionId, nanoTime));
+    }
+
+    @Override
+    public final void onError(final long connectionId, final Throwable cause) {
+        getExecutor(connectionId).execute(() -> listener.onError(connectionId, cause));
+    }
+
+    /**
+     * Returns the serial executor for the connection.
+     *
+     * @param connectionId
+     *            connection id
+     * @return the executor for the connection
+     */
+    private final Executor getExecutor(final long connectionId) {
+        return stripes[getStripe(connectionId)];
+    }
+
+    /**
+     * Returns the index of the serial executor for the connection.
+     *
+     * @param connectionId
+     *            connection id
+     * @return the index of the executor for the connection
+     */
+    private final int getStripe(final long connectionId) {
+        return (int) (connectionId & (STRIPES - 1));
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executors for running listeners outside the event loops.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ListenerExecutors {
+
+    /**
+     * Returns an executor which runs each task in a new virtual thread. These are only available since Java 21, on
+     * older JVMs a cached pool of daemon platform threads is returned instead.
+     *
+     * @return an executor for virtual threads
+     */
+    public static final ExecutorService virtualThreads() {
+        final Method factory;
+        ExecutorService executor;
+
+        try {
+            // Looked up by reflection, as the project targets older Java versions
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService) factory.invoke(null);
+            log.debug("Running listeners in virtual threads");
+        } catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            log.warn("Virtual threads not supported, running listeners in platform threads");
+            executor = Executors.newCachedThreadPool(new DefaultThreadFactory("proxy-listener", true));
+        }
+
+        return executor;
+    }
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private ListenerExecutors() {
+        super();
+    }
+
+}
@@ -24,24 +24,64 @@
 
 package com.bernardomg.example.netty.proxy.server;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.bernardomg.example.netty.proxy.server.buffer.BufferBudget;
+import com.bernardomg.example.netty.proxy.server.channel.ChannelAttributes;
+import com.bernardomg.example.netty.proxy.server.channel.ProbeChannelInitializer;
 import com.bernardomg.example.netty.proxy.server.channel.ProxyServerChannelInitializer;
-
+import com.bernardomg.example.netty.proxy.server.config.AffinityOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.limit.ConcurrencyLimiters;
+import com.bernardomg.example.netty.proxy.server.mux.MuxConnector;
+import com.bernardomg.example.netty.proxy.server.route.AffinityTable;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+import com.bernardomg.example.netty.proxy.server.trace.LatencyRecorder;
+
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Netty based TCP server.
+ * <p>
+ * The configuration is read for each new connection, so it can be replaced while the server is running. Only the port
+ * is fixed.
+ * <p>
+ * All the proxied connections are tracked, which allows draining the server. When reusing the port, a new process can
+ * bind to it before this one is drained, so there is no downtime between both. This requires the epoll transport.
+ * <p>
+ * The event loops can be shared with other servers. Otherwise the server creates its own, and shuts them down when
+ * stopped.
+ * <p>
+ * The latencies of the proxied connections are recorded by target, and logged when the server stops.
  *
  * @author Bernardo Mart&iacute;nez Garrido
  *
@@ -49,71 +89,326 @@
 @Slf4j
 public final class NettyTcpProxyServer implements Server {
 
+    /**
+     * Bytes sent through the proxy by the self test.
+     */
+    private static final byte[]         PROBE = "proxy self test probe".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Targets each client was last connected to. Created on start, only if affinity is enabled in the configuration.
+     */
+    private AffinityTable               affinityTable;
+
+    /**
+     * Memory shared by the request buffers. Created on start, only if buffering is enabled in the configuration.
+     */
+    private BufferBudget                bufferBudget;
+
     /**
      * Group storing the server channel.
      */
-    private ChannelGroup        channelGroup;
+    private ChannelGroup                channelGroup;
+
+    /**
+     * Proxy configuration.
+     */
+    private final Supplier<ProxyConfig> configuration;
+
+    /**
+     * Group storing the proxied connections.
+     */
+    private ChannelGroup                connectionGroup;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the proxied connection events.
+     */
+    private final ConnectionListener    connectionListener;
+
+    /**
+     * Latencies of the proxied connections.
+     */
+    @Getter
+    private final LatencyRecorder       latencyRecorder = new LatencyRecorder();
+
+    /**
+     * Adaptive concurrency limiters for the targets. Created on start, only if the limit is enabled in the
+     * configuration.
+     */
+    private ConcurrencyLimiters         limiters;
 
     /**
-     * Server secondary event loop group.
+     * Multiplexed connections to other proxies.
      */
-    private EventLoopGroup      childGroup;
+    private final MuxConnector          muxConnector = new MuxConnector();
 
     /**
      * Proxy listener. Extension hook which allows reacting to the proxy events.
      */
-    private final ProxyListener listener;
+    private final ProxyListener         listener;
 
     /**
-     * Server main event loop group.
+     * Event loops. These are created on start if they were not received.
      */
-    private EventLoopGroup      parentGroup;
+    private ProxyEventLoops             loops;
+
+    /**
+     * Indicates if the event loops belong to this server, and should be shut down with it.
+     */
+    private final boolean               ownedLoops;
 
     /**
      * Port which the server will listen to.
      */
-    private final Integer       port;
+    private final Integer               port;
 
     /**
-     * Host for the server to which this client will connect.
+     * Indicates if the port can be bound by other processes at the same time.
      */
-    private final String        targetHost;
+    private final boolean               reusePort;
 
     /**
-     * Port for the server to which this client will connect.
+     * Channel bound to the port.
      */
-    private final Integer       targetPort;
+    private Channel                     serverChannel;
 
     public NettyTcpProxyServer(final Integer prt, final String trgtHost, final Integer trgtPort,
             final ProxyListener lst) {
+        this(prt, ProxyConfig.builder()
+            .routes(new RouteTable(new ProxyTarget(trgtHost, trgtPort)))
+            .build(), lst);
+    }
+
+    public NettyTcpProxyServer(final Integer prt, final ProxyConfig config, final ProxyListener lst) {
+        this(prt, false, () -> config, lst);
+    }
+
+    public NettyTcpProxyServer(final Integer prt, final boolean reuse, final Supplier<ProxyConfig> config,
+            final ProxyListener lst) {
+        this(prt, reuse, config, lst, new ProxyListenerAdapter(lst));
+    }
+
+    public NettyTcpProxyServer(final Integer prt, final boolean reuse, final Supplier<ProxyConfig> config,
+            final ProxyListener lst, final ConnectionListener connLst) {
         super();
 
         port = Objects.requireNonNull(prt);
-        targetHost = Objects.requireNonNull(trgtHost);
-        targetPort = Objects.requireNonNull(trgtPort);
+        reusePort = reuse;
+        configuration = Objects.requireNonNull(config);
         listener = Objects.requireNonNull(lst);
+        connectionListener = Objects.requireNonNull(connLst);
+        ownedLoops = true;
+    }
+
+    public NettyTcpProxyServer(final Integer prt, final boolean reuse, final Supplier<ProxyConfig> config,
+            final ProxyEventLoops evtLoops, final ProxyListener lst) {
+        this(prt, reuse, config, evtLoops, lst, new ProxyListenerAdapter(lst));
+    }
+
+    public NettyTcpProxyServer(final Integer prt, final boolean reuse, final Supplier<ProxyConfig> config,
+            final ProxyEventLoops evtLoops, final ProxyListener lst, final ConnectionListener connLst) {
+        super();
+
+        port = Objects.requireNonNull(prt);
+        reusePort = reuse;
+        configuration = Objects.requireNonNull(config);
+        loops = Objects.requireNonNull(evtLoops);
+        listener = Objects.requireNonNull(lst);
+        connectionListener = Objects.requireNonNull(connLst);
+        ownedLoops = false;
+    }
+
+    @Override
+    public final void forEachConnection(final Consumer<Channel> action) {
+        if (connectionGroup != null) {
+            connectionGroup.forEach(action);
+        }
+    }
+
+    @Override
+    public final boolean selfTest(final Duration timeout) {
+        final InetAddress   loopback;
+        final Channel       echo;
+        final ProxyTarget   echoTarget;
+        final Channel       probeListener;
+        final int           probePort;
+        final ProbeHandler  probeHandler;
+        final ChannelFuture connectFuture;
+        final Channel       probe;
+        final Future<Void>  echoed;
+        final boolean       success;
+
+        if ((serverChannel == null) || !serverChannel.isActive()) {
+            log.error("Self test failed, port {} is not bound", port);
+            return false;
+        }
+
+        loopback = InetAddress.getLoopbackAddress();
+
+        // Echo target for the probe, so the self test never reaches the real targets
+        echo = new ServerBootstrap()
+            .group(loops.getChildGroup())
+            .channel(loops.getServerChannelClass())
+            .childOption(ChannelOption.ALLOCATOR, loops.getAllocator())
+            .childHandler(new EchoHandler())
+            .bind(loopback, 0)
+            .awaitUninterruptibly()
+            .channel();
+        if (!echo.isActive()) {
+            log.error("Self test failed binding the echo target");
+            return false;
+        }
+        echoTarget = new ProxyTarget(loopback.getHostAddress(), ((InetSocketAddress) echo.localAddress()).getPort());
+
+        // The probe has a listener of its own, using the event loops and handlers of the proxy
+        probeListener = new ServerBootstrap()
+            .group(loops.getChildGroup())
+            .channel(loops.getServerChannelClass())
+            .childOption(ChannelOption.ALLOCATOR, loops.getAllocator())
+            // Reads are requested by the proxy handler
+            .childOption(ChannelOption.AUTO_READ, false)
+            .childHandler(new ProbeChannelInitializer(configuration.get(), echoTarget, bufferBudget))
+            .bind(loopback, 0)
+            .awaitUninterruptibly()
+            .channel();
+        if (!probeListener.isActive()) {
+            log.error("Self test failed binding the probe listener");
+            echo.close()
+                .awaitUninterruptibly();
+            return false;
+        }
+        probePort = ((InetSocketAddress) probeListener.localAddress()).getPort();
+
+        probeHandler = new ProbeHandler(PROBE.length);
+        connectFuture = new Bootstrap()
+            .group(loops.getChildGroup())
+            .channel(loops.getChannelClass())
+            .option(ChannelOption.ALLOCATOR, loops.getAllocator())
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) timeout.toMillis())
+            .handler(probeHandler)
+            .connect(loopback, probePort)
+            .awaitUninterruptibly();
+        probe = connectFuture.channel();
+
+        try {
+            if (!connectFuture.isSuccess()) {
+                log.error("Self test failed connecting to the probe listener", connectFuture.cause());
+                success = false;
+            } else {
+                // Sends the probe, which has to come back from the echo target through the proxy handlers
+                probe.writeAndFlush(Unpooled.wrappedBuffer(PROBE));
+                echoed = probeHandler.getEchoed();
+                if (!echoed.awaitUninterruptibly(timeout.toMillis())) {
+                    log.error("Self test timed out waiting for the probe");
+                    success = false;
+                } else if (!echoed.isSuccess()) {
+                    log.error("Self test failed sending the probe", echoed.cause());
+                    success = false;
+                } else {
+                    log.debug("Self test probe went through the proxy for port {}", port);
+                    success = true;
+                }
+            }
+        } finally {
+            probe.close()
+                .awaitUninterruptibly();
+            probeListener.close()
+                .awaitUninterruptibly();
+            echo.close()
+                .awaitUninterruptibly();
+        }
+
+        return success;
     }
 
     @Override
     public final void start() {
-        final Channel serverChannel;
+        final ProxyConfig     config;
+        final AffinityOptions affinity;
 
         log.trace("Starting proxy");
 
         listener.onStart();
 
         // Initializes groups
-        parentGroup = new NioEventLoopGroup();
+        config = configuration.get();
+        if (ownedLoops) {
+            // Port reuse and some socket options require epoll
+            loops = new ProxyEventLoops(0, reusePort || config.isEpollRequired());
+            loops.warmUp();
+        }
+        if (config.isEpollRequired() && !loops.isEpoll()) {
+            log.warn("Some socket options require the epoll transport, and will be ignored");
+        }
+        affinity = config.getAffinity();
+        if (affinity.isEnabled()) {
+            affinityTable = new AffinityTable(affinity.getSize(), affinity.getTtl());
+        }
+        if (config.getBackendLimit()
+            .isEnabled()) {
+            limiters = new ConcurrencyLimiters(config.getBackendLimit());
+        }
+        if (config.getBuffer()
+            .isEnabled()) {
+            bufferBudget = new BufferBudget(config.getBuffer()
+                .getTotal());
+        }
         channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
-        childGroup = new NioEventLoopGroup();
+        connectionGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
-        serverChannel = connectoToServer();
+        serverChannel = connectoToServer(config);
 
         channelGroup.add(serverChannel);
 
         log.trace("Started proxy");
     }
 
+    @Override
+    public final void drain(final Duration timeout) {
+        final long deadline;
+        long remaining;
+
+        log.info("Draining proxy, {} open connections", connectionGroup.size());
+
+        stopAccepting();
+
+        deadline = System.nanoTime() + timeout.toNanos();
+        remaining = timeout.toNanos();
+        while (!connectionGroup.isEmpty() && (remaining > 0)) {
+            listener.onDrain(connectionGroup.size());
+            log.info("Draining proxy, {} open connections", connectionGroup.size());
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.SECONDS.toNanos(1)));
+            } catch (final InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+                break;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+
+        if (!connectionGroup.isEmpty()) {
+            log.warn("Drain timed out, closing {} open connections", connectionGroup.size());
+            // Waits for them, so their access log lines are written before returning
+            connectionGroup.forEach(this::markShutdown);
+            connectionGroup.close()
+                .awaitUninterruptibly();
+        }
+        if (muxConnector.size() > 0) {
+            // Only the streams are tracked as connections, the tunnels carrying them are closed once drained
+            log.info("Closing {} multiplexed connections", muxConnector.size());
+        }
+
+        stop();
+    }
+
+    @Override
+    public final void stopAccepting() {
+        if (channelGroup != null) {
+            channelGroup.close()
+                .awaitUninterruptibly();
+        }
+    }
+
     @Override
     public final void stop() {
         log.trace("Stopping proxy");
@@ -122,34 +417,77 @@ public final void stop() {
 
         // Stop server
         channelGroup.close();
-        parentGroup.shutdownGracefully();
-        childGroup.shutdownGracefully();
+        connectionGroup.forEach(this::markShutdown);
+        connectionGroup.close();
+        // With shared event loops, these would be kept open after the server stops
+        muxConnector.close();
+        if (ownedLoops) {
+            loops.shutdown();
+        }
+
+        latencyRecorder.getLatencies()
+            .forEach((target, latencies) -> log.info("Latencies for {}: {}", target, latencies));
 
         log.trace("Stopped proxy");
     }
 
     /**
-     * Starts a server connection and returns a channel.
+     * Marks a connection as closed by the shutdown. This runs in the event loop of the connection, before it is closed.
      *
+     * @param connection
+     *            connection to mark
+     */
+    private final void markShutdown(final Channel connection) {
+        connection.eventLoop()
+            .execute(() -> {
+                final ConnectionTrace trace;
+
+                trace = connection.attr(ChannelAttributes.TRACE)
+                    .get();
+                if (trace != null) {
+                    trace.closing(CloseReason.SHUTDOWN);
+                }
+            });
+    }
+
+    /**
+     * Starts a server connection and returns a channel. The listener socket options are taken from the received
+     * configuration, while those for each connection are applied when it is accepted.
+     *
+     * @param config
+     *            configuration when starting the server
      * @return channel for the server
      */
-    private final Channel connectoToServer() {
+    private final Channel connectoToServer(final ProxyConfig config) {
         final ServerBootstrap bootstrap;
         final ChannelFuture   channelFuture;
 
         bootstrap = new ServerBootstrap()
             // Registers groups
-            .group(parentGroup, childGroup)
+            .group(loops.getParentGroup(), loops.getChildGroup())
             // Defines channel
-            .channel(NioServerSocketChannel.class)
+            .channel(loops.getServerChannelClass())
             // Configuration
-            .option(ChannelOption.SO_BACKLOG, 1024)
             .option(ChannelOption.AUTO_CLOSE, true)
             .option(ChannelOption.SO_REUSEADDR, true)
-            .childOption(ChannelOption.SO_KEEPALIVE, true)
-            .childOption(ChannelOption.TCP_NODELAY, true)
+            .option(ChannelOption.ALLOCATOR, loops.getAllocator())
+            .childOption(ChannelOption.ALLOCATOR, loops.getAllocator())
+            // Reads are requested by the proxy handler
+            .childOption(ChannelOption.AUTO_READ, false)
             // Child handler
-            .childHandler(new ProxyServerChannelInitializer(targetHost, targetPort, listener));
+            .childHandler(new ProxyServerChannelInitializer(configuration, connectionGroup, latencyRecorder,
+                connectionListener, muxConnector, affinityTable, limiters, bufferBudget));
+
+        config.getListenerSocket()
+            .applyToServer(bootstrap, loops.isEpoll());
+
+        if (reusePort) {
+            if (loops.isEpoll()) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            } else {
+                log.warn("Port reuse requires the epoll transport, binding port {} without it", port);
+            }
+        }
 
         try {
             // Binds to the port
@@ -171,4 +509,76 @@ private final Channel connectoToServer() {
         return channelFuture.channel();
     }
 
+    /**
+     * Echoes back everything received. Target for the self test probes.
+     */
+    @Sharable
+    private static final class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        /**
+         * Constructs an echo handler.
+         */
+        private EchoHandler() {
+            super();
+        }
+
+        @Override
+        public final void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+            ctx.writeAndFlush(msg);
+        }
+
+    }
+
+    /**
+     * Reads the echoed self test probe, completing once all of it came back.
+     */
+    private static final class ProbeHandler extends ChannelInboundHandlerAdapter {
+
+        /**
+         * Completed once the whole probe came back, or failed if the connection closed before.
+         */
+        @Getter
+        private final Promise<Void> echoed = GlobalEventExecutor.INSTANCE.newPromise();
+
+        /**
+         * Bytes still to come back.
+         */
+        private int                 pending;
+
+        /**
+         * Constructs a handler for a probe.
+         *
+         * @param length
+         *            probe length
+         */
+        private ProbeHandler(final int length) {
+            super();
+
+            pending = length;
+        }
+
+        @Override
+        public final void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+            echoed.tryFailure(new ClosedChannelException());
+
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public final void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+            pending -= ((ByteBuf) msg).readableBytes();
+            ReferenceCountUtil.release(msg);
+            if (pending <= 0) {
+                echoed.trySuccess(null);
+            }
+        }
+
+        @Override
+        public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            echoed.tryFailure(cause);
+            ctx.close();
+        }
+
+    }
+
 }
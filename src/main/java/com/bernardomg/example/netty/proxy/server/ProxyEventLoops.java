@@ -0,0 +1,237 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Event loops and buffer allocator for proxy servers. These can be shared by any number of servers, so a single
+ * process hosting many of them only needs one set of threads and one pool of buffers.
+ * <p>
+ * The epoll transport is used if requested and available, otherwise NIO.
+ * <p>
+ * Netty starts the event loop threads lazily, on their first task. To avoid the first connections paying for this, the
+ * event loops can be warmed up.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ProxyEventLoops {
+
+    /**
+     * Size of the buffers allocated to warm up the allocator.
+     */
+    private static final int       WARM_UP_BUFFER = 16 * 1024;
+
+    /**
+     * Buffer allocator.
+     */
+    @Getter
+    private final ByteBufAllocator allocator;
+
+    /**
+     * Event loop group for the proxied connections.
+     */
+    @Getter
+    private final EventLoopGroup   childGroup;
+
+    /**
+     * Indicates if the epoll transport is used.
+     */
+    @Getter
+    private final boolean          epoll;
+
+    /**
+     * Event loop group for accepting connections, or {@code null} if no connections are accepted.
+     */
+    @Getter
+    private final EventLoopGroup   parentGroup;
+
+    /**
+     * Creates the event loops.
+     *
+     * @param workers
+     *            number of threads for the proxied connections, zero to use the Netty default
+     * @param useEpoll
+     *            use the epoll transport, if available
+     */
+    public ProxyEventLoops(final int workers, final boolean useEpoll) {
+        this(workers, useEpoll, true);
+    }
+
+    /**
+     * Creates the event loops. Servers which don't accept connections, such as datagram servers, only need the child
+     * group.
+     *
+     * @param workers
+     *            number of threads for the proxied connections, zero to use the Netty default
+     * @param useEpoll
+     *            use the epoll transport, if available
+     * @param acceptor
+     *            create the group for accepting connections
+     */
+    public ProxyEventLoops(final int workers, final boolean useEpoll, final boolean acceptor) {
+        super();
+
+        if (useEpoll && !Epoll.isAvailable()) {
+            log.warn("Epoll is not available, using NIO: {}", Epoll.unavailabilityCause()
+                .getLocalizedMessage());
+        }
+
+        epoll = useEpoll && Epoll.isAvailable();
+        if (!acceptor) {
+            parentGroup = null;
+        } else if (epoll) {
+            parentGroup = new EpollEventLoopGroup(1);
+        } else {
+            parentGroup = new NioEventLoopGroup(1);
+        }
+        if (epoll) {
+            childGroup = new EpollEventLoopGroup(workers);
+        } else {
+            childGroup = new NioEventLoopGroup(workers);
+        }
+        allocator = PooledByteBufAllocator.DEFAULT;
+    }
+
+    /**
+     * Returns the class for the client channels, depending on the transport.
+     *
+     * @return the class for the client channels
+     */
+    public final Class<? extends SocketChannel> getChannelClass() {
+        final Class<? extends SocketChannel> channelClass;
+
+        if (epoll) {
+            channelClass = EpollSocketChannel.class;
+        } else {
+            channelClass = NioSocketChannel.class;
+        }
+
+        return channelClass;
+    }
+
+    /**
+     * Returns the class for the datagram channels, depending on the transport.
+     *
+     * @return the class for the datagram channels
+     */
+    public final Class<? extends DatagramChannel> getDatagramChannelClass() {
+        final Class<? extends DatagramChannel> channelClass;
+
+        if (epoll) {
+            channelClass = EpollDatagramChannel.class;
+        } else {
+            channelClass = NioDatagramChannel.class;
+        }
+
+        return channelClass;
+    }
+
+    /**
+     * Returns the class for the server channels, depending on the transport.
+     *
+     * @return the class for the server channels
+     */
+    public final Class<? extends ServerChannel> getServerChannelClass() {
+        final Class<? extends ServerChannel> channelClass;
+
+        if (epoll) {
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            channelClass = NioServerSocketChannel.class;
+        }
+
+        return channelClass;
+    }
+
+    /**
+     * Shuts down the event loops.
+     */
+    public final void shutdown() {
+        if (parentGroup != null) {
+            parentGroup.shutdownGracefully();
+        }
+        childGroup.shutdownGracefully();
+    }
+
+    /**
+     * Starts all the event loop threads, and allocates a buffer in each of them. This creates the thread caches of the
+     * allocator, so the first connections don't have to. Waits until all the event loops are done.
+     */
+    public final void warmUp() {
+        final List<Future<?>> tasks;
+
+        log.debug("Warming up event loops");
+
+        tasks = new ArrayList<>();
+        if (parentGroup != null) {
+            for (final EventExecutor executor : parentGroup) {
+                tasks.add(executor.submit(this::touchAllocator));
+            }
+        }
+        for (final EventExecutor executor : childGroup) {
+            tasks.add(executor.submit(this::touchAllocator));
+        }
+        for (final Future<?> task : tasks) {
+            task.syncUninterruptibly();
+        }
+
+        log.debug("Warmed up {} event loops", tasks.size());
+    }
+
+    /**
+     * Allocates and releases buffers, so the allocator prepares the cache for the current thread.
+     */
+    private final void touchAllocator() {
+        allocator.directBuffer(WARM_UP_BUFFER)
+            .release();
+        allocator.heapBuffer(WARM_UP_BUFFER)
+            .release();
+    }
+
+}
@@ -32,6 +32,14 @@
  */
 public interface ProxyListener {
 
+    /**
+     * Reacts to the progress of a drain. Called periodically while waiting for the open connections to finish.
+     *
+     * @param remaining
+     *            number of connections still open
+     */
+    public default void onDrain(final int remaining) {}
+
     /**
      * Reacts to a request message being received.
      *
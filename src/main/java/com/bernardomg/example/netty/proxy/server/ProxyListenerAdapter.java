@@ -0,0 +1,68 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Adapts a {@link ProxyListener} to receive connection events. The data is transformed into strings, as the proxy
+ * listener expects.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ProxyListenerAdapter implements ConnectionListener {
+
+    /**
+     * Adapted listener.
+     */
+    private final ProxyListener listener;
+
+    /**
+     * Constructs an adapter for the listener.
+     *
+     * @param lstn
+     *            listener to adapt
+     */
+    public ProxyListenerAdapter(final ProxyListener lstn) {
+        super();
+
+        listener = Objects.requireNonNull(lstn);
+    }
+
+    @Override
+    public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+            final int length, final long nanoTime) {
+        if (direction == TrafficDirection.REQUEST) {
+            listener.onRequest(data.toString(Charset.defaultCharset()));
+        } else {
+            listener.onResponse(data.toString(Charset.defaultCharset()));
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import io.netty.channel.Channel;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Group of servers sharing the same event loops. These are started and stopped together, and the event loops are shut
+ * down after stopping all of them.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ProxyServerGroup implements Server {
+
+    /**
+     * Event loops shared by the servers.
+     */
+    private final ProxyEventLoops    loops;
+
+    /**
+     * Servers in the group.
+     */
+    private final Collection<Server> servers;
+
+    /**
+     * Constructs a group for the servers.
+     *
+     * @param srvs
+     *            servers in the group
+     * @param evtLoops
+     *            event loops shared by the servers
+     */
+    public ProxyServerGroup(final Collection<Server> srvs, final ProxyEventLoops evtLoops) {
+        super();
+
+        servers = List.copyOf(srvs);
+        loops = Objects.requireNonNull(evtLoops);
+    }
+
+    /**
+     * Drains all the servers at the same time. First all of them stop accepting connections, and then each one is
+     * drained in turn, with the time left until a deadline shared by all of them. Once the deadline passes, the
+     * servers still to drain close their connections without waiting.
+     *
+     * @param timeout
+     *            maximum time to wait for the open connections of all the servers
+     */
+    @Override
+    public final void drain(final Duration timeout) {
+        final long deadline;
+
+        deadline = System.nanoTime() + timeout.toNanos();
+
+        servers.forEach(Server::stopAccepting);
+        for (final Server server : servers) {
+            server.drain(Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0)));
+        }
+
+        loops.shutdown();
+    }
+
+    @Override
+    public final void forEachConnection(final Consumer<Channel> action) {
+        for (final Server server : servers) {
+            server.forEachConnection(action);
+        }
+    }
+
+    @Override
+    public final boolean selfTest(final Duration timeout) {
+        boolean success;
+
+        success = true;
+        for (final Server server : servers) {
+            success &= server.selfTest(timeout);
+        }
+
+        return success;
+    }
+
+    @Override
+    public final void start() {
+        log.trace("Starting {} proxies", servers.size());
+
+        loops.warmUp();
+        servers.forEach(Server::start);
+
+        log.trace("Started {} proxies", servers.size());
+    }
+
+    @Override
+    public final void stop() {
+        log.trace("Stopping {} proxies", servers.size());
+
+        servers.forEach(Server::stop);
+        loops.shutdown();
+
+        log.trace("Stopped {} proxies", servers.size());
+    }
+
+}
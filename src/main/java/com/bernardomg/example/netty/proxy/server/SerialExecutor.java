@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs tasks one after the other, in the order they were received, on top of another executor. At most one task is
+ * running at any time, but consecutive tasks may run in different threads.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+final class SerialExecutor implements Executor {
+
+    /**
+     * Executor running the tasks.
+     */
+    private final Executor        executor;
+
+    /**
+     * Tasks waiting to run.
+     */
+    private final Queue<Runnable> tasks;
+
+    /**
+     * Number of tasks received and not finished yet. The tasks are being run while this is above zero.
+     */
+    private final AtomicInteger   unfinished;
+
+    public SerialExecutor(final Executor exec) {
+        super();
+
+        executor = Objects.requireNonNull(exec);
+        tasks = new ConcurrentLinkedQueue<>();
+        unfinished = new AtomicInteger();
+    }
+
+    @Override
+    public final void execute(final Runnable task) {
+        tasks.offer(task);
+        if (unfinished.getAndIncrement() == 0) {
+            // Nothing running, starts draining the tasks
+            executor.execute(this::runTasks);
+        }
+    }
+
+    /**
+     * Runs all the pending tasks, including those received while running.
+     */
+    private final void runTasks() {
+        do {
+            try {
+                tasks.poll()
+                    .run();
+            } catch (final RuntimeException e) {
+                log.error(e.getLocalizedMessage(), e);
+            }
+        } while (unfinished.decrementAndGet() > 0);
+    }
+
+}
@@ -24,6 +24,11 @@
 
 package com.bernardomg.example.netty.proxy.server;
 
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import io.netty.channel.Channel;
+
 /**
  * Generic server. Supports starting and stopping it.
  *
@@ -32,11 +37,61 @@
  */
 public interface Server {
 
+    /**
+     * Stops accepting connections, and waits for the open ones to finish before stopping the server. Connections still
+     * open after the timeout are closed.
+     * <p>
+     * By default there is nothing to wait for, and the server is just stopped.
+     *
+     * @param timeout
+     *            maximum time to wait for the open connections
+     */
+    public default void drain(final Duration timeout) {
+        stop();
+    }
+
+    /**
+     * Runs the action for each open proxied connection. Each connection channel has its trace stored in it.
+     * <p>
+     * By default the server tracks no connections, and this does nothing.
+     *
+     * @param action
+     *            action to run
+     */
+    public default void forEachConnection(final Consumer<Channel> action) {
+        // No connections are tracked
+    }
+
+    /**
+     * Checks the server is bound, then sends a probe through its handlers over the loopback interface, to a target
+     * created for the probe, and waits for it to come back. The probe uses a listener of its own, so the real
+     * connections are not affected. This checks the server relays data, and prepares the whole path before the first
+     * real connection. Servers which can't relay a probe only check they are bound.
+     * <p>
+     * By default there is nothing to check, and the test always passes.
+     *
+     * @param timeout
+     *            maximum time to wait for the probe
+     * @return {@code true} if the probe went through, {@code false} otherwise
+     */
+    public default boolean selfTest(final Duration timeout) {
+        return true;
+    }
+
     /**
      * Starts the server.
      */
     public void start();
 
+    /**
+     * Stops accepting new connections, keeping the open ones. Draining the server afterwards waits for them.
+     * <p>
+     * By default there is nothing to accept, and this does nothing.
+     */
+    public default void stopAccepting() {
+        // Nothing is accepted
+    }
+
     /**
      * Stops the server.
      */
@@ -0,0 +1,343 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.admin;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bernardomg.example.netty.proxy.server.Server;
+import com.bernardomg.example.netty.proxy.server.channel.ChannelAttributes;
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Handles the admin HTTP requests. All the responses are JSON:
+ * <ul>
+ * <li>{@code GET /connections}: all the live connections</li>
+ * <li>{@code GET /connections/top?n=10}: the connections with the highest throughput, 10 by default and at most
+ * 1000</li>
+ * <li>{@code DELETE /connections/<id>}: closes a connection</li>
+ * </ul>
+ * <p>
+ * Connections are read from the latest samples, so they may be up to one sampling interval old.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class AdminChannelHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+    /**
+     * Path for the connections.
+     */
+    private static final String     CONNECTIONS = "/connections";
+
+    /**
+     * Default number of connections returned by the top.
+     */
+    private static final int        DEFAULT_TOP = 10;
+
+    /**
+     * Maximum number of connections returned by the top.
+     */
+    private static final int        MAX_TOP = 1000;
+
+    /**
+     * Path for the top connections.
+     */
+    private static final String     TOP = "/connections/top";
+
+    /**
+     * Connection samples.
+     */
+    private final ConnectionSampler sampler;
+
+    /**
+     * Server with the connections.
+     */
+    private final Server            server;
+
+    public AdminChannelHandler(final Server srv, final ConnectionSampler smplr) {
+        super();
+
+        server = Objects.requireNonNull(srv);
+        sampler = Objects.requireNonNull(smplr);
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.error(cause.getLocalizedMessage(), cause);
+        ctx.close();
+    }
+
+    @Override
+    protected final void channelRead0(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+        final StringBuilder json;
+        HttpResponseStatus status;
+
+        json = new StringBuilder(256);
+        try {
+            status = handle(request, json);
+        } catch (final NumberFormatException e) {
+            json.setLength(0);
+            json.append("{\"error\":\"Invalid number\"}");
+            status = HttpResponseStatus.BAD_REQUEST;
+        }
+
+        respond(ctx, request, status, json);
+    }
+
+    /**
+     * Appends an address as a JSON string, or {@code null} if there is no address.
+     *
+     * @param json
+     *            JSON to append to
+     * @param address
+     *            address to append
+     */
+    private final void appendAddress(final StringBuilder json, final SocketAddress address) {
+        final InetSocketAddress inetAddress;
+
+        if (address instanceof InetSocketAddress) {
+            inetAddress = (InetSocketAddress) address;
+            json.append('"')
+                .append(inetAddress.getAddress()
+                    .getHostAddress())
+                .append(':')
+                .append(inetAddress.getPort())
+                .append('"');
+        } else if (address == null) {
+            json.append("null");
+        } else {
+            appendString(json, address.toString());
+        }
+    }
+
+    /**
+     * Appends samples as a JSON array.
+     *
+     * @param json
+     *            JSON to append to
+     * @param samples
+     *            samples to append
+     */
+    private final void appendSamples(final StringBuilder json, final List<ConnectionSample> samples) {
+        boolean first;
+
+        json.append('[');
+        first = true;
+        for (final ConnectionSample sample : samples) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"id\":")
+                .append(sample.getId())
+                .append(",\"client\":");
+            appendAddress(json, sample.getClient());
+            json.append(",\"target\":");
+            if (sample.getTarget() == null) {
+                json.append("null");
+            } else {
+                appendString(json, sample.getTarget()
+                    .toString());
+            }
+            json.append(",\"ageMillis\":")
+                .append(sample.getAge())
+                .append(",\"requestBytes\":")
+                .append(sample.getRequestBytes())
+                .append(",\"responseBytes\":")
+                .append(sample.getResponseBytes())
+                .append(",\"requestRate\":")
+                .append(sample.getRequestRate())
+                .append(",\"responseRate\":")
+                .append(sample.getResponseRate())
+                .append('}');
+        }
+        json.append(']');
+    }
+
+    /**
+     * Appends a JSON string, escaping quotes and backslashes.
+     *
+     * @param json
+     *            JSON to append to
+     * @param value
+     *            string to append
+     */
+    private final void appendString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            if ((value.charAt(i) == '"') || (value.charAt(i) == '\\')) {
+                json.append('\\');
+            }
+            json.append(value.charAt(i));
+        }
+        json.append('"');
+    }
+
+    /**
+     * Handles a request, writing the response body into the JSON.
+     *
+     * @param request
+     *            request to handle
+     * @param json
+     *            JSON response body
+     * @return the response status
+     */
+    private final HttpResponseStatus handle(final FullHttpRequest request, final StringBuilder json) {
+        final QueryStringDecoder decoder;
+        final String             path;
+        final HttpResponseStatus status;
+        final long               id;
+        int count;
+
+        decoder = new QueryStringDecoder(request.uri());
+        path = decoder.path();
+        if (HttpMethod.GET.equals(request.method()) && CONNECTIONS.equals(path)) {
+            appendSamples(json, sampler.getSamples());
+            status = HttpResponseStatus.OK;
+        } else if (HttpMethod.GET.equals(request.method()) && TOP.equals(path)) {
+            count = DEFAULT_TOP;
+            if (decoder.parameters()
+                .containsKey("n")) {
+                count = Integer.parseInt(decoder.parameters()
+                    .get("n")
+                    .get(0));
+            }
+            if (count > 0) {
+                appendSamples(json, sampler.getTop(Math.min(count, MAX_TOP)));
+                status = HttpResponseStatus.OK;
+            } else {
+                json.append("{\"error\":\"The number of connections must be positive\"}");
+                status = HttpResponseStatus.BAD_REQUEST;
+            }
+        } else if (HttpMethod.DELETE.equals(request.method()) && path.startsWith(CONNECTIONS + "/")) {
+            id = Long.parseLong(path.substring(CONNECTIONS.length() + 1));
+            if (kill(id)) {
+                log.info("Closing connection {} from the admin endpoint", id);
+                json.append("{\"closed\":")
+                    .append(id)
+                    .append('}');
+                status = HttpResponseStatus.OK;
+            } else {
+                json.append("{\"error\":\"No connection with id ")
+                    .append(id)
+                    .append("\"}");
+                status = HttpResponseStatus.NOT_FOUND;
+            }
+        } else {
+            json.append("{\"error\":\"Not found\"}");
+            status = HttpResponseStatus.NOT_FOUND;
+        }
+
+        return status;
+    }
+
+    /**
+     * Closes the connection with the received id. It is closed in its own event loop.
+     *
+     * @param id
+     *            id of the connection to close
+     * @return {@code true} if the connection exists, {@code false} otherwise
+     */
+    private final boolean kill(final long id) {
+        final AtomicBoolean found;
+
+        found = new AtomicBoolean();
+        server.forEachConnection(channel -> {
+            final ConnectionTrace trace;
+
+            trace = channel.attr(ChannelAttributes.TRACE)
+                .get();
+            if ((trace != null) && (trace.getId() == id)) {
+                found.set(true);
+                channel.eventLoop()
+                    .execute(() -> {
+                        trace.closing(CloseReason.ADMIN);
+                        channel.close();
+                    });
+            }
+        });
+
+        return found.get();
+    }
+
+    /**
+     * Writes the JSON response. The connection is closed afterwards, unless the client asked to keep it alive.
+     *
+     * @param ctx
+     *            handler context
+     * @param request
+     *            request being answered
+     * @param status
+     *            response status
+     * @param json
+     *            response body
+     */
+    private final void respond(final ChannelHandlerContext ctx, final FullHttpRequest request,
+            final HttpResponseStatus status, final CharSequence json) {
+        final ByteBuf          content;
+        final FullHttpResponse response;
+        final boolean          keepAlive;
+
+        content = ctx.alloc()
+            .buffer(json.length());
+        content.writeCharSequence(json, StandardCharsets.UTF_8);
+        response = new DefaultFullHttpResponse(request.protocolVersion(), status, content);
+        response.headers()
+            .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+            .setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+
+        keepAlive = HttpUtil.isKeepAlive(request);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response)
+                .addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.admin;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.Server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Admin HTTP server. Lists the live connections of a proxy server, and allows closing them. See
+ * {@link AdminChannelHandler} for the supported requests.
+ * <p>
+ * It runs in its own thread, which also samples the connections every second, so it keeps answering when the proxy
+ * event loops are busy. As it can close connections, it only listens on the loopback interface.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class AdminServer {
+
+    /**
+     * Maximum size for the request bodies. Requests don't need a body.
+     */
+    private static final int        MAX_CONTENT = 8 * 1024;
+
+    /**
+     * Milliseconds between connection samples.
+     */
+    private static final long       SAMPLE_INTERVAL = 1000;
+
+    /**
+     * Event loop for the admin server.
+     */
+    private EventLoopGroup          group;
+
+    /**
+     * Port to listen to.
+     */
+    private final int               port;
+
+    /**
+     * Connection sampler.
+     */
+    private final ConnectionSampler sampler;
+
+    /**
+     * Proxy server with the connections.
+     */
+    private final Server            server;
+
+    /**
+     * Channel bound to the port.
+     */
+    private Channel                 serverChannel;
+
+    /**
+     * Constructs an admin server.
+     *
+     * @param prt
+     *            port to listen to
+     * @param srv
+     *            proxy server with the connections
+     */
+    public AdminServer(final int prt, final Server srv) {
+        super();
+
+        port = prt;
+        server = Objects.requireNonNull(srv);
+        sampler = new ConnectionSampler(srv);
+    }
+
+    /**
+     * Starts the admin server, and the connection sampling.
+     */
+    public final void start() {
+        group = new NioEventLoopGroup(1);
+        group.scheduleAtFixedRate(sampler::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        serverChannel = new ServerBootstrap().group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+
+                @Override
+                protected final void initChannel(final SocketChannel ch) {
+                    ch.pipeline()
+                        .addLast(new HttpServerCodec())
+                        .addLast(new HttpObjectAggregator(MAX_CONTENT))
+                        .addLast(new AdminChannelHandler(server, sampler));
+                }
+
+            })
+            .bind(InetAddress.getLoopbackAddress(), port)
+            .syncUninterruptibly()
+            .channel();
+
+        log.info("Admin endpoint listening on port {}", port);
+    }
+
+    /**
+     * Stops the admin server.
+     */
+    public final void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+    }
+
+}
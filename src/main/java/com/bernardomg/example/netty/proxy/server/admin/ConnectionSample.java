@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.admin;
+
+import java.net.SocketAddress;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import lombok.Value;
+
+/**
+ * State of a live connection when it was sampled. Rates are the bytes per second since the previous sample.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+public final class ConnectionSample {
+
+    /**
+     * Milliseconds since the connection was accepted.
+     */
+    private final long          age;
+
+    /**
+     * Client address.
+     */
+    private final SocketAddress client;
+
+    /**
+     * Connection id.
+     */
+    private final long          id;
+
+    /**
+     * Bytes received from the client.
+     */
+    private final long          requestBytes;
+
+    /**
+     * Bytes per second received from the client.
+     */
+    private final long          requestRate;
+
+    /**
+     * Bytes received from the target.
+     */
+    private final long          responseBytes;
+
+    /**
+     * Bytes per second received from the target.
+     */
+    private final long          responseRate;
+
+    /**
+     * Target, or {@code null} if not yet routed.
+     */
+    private final ProxyTarget   target;
+
+    /**
+     * Returns the bytes per second in both directions.
+     *
+     * @return the connection throughput
+     */
+    public final long getRate() {
+        return requestRate + responseRate;
+    }
+
+}
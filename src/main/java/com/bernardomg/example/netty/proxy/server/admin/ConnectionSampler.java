@@ -0,0 +1,208 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.admin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.Server;
+import com.bernardomg.example.netty.proxy.server.channel.ChannelAttributes;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.channel.Channel;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+/**
+ * Takes periodic samples of the live connections in a server. Each sample is an immutable snapshot, published
+ * through a volatile reference, so readers never block the sampling or the proxied connections.
+ * <p>
+ * Rates are computed from the bytes relayed since the previous sample. New connections use the bytes relayed since
+ * they were accepted.
+ * <p>
+ * Sampling should always happen in the same thread.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ConnectionSampler {
+
+    /**
+     * Sorts samples by throughput, highest first.
+     */
+    private static final Comparator<ConnectionSample> BY_RATE = Comparator.comparingLong(ConnectionSample::getRate)
+        .reversed();
+
+    /**
+     * Previous samples by connection id.
+     */
+    private LongObjectMap<ConnectionSample> previous = new LongObjectHashMap<>();
+
+    /**
+     * When the previous samples were taken.
+     */
+    private long                            previousTime = System.nanoTime();
+
+    /**
+     * Latest samples.
+     */
+    private volatile List<ConnectionSample> samples = Collections.emptyList();
+
+    /**
+     * Server to sample.
+     */
+    private final Server                    server;
+
+    /**
+     * Constructs a sampler for the server.
+     *
+     * @param srv
+     *            server to sample
+     */
+    public ConnectionSampler(final Server srv) {
+        super();
+
+        server = Objects.requireNonNull(srv);
+    }
+
+    /**
+     * Returns the latest samples, for all the connections.
+     *
+     * @return the latest samples
+     */
+    public final List<ConnectionSample> getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the connections with the highest throughput in the latest samples.
+     *
+     * @param count
+     *            maximum number of connections to return
+     * @return the connections with the highest throughput
+     */
+    public final List<ConnectionSample> getTop(final int count) {
+        final List<ConnectionSample> top;
+
+        top = new ArrayList<>(samples);
+        top.sort(BY_RATE);
+
+        return top.subList(0, Math.min(count, top.size()));
+    }
+
+    /**
+     * Samples all the live connections, replacing the latest samples.
+     */
+    public final void sample() {
+        final List<ConnectionSample>          current;
+        final LongObjectMap<ConnectionSample> byId;
+        final long                            now;
+        final long                            elapsed;
+
+        now = System.nanoTime();
+        elapsed = now - previousTime;
+        current = new ArrayList<>(previous.size() + 16);
+        byId = new LongObjectHashMap<>(previous.size() + 16);
+        server.forEachConnection(channel -> {
+            final ConnectionSample sample;
+
+            sample = sample(channel, now, elapsed);
+            if (sample != null) {
+                current.add(sample);
+                byId.put(sample.getId(), sample);
+            }
+        });
+
+        previous = byId;
+        previousTime = now;
+        samples = Collections.unmodifiableList(current);
+    }
+
+    /**
+     * Transforms bytes relayed in some time into bytes per second.
+     *
+     * @param bytes
+     *            bytes relayed
+     * @param nanos
+     *            nanoseconds taken
+     * @return the bytes per second
+     */
+    private final long rate(final long bytes, final long nanos) {
+        final long rate;
+
+        if (nanos <= 0) {
+            rate = 0;
+        } else {
+            rate = (long) ((bytes * (double) TimeUnit.SECONDS.toNanos(1)) / nanos);
+        }
+
+        return rate;
+    }
+
+    /**
+     * Samples a single connection.
+     *
+     * @param channel
+     *            connection to sample
+     * @param now
+     *            current nanosecond time
+     * @param elapsed
+     *            nanoseconds since the previous sample
+     * @return the connection sample, or {@code null} if the connection is not traced
+     */
+    private final ConnectionSample sample(final Channel channel, final long now, final long elapsed) {
+        final ConnectionTrace  trace;
+        final ConnectionSample last;
+        final long             requestBytes;
+        final long             responseBytes;
+        final long             requestRate;
+        final long             responseRate;
+
+        trace = channel.attr(ChannelAttributes.TRACE)
+            .get();
+        if (trace == null) {
+            return null;
+        }
+
+        requestBytes = trace.getRequestBytes();
+        responseBytes = trace.getResponseBytes();
+        last = previous.get(trace.getId());
+        if (last == null) {
+            requestRate = rate(requestBytes, now - trace.getAcceptTime());
+            responseRate = rate(responseBytes, now - trace.getAcceptTime());
+        } else {
+            requestRate = rate(requestBytes - last.getRequestBytes(), elapsed);
+            responseRate = rate(responseBytes - last.getResponseBytes(), elapsed);
+        }
+
+        return new ConnectionSample(TimeUnit.NANOSECONDS.toMillis(now - trace.getAcceptTime()), trace.getClient(),
+            trace.getId(), requestBytes, requestRate, responseBytes, responseRate, trace.getTarget());
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory shared by the buffers of all the connections. Each buffer reserves the bytes it keeps in memory, and releases
+ * them once they are sent.
+ * <p>
+ * It is shared between event loops, so it is lock free.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class BufferBudget {
+
+    /**
+     * Bytes available to all the buffers.
+     */
+    private final long       capacity;
+
+    /**
+     * Bytes reserved.
+     */
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * Constructs a budget with the received capacity.
+     *
+     * @param cpcty
+     *            bytes available to all the buffers
+     */
+    public BufferBudget(final long cpcty) {
+        super();
+
+        capacity = cpcty;
+    }
+
+    /**
+     * Returns the bytes available to all the buffers.
+     *
+     * @return the budget capacity
+     */
+    public final long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the bytes reserved.
+     *
+     * @return the bytes reserved
+     */
+    public final long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Indicates if there are bytes left in the budget.
+     *
+     * @return {@code true} if the budget is not used up
+     */
+    public final boolean hasRoom() {
+        return used.get() < capacity;
+    }
+
+    /**
+     * Releases reserved bytes.
+     *
+     * @param bytes
+     *            bytes to release
+     */
+    public final void release(final long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * Reserves bytes, even if they go over the capacity. Only meant for data which has to be kept anyway.
+     *
+     * @param bytes
+     *            bytes to reserve
+     */
+    public final void reserve(final long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    /**
+     * Reserves bytes if they fit in the budget.
+     *
+     * @param bytes
+     *            bytes to reserve
+     * @return {@code true} if they were reserved
+     */
+    public final boolean tryReserve(final long bytes) {
+        long    current;
+        boolean reserved;
+
+        do {
+            current = used.get();
+            reserved = (current + bytes) <= capacity;
+        } while (reserved && !used.compareAndSet(current, current + bytes));
+
+        return reserved;
+    }
+
+}
@@ -0,0 +1,411 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.buffer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.config.BufferOptions;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffer for the requests of a connection, between the client and a slow target. Requests are read ahead while there
+ * is room for them, instead of waiting for each one to be written.
+ * <p>
+ * Requests are kept in memory up to the connection budget, as long as the shared budget has room. After that they are
+ * copied into a {@link SpillFile}, created the first time it is needed, and the buffers are released. The spilled
+ * bytes are read back in small chunks once the target can take them. A queue keeps the order of both the requests in
+ * memory and the spilled ones.
+ * <p>
+ * Reading from the client stops once both the memory and the spill file are full, and resumes when there is room
+ * again. The read which fills them is kept in memory anyway, so the connection budget may be exceeded by a single
+ * read, at most 64KB with the default receive buffers. The shared budget may be exceeded by one such read for each
+ * connection, so with many full connections it is a soft cap, going over by up to 64KB times the connections
+ * buffering.
+ * <p>
+ * Writes to the target are only done while it is writable, so its outbound buffer stays bounded too. The buffer is
+ * added to the target pipeline, to keep writing once it is writable again, and to release everything once it is
+ * closed.
+ * <p>
+ * It is not thread safe, it should only be used from the event loop of its connection, which is also the one of the
+ * target.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class RequestBuffer extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Spilled bytes, in the queue between the requests kept in memory. Consecutive spilled requests share the same
+     * entry.
+     */
+    private static final class Spilled {
+
+        /**
+         * Bytes spilled.
+         */
+        private int bytes;
+
+    }
+
+    /**
+     * Maximum bytes read back from the spill file at once.
+     */
+    private static final int            CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Memory shared by all the connections.
+     */
+    private final BufferBudget          budget;
+
+    /**
+     * Directory for the spill file, or {@code null} for the default temporary directory.
+     */
+    private final Path                  directory;
+
+    /**
+     * Indicates if the target is closed once the buffer is empty.
+     */
+    private boolean                     finishing;
+
+    /**
+     * Bytes the connection keeps in memory.
+     */
+    private final int                   memory;
+
+    /**
+     * Bytes kept in memory.
+     */
+    private long                        memoryBytes;
+
+    /**
+     * Requests waiting for the target, either buffers in memory or spilled bytes.
+     */
+    private final Deque<Object>         queue = new ArrayDeque<>();
+
+    /**
+     * Channel the requests are read from.
+     */
+    private final Channel               source;
+
+    /**
+     * Spill file, or {@code null} until needed.
+     */
+    private SpillFile                   spill;
+
+    /**
+     * Bytes the connection spills into the file. Zero if spilling is disabled or failed.
+     */
+    private int                         spillSize;
+
+    /**
+     * Indicates if reading from the source is stopped until there is room.
+     */
+    private boolean                     suspended;
+
+    /**
+     * Channel the requests are written to.
+     */
+    private final Channel               target;
+
+    /**
+     * Listener for writes, which only reacts to failures.
+     */
+    private final ChannelFutureListener written;
+
+    /**
+     * Constructs a buffer between the channels.
+     *
+     * @param src
+     *            channel the requests are read from
+     * @param trgt
+     *            channel the requests are written to
+     * @param bdgt
+     *            memory shared by all the connections
+     * @param options
+     *            buffer options
+     * @param flr
+     *            listener for failed writes
+     */
+    public RequestBuffer(final Channel src, final Channel trgt, final BufferBudget bdgt, final BufferOptions options,
+            final ChannelFutureListener flr) {
+        super();
+
+        source = Objects.requireNonNull(src);
+        target = Objects.requireNonNull(trgt);
+        budget = Objects.requireNonNull(bdgt);
+        memory = options.getMemory();
+        spillSize = options.getSpill();
+        directory = options.getDirectory();
+        written = f -> {
+            if (!f.isSuccess()) {
+                flr.operationComplete(f);
+            }
+        };
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        close();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public final void channelWritabilityChanged(final ChannelHandlerContext ctx) {
+        if (ctx.channel()
+            .isWritable()) {
+            drain();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    /**
+     * Releases the requests not sent, and deletes the spill file. Nothing is sent after this.
+     */
+    public final void close() {
+        Object entry;
+
+        while (!queue.isEmpty()) {
+            entry = queue.poll();
+            if (entry instanceof ByteBuf) {
+                ((ByteBuf) entry).release();
+            }
+        }
+        budget.release(memoryBytes);
+        memoryBytes = 0;
+        spillSize = 0;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /**
+     * Closes the target once all the requests are sent. Used after the source is closed, so the requests already
+     * received are not lost.
+     *
+     * @param timeout
+     *            milliseconds to wait for the target, or zero to wait without limit
+     */
+    public final void finish(final long timeout) {
+        finishing = true;
+        if (timeout > 0) {
+            target.eventLoop()
+                .schedule(() -> {
+                    if (target.isActive()) {
+                        log.debug("Buffered requests not sent in {} ms, closing target", timeout);
+                        target.close();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+        }
+        drain();
+    }
+
+    /**
+     * Indicates if all the requests were sent.
+     *
+     * @return {@code true} if there are no requests waiting
+     */
+    public final boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Adds a request, and sends as much as possible to the target. The buffer takes ownership of the request.
+     * <p>
+     * If there is no room left, reading from the source is resumed once there is.
+     *
+     * @param request
+     *            request to send
+     * @return {@code true} if there is room for more requests, and the source can be read
+     */
+    public final boolean offer(final ByteBuf request) {
+        final int     size;
+        final boolean room;
+
+        size = request.readableBytes();
+        if (queue.isEmpty() && target.isWritable()) {
+            // Nothing waiting, sent right away
+            target.writeAndFlush(request)
+                .addListener(written);
+        } else if (((memoryBytes + size) <= memory) && budget.tryReserve(size)) {
+            queue.add(request);
+            memoryBytes += size;
+        } else if ((size <= spillSize) && openSpill() && (size <= spill.remaining())) {
+            spill(request);
+        } else {
+            // There is no room, but it was already read, so the budgets are exceeded by this read
+            budget.reserve(size);
+            queue.add(request);
+            memoryBytes += size;
+        }
+
+        drain();
+
+        room = hasRoom();
+        suspended = !room;
+        if (suspended) {
+            log.debug("Buffer full with {} bytes in memory and {} spilled, suspending reads", memoryBytes,
+                spilledBytes());
+        }
+
+        return room;
+    }
+
+    /**
+     * Writes requests into the target while it is writable. Once there is room for more, reading from the source is
+     * resumed.
+     */
+    private final void drain() {
+        Object  entry;
+        ByteBuf request;
+        Spilled spilled;
+        boolean wrote;
+
+        wrote = false;
+        while (target.isWritable() && !queue.isEmpty()) {
+            entry = queue.peek();
+            if (entry instanceof ByteBuf) {
+                queue.poll();
+                request = (ByteBuf) entry;
+                memoryBytes -= request.readableBytes();
+                budget.release(request.readableBytes());
+            } else {
+                spilled = (Spilled) entry;
+                request = spill.read(target.alloc(), Math.min(spilled.bytes, CHUNK_SIZE));
+                spilled.bytes -= request.readableBytes();
+                if (spilled.bytes == 0) {
+                    queue.poll();
+                }
+            }
+            target.write(request)
+                .addListener(written);
+            wrote = true;
+        }
+        if (wrote) {
+            target.flush();
+        }
+
+        if (finishing && queue.isEmpty()) {
+            // Closes once the last request is written
+            finishing = false;
+            target.writeAndFlush(Unpooled.EMPTY_BUFFER)
+                .addListener(ChannelFutureListener.CLOSE);
+        } else if (suspended && hasRoom()) {
+            suspended = false;
+            log.debug("Buffer has room, resuming reads");
+            source.read();
+        }
+    }
+
+    /**
+     * Indicates if there is room for more requests, either in memory or in the spill file.
+     *
+     * @return {@code true} if there is room for more requests
+     */
+    private final boolean hasRoom() {
+        final boolean memoryRoom;
+        final boolean spillRoom;
+
+        memoryRoom = (memoryBytes < memory) && budget.hasRoom();
+        if (spill == null) {
+            spillRoom = spillSize > 0;
+        } else {
+            spillRoom = spill.remaining() > 0;
+        }
+
+        return memoryRoom || spillRoom;
+    }
+
+    /**
+     * Opens the spill file if it is not open yet. If it can't be created, spilling is disabled for the connection.
+     *
+     * @return {@code true} if the spill file is open
+     */
+    private final boolean openSpill() {
+        if ((spill == null) && (spillSize > 0)) {
+            try {
+                spill = SpillFile.create(directory, spillSize);
+                log.debug("Spilling requests into a file of {} bytes", spillSize);
+            } catch (final IOException e) {
+                log.warn("Can't create spill file, requests are kept in memory", e);
+                spillSize = 0;
+            }
+        }
+
+        return spill != null;
+    }
+
+    /**
+     * Moves a request into the spill file, and releases it.
+     *
+     * @param request
+     *            request to spill
+     */
+    private final void spill(final ByteBuf request) {
+        final Object  last;
+        final Spilled spilled;
+
+        last = queue.peekLast();
+        if (last instanceof Spilled) {
+            spilled = (Spilled) last;
+        } else {
+            spilled = new Spilled();
+            queue.add(spilled);
+        }
+        spilled.bytes += request.readableBytes();
+        spill.write(request);
+        request.release();
+    }
+
+    /**
+     * Returns the bytes in the spill file.
+     *
+     * @return the bytes spilled
+     */
+    private final int spilledBytes() {
+        final int bytes;
+
+        if (spill == null) {
+            bytes = 0;
+        } else {
+            bytes = spill.getSize();
+        }
+
+        return bytes;
+    }
+
+}
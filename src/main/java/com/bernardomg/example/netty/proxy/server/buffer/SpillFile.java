@@ -0,0 +1,242 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.buffer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Memory mapped temporary file, used as a ring buffer for the data which doesn't fit in memory. Data is read back in
+ * the same order it was written.
+ * <p>
+ * The mapped pages belong to the page cache, not to the heap or direct memory, so the operating system writes them to
+ * disk when short of memory. The file is unmapped and deleted when closed, and it can't be used after that.
+ * <p>
+ * It is not thread safe, it should only be used from the event loop of its connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class SpillFile implements AutoCloseable {
+
+    /**
+     * Creates a spill file.
+     *
+     * @param directory
+     *            directory for the file, or {@code null} for the default temporary directory
+     * @param capacity
+     *            bytes the file can hold
+     * @return the spill file
+     * @throws IOException
+     *             if the file can't be created or mapped
+     */
+    public static final SpillFile create(final Path directory, final int capacity) throws IOException {
+        final Path             path;
+        final MappedByteBuffer mapped;
+
+        if (directory == null) {
+            path = Files.createTempFile("proxy-spill", ".tmp");
+        } else {
+            path = Files.createTempFile(directory, "proxy-spill", ".tmp");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after closing the channel
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (final IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        return new SpillFile(path, mapped);
+    }
+
+    /**
+     * Indicates if the file was closed.
+     */
+    private boolean                closed;
+
+    /**
+     * View of the mapped file.
+     */
+    private final ByteBuf          data;
+
+    /**
+     * Mapped file.
+     */
+    private final MappedByteBuffer mapped;
+
+    /**
+     * Path to the file.
+     */
+    private final Path             path;
+
+    /**
+     * Position of the next byte to read.
+     */
+    private int                    readIndex;
+
+    /**
+     * Bytes stored.
+     */
+    private int                    size;
+
+    /**
+     * Constructs a spill file over a mapped file.
+     *
+     * @param pth
+     *            path to the file
+     * @param mppd
+     *            mapped file
+     */
+    private SpillFile(final Path pth, final MappedByteBuffer mppd) {
+        super();
+
+        path = pth;
+        mapped = mppd;
+        data = Unpooled.wrappedBuffer(mapped);
+    }
+
+    /**
+     * Unmaps and deletes the file.
+     */
+    @Override
+    public final void close() {
+        if (!closed) {
+            closed = true;
+            size = 0;
+            data.release();
+            // Unmaps right away, instead of waiting for the garbage collector
+            PlatformDependent.freeDirectBuffer(mapped);
+            try {
+                Files.deleteIfExists(path);
+            } catch (final IOException e) {
+                log.warn("Can't delete spill file {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes the file can hold.
+     *
+     * @return the file capacity
+     */
+    public final int getCapacity() {
+        return data.capacity();
+    }
+
+    /**
+     * Returns the bytes stored.
+     *
+     * @return the bytes stored
+     */
+    public final int getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the next stored bytes into a new buffer.
+     *
+     * @param alloc
+     *            allocator for the buffer
+     * @param maxBytes
+     *            maximum bytes to read
+     * @return a buffer with the next bytes
+     */
+    public final ByteBuf read(final ByteBufAllocator alloc, final int maxBytes) {
+        final ByteBuf chunk;
+        final int     length;
+
+        checkOpen();
+
+        // Only reads up to the end of the file, the rest is read on the next call
+        length = Math.min(Math.min(size, maxBytes), getCapacity() - readIndex);
+        chunk = alloc.directBuffer(length);
+        chunk.writeBytes(data, readIndex, length);
+        size -= length;
+        if (size == 0) {
+            readIndex = 0;
+        } else {
+            readIndex = (readIndex + length) % getCapacity();
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Returns the bytes which can still be stored.
+     *
+     * @return the free bytes
+     */
+    public final int remaining() {
+        return getCapacity() - size;
+    }
+
+    /**
+     * Stores the readable bytes of the buffer, which should fit in the file. The buffer is not released.
+     *
+     * @param buffer
+     *            data to store
+     */
+    public final void write(final ByteBuf buffer) {
+        final int length;
+        final int writeIndex;
+        final int first;
+
+        checkOpen();
+
+        length = buffer.readableBytes();
+        if (length > remaining()) {
+            throw new IllegalArgumentException(
+                String.format("Can't store %d bytes, only %d are free", length, remaining()));
+        }
+
+        writeIndex = (readIndex + size) % getCapacity();
+        // Wraps around the end of the file
+        first = Math.min(length, getCapacity() - writeIndex);
+        data.setBytes(writeIndex, buffer, buffer.readerIndex(), first);
+        data.setBytes(0, buffer, buffer.readerIndex() + first, length - first);
+        size += length;
+    }
+
+    /**
+     * Checks the file is still mapped, as using it after that would crash the JVM.
+     */
+    private final void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("Spill file %s is closed", path));
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.net.InetSocketAddress;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.util.AttributeKey;
+
+/**
+ * Attributes stored in the proxy channels.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ChannelAttributes {
+
+    /**
+     * Address the client connected to, as received in a PROXY protocol header.
+     */
+    public static final AttributeKey<InetSocketAddress> DESTINATION = AttributeKey.valueOf("proxyDestination");
+
+    /**
+     * Client address, as received in a PROXY protocol header.
+     */
+    public static final AttributeKey<InetSocketAddress> SOURCE = AttributeKey.valueOf("proxySource");
+
+    /**
+     * Target selected for the connection.
+     */
+    public static final AttributeKey<ProxyTarget>       TARGET = AttributeKey.valueOf("proxyTarget");
+
+    /**
+     * Connection timestamps.
+     */
+    public static final AttributeKey<ConnectionTrace>   TRACE = AttributeKey.valueOf("proxyTrace");
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private ChannelAttributes() {
+        super();
+    }
+
+}
@@ -26,41 +26,72 @@
 
 import java.util.Objects;
 import java.util.function.BiConsumer;
-import java.util.function.Function;
+import java.util.function.BiFunction;
+
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Opens the client connection to the target of a proxied connection. The returned future completes once the client is
+ * connected.
+ * <p>
+ * If the proxied connection is traced, the connection start and completion are marked in it.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
 @Slf4j
-public final class ChannelProducer implements Function<ChannelHandlerContext, Channel> {
+public final class ChannelProducer implements BiFunction<ChannelHandlerContext, ProxyTarget, ChannelFuture> {
+
+    /**
+     * Milliseconds to wait for the connection.
+     */
+    private final int                                       connectTimeout;
 
     private final BiConsumer<ChannelHandlerContext, Object> consumer;
 
-    private final String                                    host;
+    /**
+     * Socket options for the client connection.
+     */
+    private final SocketOptions                             socket;
 
-    private final Integer                                   port;
+    /**
+     * Indicates if the connection is a compressed tunnel.
+     */
+    private final boolean                                   tunnel;
 
-    public ChannelProducer(final String hst, final Integer prt, final BiConsumer<ChannelHandlerContext, Object> csm) {
+    public ChannelProducer(final int timeout, final boolean tnl, final SocketOptions sckt,
+            final BiConsumer<ChannelHandlerContext, Object> csm) {
         super();
 
-        host = Objects.requireNonNull(hst);
-        port = Objects.requireNonNull(prt);
+        connectTimeout = timeout;
+        socket = Objects.requireNonNull(sckt);
+        tunnel = tnl;
         consumer = Objects.requireNonNull(csm);
     }
 
     @Override
-    public final Channel apply(final ChannelHandlerContext ctx) {
-        final Bootstrap bootstrap;
-        final Channel   contextChannel;
+    public final ChannelFuture apply(final ChannelHandlerContext ctx, final ProxyTarget target) {
+        final Bootstrap       bootstrap;
+        final Channel         contextChannel;
+        final ConnectionTrace trace;
+        final ChannelFuture   future;
 
         contextChannel = ctx.channel();
+        trace = contextChannel.attr(ChannelAttributes.TRACE)
+            .get();
 
         log.trace("Starting client");
 
-        log.debug("Connecting to {}:{}", host, port);
+        log.debug("Connecting to {}", target);
 
         bootstrap = new Bootstrap();
         bootstrap
@@ -71,11 +102,24 @@ public final Channel apply(final ChannelHandlerContext ctx) {
                 .getClass())
             // Configuration
             .option(ChannelOption.AUTO_READ, false)
+            .option(ChannelOption.ALLOCATOR, contextChannel.alloc())
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
             // Sets channel initializer which listens for responses
-            .handler(new ProxyClientChannelInitializer(contextChannel, consumer));
-
-        return bootstrap.connect(host, port)
-            .channel();
+            .handler(new ProxyClientChannelInitializer(contextChannel, tunnel, socket, consumer));
+
+        if (trace != null) {
+            trace.connecting(target, System.nanoTime());
+        }
+        future = bootstrap.connect(target.getHost(), target.getPort());
+        if (trace != null) {
+            future.addListener(f -> {
+                if (f.isSuccess()) {
+                    trace.connected(System.nanoTime());
+                }
+            });
+        }
+
+        return future;
     }
 
 }
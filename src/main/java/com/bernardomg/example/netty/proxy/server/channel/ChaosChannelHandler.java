@@ -0,0 +1,384 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.config.ChaosOptions;
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.PromiseCombiner;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Injects faults into a proxied connection. It sits next to the client socket, so it affects what the client sends
+ * and receives.
+ * <p>
+ * Messages in both directions are delayed by the latency, plus or minus a random jitter, and spaced to keep under the
+ * bandwidth cap. Each direction keeps its order, so a message is never released before the previous one. Responses
+ * can be split into partial writes, each of them flushed on its own.
+ * <p>
+ * For each message the connection may be dropped, closing it silently, or reset, closing it with a TCP reset.
+ * <p>
+ * Delayed messages are kept in a queue for each direction, which is drained by a task scheduled on the event loop of
+ * the connection, so no thread waits for them. A response write only completes once the delayed data is written, so
+ * the usual backpressure between both sides still applies.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ChaosChannelHandler extends ChannelDuplexHandler {
+
+    /**
+     * Message waiting for its delay.
+     */
+    private static final class DelayedMessage {
+
+        /**
+         * Message to relay.
+         */
+        private final Object         message;
+
+        /**
+         * Promise for responses, {@code null} for requests.
+         */
+        private final ChannelPromise promise;
+
+        /**
+         * Nanosecond time when the message is released.
+         */
+        private final long           release;
+
+        /**
+         * Constructs a delayed message.
+         *
+         * @param msg
+         *            message to relay
+         * @param prms
+         *            write promise, if any
+         * @param rls
+         *            release time
+         */
+        private DelayedMessage(final Object msg, final ChannelPromise prms, final long rls) {
+            super();
+
+            message = msg;
+            promise = prms;
+            release = rls;
+        }
+
+    }
+
+    /**
+     * Faults to inject.
+     */
+    private final ChaosOptions               options;
+
+    /**
+     * Nanosecond time when the last request is released.
+     */
+    private long                             requestCursor;
+
+    /**
+     * Requests waiting for their delay, in order.
+     */
+    private final ArrayDeque<DelayedMessage> requests = new ArrayDeque<>();
+
+    /**
+     * Nanosecond time when the last response is released.
+     */
+    private long                             responseCursor;
+
+    /**
+     * Responses waiting for their delay, in order.
+     */
+    private final ArrayDeque<DelayedMessage> responses = new ArrayDeque<>();
+
+    public ChaosChannelHandler(final ChaosOptions opts) {
+        super();
+
+        options = opts;
+        requestCursor = System.nanoTime();
+        responseCursor = requestCursor;
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        final long now;
+
+        if (injectClose(ctx)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        now = System.nanoTime();
+        requestCursor = releaseTime(now, requestCursor, msg);
+        if (requests.isEmpty() && ((requestCursor - now) <= 0)) {
+            ctx.fireChannelRead(msg);
+        } else {
+            enqueue(ctx, requests, new DelayedMessage(msg, null, requestCursor), now);
+        }
+    }
+
+    @Override
+    public final void flush(final ChannelHandlerContext ctx) {
+        // Delayed responses are flushed once written
+        if (responses.isEmpty()) {
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public final void handlerRemoved(final ChannelHandlerContext ctx) {
+        DelayedMessage delayed;
+
+        while ((delayed = requests.poll()) != null) {
+            ReferenceCountUtil.release(delayed.message);
+        }
+        while ((delayed = responses.poll()) != null) {
+            ReferenceCountUtil.release(delayed.message);
+            delayed.promise.tryFailure(new ClosedChannelException());
+        }
+    }
+
+    @Override
+    public final void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        final PromiseCombiner combiner;
+        final ByteBuf         data;
+
+        if (injectClose(ctx)) {
+            ReferenceCountUtil.release(msg);
+            promise.tryFailure(new ClosedChannelException());
+            return;
+        }
+
+        if ((options.getPartialWrite() > 0) && (msg instanceof ByteBuf)
+                && (((ByteBuf) msg).readableBytes() > options.getPartialWrite())) {
+            // Each part is written and released on its own
+            data = (ByteBuf) msg;
+            combiner = new PromiseCombiner(ctx.executor());
+            try {
+                while (data.isReadable()) {
+                    combiner.add((Future<?>) delayWrite(ctx, data.readRetainedSlice(Math.min(options.getPartialWrite(),
+                        data.readableBytes())), ctx.newPromise()));
+                }
+            } finally {
+                data.release();
+            }
+            combiner.finish(promise);
+        } else {
+            delayWrite(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * Writes a response once its delay is over. Partial writes are always delayed, so each of them is flushed on its
+     * own.
+     *
+     * @param ctx
+     *            handler context
+     * @param msg
+     *            response to write
+     * @param promise
+     *            promise for the write
+     * @return the received promise
+     */
+    private final ChannelPromise delayWrite(final ChannelHandlerContext ctx, final Object msg,
+            final ChannelPromise promise) {
+        final long now;
+
+        now = System.nanoTime();
+        responseCursor = releaseTime(now, responseCursor, msg);
+        if (responses.isEmpty() && ((responseCursor - now) <= 0) && (options.getPartialWrite() == 0)) {
+            ctx.write(msg, promise);
+        } else {
+            enqueue(ctx, responses, new DelayedMessage(msg, promise, responseCursor), now);
+        }
+
+        return promise;
+    }
+
+    /**
+     * Relays all the messages in the queue whose delay is over, and schedules the next check if any message is left.
+     *
+     * @param ctx
+     *            handler context
+     * @param queue
+     *            queue to relay
+     */
+    private final void drain(final ChannelHandlerContext ctx, final ArrayDeque<DelayedMessage> queue) {
+        final long now;
+        DelayedMessage delayed;
+
+        now = System.nanoTime();
+        while (!queue.isEmpty() && ((queue.peek().release - now) <= 0)) {
+            delayed = queue.poll();
+            if (delayed.promise != null) {
+                ctx.writeAndFlush(delayed.message, delayed.promise);
+            } else if (ctx.channel()
+                .isActive()) {
+                ctx.fireChannelRead(delayed.message);
+            } else {
+                ReferenceCountUtil.release(delayed.message);
+            }
+        }
+
+        if (!queue.isEmpty()) {
+            schedule(ctx, queue, queue.peek().release - now);
+        }
+    }
+
+    /**
+     * Adds a message to a queue. If the queue was empty, the queue is drained once the message delay is over.
+     *
+     * @param ctx
+     *            handler context
+     * @param queue
+     *            queue for the message
+     * @param delayed
+     *            message to add
+     * @param now
+     *            current nanosecond time
+     */
+    private final void enqueue(final ChannelHandlerContext ctx, final ArrayDeque<DelayedMessage> queue,
+            final DelayedMessage delayed, final long now) {
+        queue.add(delayed);
+        if (queue.size() == 1) {
+            schedule(ctx, queue, delayed.release - now);
+        }
+    }
+
+    /**
+     * Closes the connection at random, depending on the drop and reset rates.
+     *
+     * @param ctx
+     *            handler context
+     * @return {@code true} if the connection was closed
+     */
+    private final boolean injectClose(final ChannelHandlerContext ctx) {
+        final ThreadLocalRandom random;
+        final boolean           closed;
+
+        random = ThreadLocalRandom.current();
+        if ((options.getResetRate() > 0) && (random.nextDouble() < options.getResetRate())) {
+            log.debug("Resetting connection");
+            // Without lingering the socket is closed with a reset
+            ctx.channel()
+                .config()
+                .setOption(ChannelOption.SO_LINGER, 0);
+            markClosing(ctx);
+            ctx.close();
+            closed = true;
+        } else if ((options.getDropRate() > 0) && (random.nextDouble() < options.getDropRate())) {
+            log.debug("Dropping connection");
+            markClosing(ctx);
+            ctx.close();
+            closed = true;
+        } else {
+            closed = false;
+        }
+
+        return closed;
+    }
+
+    /**
+     * Marks the connection trace as closed by a fault.
+     *
+     * @param ctx
+     *            handler context
+     */
+    private final void markClosing(final ChannelHandlerContext ctx) {
+        final ConnectionTrace trace;
+
+        trace = ctx.channel()
+            .attr(ChannelAttributes.TRACE)
+            .get();
+        if (trace != null) {
+            trace.closing(CloseReason.CHAOS);
+        }
+    }
+
+    /**
+     * Returns when a message should be released, after its latency and the time to send it under the bandwidth cap.
+     * The message is never released before the last one in the same direction.
+     *
+     * @param now
+     *            current nanosecond time
+     * @param cursor
+     *            when the last message in the same direction is released
+     * @param msg
+     *            message to release
+     * @return nanosecond time to release the message
+     */
+    private final long releaseTime(final long now, final long cursor, final Object msg) {
+        final long jitter;
+        long release;
+
+        release = now + TimeUnit.MILLISECONDS.toNanos(options.getLatency());
+        if (options.getJitter() > 0) {
+            jitter = ThreadLocalRandom.current()
+                .nextLong(-options.getJitter(), options.getJitter() + 1);
+            release += TimeUnit.MILLISECONDS.toNanos(jitter);
+        }
+        if ((cursor - release) > 0) {
+            release = cursor;
+        }
+        if ((options.getBandwidth() > 0) && (msg instanceof ByteBuf)) {
+            // Time to send the message at the bandwidth cap
+            release += (((ByteBuf) msg).readableBytes() * TimeUnit.SECONDS.toNanos(1)) / options.getBandwidth();
+        }
+
+        return release;
+    }
+
+    /**
+     * Schedules draining a queue on the event loop.
+     *
+     * @param ctx
+     *            handler context
+     * @param queue
+     *            queue to drain
+     * @param delay
+     *            nanoseconds to wait
+     */
+    private final void schedule(final ChannelHandlerContext ctx, final ArrayDeque<DelayedMessage> queue,
+            final long delay) {
+        ctx.executor()
+            .schedule(() -> drain(ctx, queue), Math.max(delay, 0), TimeUnit.NANOSECONDS);
+    }
+
+}
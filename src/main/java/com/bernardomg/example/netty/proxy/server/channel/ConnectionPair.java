@@ -0,0 +1,171 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.util.Objects;
+
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server and client connections relayed into each other. It is created once the client is connected, with both
+ * channels, so each direction knows where to write from the start, even if the target speaks first.
+ * <p>
+ * Both channels use the same event loop, which owns the pair. Nothing in it is shared with other threads.
+ * <p>
+ * After each write, the next message is read from the side it came from. If the write fails, both channels are closed.
+ * The listeners doing this are created once for the pair, instead of once for each message.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+final class ConnectionPair {
+
+    /**
+     * Connection to the target.
+     */
+    private final Channel               client;
+
+    /**
+     * Listener for the requests written to the client, which reads the next request.
+     */
+    private final ChannelFutureListener requestWritten;
+
+    /**
+     * Listener for the responses written to the server, which reads the next response.
+     */
+    private final ChannelFutureListener responseWritten;
+
+    /**
+     * Connection accepted from the client.
+     */
+    private final Channel               server;
+
+    /**
+     * Connection timestamps.
+     */
+    private final ConnectionTrace       trace;
+
+    /**
+     * Constructs a pair for the received channels, which should share their event loop.
+     *
+     * @param srvr
+     *            connection accepted from the client
+     * @param clnt
+     *            connection to the target
+     * @param trc
+     *            connection timestamps
+     */
+    public ConnectionPair(final Channel srvr, final Channel clnt, final ConnectionTrace trc) {
+        super();
+
+        server = Objects.requireNonNull(srvr);
+        client = Objects.requireNonNull(clnt);
+        trace = Objects.requireNonNull(trc);
+        if (server.eventLoop() != client.eventLoop()) {
+            throw new IllegalArgumentException("The connections of a pair should share their event loop");
+        }
+
+        requestWritten = readNext(server);
+        responseWritten = readNext(client);
+    }
+
+    /**
+     * Returns the connection to the target.
+     *
+     * @return the client channel
+     */
+    public final Channel getClient() {
+        return client;
+    }
+
+    /**
+     * Returns the listener for the requests written to the client. Once a request is written, the next one is read from
+     * the server.
+     *
+     * @return the listener for written requests
+     */
+    public final ChannelFutureListener getRequestWritten() {
+        return requestWritten;
+    }
+
+    /**
+     * Returns the connection accepted from the client.
+     *
+     * @return the server channel
+     */
+    public final Channel getServer() {
+        return server;
+    }
+
+    /**
+     * Sends a request to the target, and reads the next one once written.
+     *
+     * @param request
+     *            request to send
+     */
+    public final void toClient(final Object request) {
+        client.writeAndFlush(request)
+            .addListener(requestWritten);
+    }
+
+    /**
+     * Sends a response to the client, and reads the next one once written.
+     *
+     * @param response
+     *            response to send
+     */
+    public final void toServer(final Object response) {
+        server.writeAndFlush(response)
+            .addListener(responseWritten);
+    }
+
+    /**
+     * Returns a listener which, after a successful write, reads the next message from the source. If the write failed
+     * both channels are closed.
+     *
+     * @param source
+     *            channel to read from
+     * @return listener to read from the source after writing
+     */
+    private final ChannelFutureListener readNext(final Channel source) {
+        return f -> {
+            if (f.isSuccess()) {
+                source.read();
+            } else {
+                log.debug("Failed write, closing channels", f.cause());
+                trace.closing(CloseReason.ERROR);
+                f.channel()
+                    .close();
+                source.close();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,233 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Connection to a shadow target, which receives a copy of the requests. Responses from the shadow are discarded.
+ * <p>
+ * The requests are shared with the primary connection through retained duplicates, so nothing is copied. Until the
+ * shadow is connected they are kept in a queue. Both the queue and the outbound buffer of the shadow are bounded. If
+ * the shadow can't keep up, mirroring is stopped for this connection, as a stream with missing bytes is of no use to
+ * the shadow.
+ * <p>
+ * The shadow connection uses the event loop of the primary connection, and nothing waits for it, so the primary
+ * connection is never slowed down.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class MirrorConnection extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Maximum bytes waiting to be sent to the shadow.
+     */
+    private final int            bufferSize;
+
+    /**
+     * Connection to the shadow.
+     */
+    private final Channel        channel;
+
+    /**
+     * Indicates if mirroring stopped.
+     */
+    private boolean              closed;
+
+    /**
+     * Indicates if the shadow is connected.
+     */
+    private boolean              connected;
+
+    /**
+     * Requests received before the shadow is connected.
+     */
+    private final Queue<ByteBuf> pending = new ArrayDeque<>(2);
+
+    /**
+     * Bytes in the pending requests.
+     */
+    private long                 pendingBytes;
+
+    /**
+     * Shadow target.
+     */
+    private final ProxyTarget    target;
+
+    /**
+     * Connects to the shadow, using the event loop and transport of the source channel.
+     *
+     * @param source
+     *            channel being mirrored
+     * @param trgt
+     *            shadow target
+     * @param connectTimeout
+     *            milliseconds to wait for the connection
+     * @param socket
+     *            socket options for the connection
+     * @param buffer
+     *            maximum bytes waiting to be sent to the shadow
+     */
+    public MirrorConnection(final Channel source, final ProxyTarget trgt, final int connectTimeout,
+            final SocketOptions socket, final int buffer) {
+        super();
+
+        final ChannelFuture connectFuture;
+
+        target = trgt;
+        bufferSize = buffer;
+
+        connectFuture = new Bootstrap().group(source.eventLoop())
+            .channel(source.getClass())
+            .option(ChannelOption.ALLOCATOR, source.alloc())
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(buffer / 2, buffer))
+            .handler(new ChannelInitializer<Channel>() {
+
+                @Override
+                protected final void initChannel(final Channel ch) {
+                    socket.apply(ch);
+                    ch.pipeline()
+                        .addLast(MirrorConnection.this);
+                }
+
+            })
+            .connect(target.getHost(), target.getPort());
+
+        // Assigned before listening, as a failed connection closes it from the listener
+        channel = connectFuture.channel();
+        connectFuture.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                log.debug("Connected mirror to {}", target);
+                connected = true;
+                while (!pending.isEmpty()) {
+                    f.channel()
+                        .write(pending.poll(), f.channel()
+                            .voidPromise());
+                }
+                pendingBytes = 0;
+                f.channel()
+                    .flush();
+            } else if (!closed) {
+                log.debug("Failed connecting mirror to {}", target, f.cause());
+                close();
+            }
+        });
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        closed = true;
+        releasePending();
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        // Responses from the shadow are discarded
+        ReferenceCountUtil.release(msg);
+    }
+
+    /**
+     * Stops mirroring, and closes the shadow connection.
+     */
+    public final void close() {
+        closed = true;
+        releasePending();
+        channel.close();
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.debug("Mirror to {} failed", target, cause);
+        close();
+    }
+
+    /**
+     * Sends a copy of the request to the shadow. If there is no room for it, mirroring is stopped.
+     *
+     * @param data
+     *            request to mirror
+     */
+    public final void write(final ByteBuf data) {
+        final int size;
+
+        if (closed) {
+            return;
+        }
+
+        size = data.readableBytes();
+        if (connected) {
+            if (channel.bytesBeforeUnwritable() < size) {
+                overflow();
+            } else {
+                channel.writeAndFlush(data.retainedDuplicate(), channel.voidPromise());
+            }
+        } else if ((pendingBytes + size) > bufferSize) {
+            overflow();
+        } else {
+            pending.add(data.retainedDuplicate());
+            pendingBytes += size;
+        }
+    }
+
+    /**
+     * Stops mirroring, as the shadow can't keep up.
+     */
+    private final void overflow() {
+        log.debug("Mirror to {} can't keep up, stopping it", target);
+        close();
+    }
+
+    /**
+     * Releases the requests which were not sent to the shadow.
+     */
+    private final void releasePending() {
+        while (!pending.isEmpty()) {
+            pending.poll()
+                .release();
+        }
+        pendingBytes = 0;
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.util.Objects;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.buffer.BufferBudget;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.logging.LoggingHandler;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Initializes the channels for the self test probes of a proxy. These are accepted by a listener of their own, and go
+ * through the same proxy handler as the real connections, but are always relayed to the probe target.
+ * <p>
+ * Probes are not real connections, so they are not tracked, traced into the access log, nor sent to the connection
+ * listener.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ProbeChannelInitializer extends ChannelInitializer<SocketChannel> {
+
+    /**
+     * Ignores the probe connection events.
+     */
+    private static final ConnectionListener LISTENER = (id, direction, data, length, time) -> {};
+
+    /**
+     * Memory shared by the request buffers, or {@code null} if buffering is disabled.
+     */
+    private final BufferBudget              bufferBudget;
+
+    /**
+     * Proxy configuration.
+     */
+    private final ProxyConfig               configuration;
+
+    /**
+     * Target receiving the probes.
+     */
+    private final ProxyTarget               target;
+
+    public ProbeChannelInitializer(final ProxyConfig config, final ProxyTarget trgt, final BufferBudget budget) {
+        super();
+
+        configuration = Objects.requireNonNull(config);
+        target = Objects.requireNonNull(trgt);
+        bufferBudget = budget;
+    }
+
+    @Override
+    protected final void initChannel(final SocketChannel ch) throws Exception {
+        final ProxyConfig     probeConfig;
+        final ConnectionTrace trace;
+
+        log.debug("Initializing self test probe channel");
+
+        // Only the options for relaying are kept, routing to the probe target
+        probeConfig = ProxyConfig.builder()
+            .routes(new RouteTable(target))
+            .connectTimeout(configuration.getConnectTimeout())
+            .targetSocket(configuration.getTargetSocket())
+            .buffer(configuration.getBuffer())
+            .build();
+
+        configuration.getListenerSocket()
+            .apply(ch);
+
+        trace = new ConnectionTrace(0, ch.remoteAddress(), System.nanoTime());
+        ch.attr(ChannelAttributes.TRACE)
+            .set(trace);
+        ch.attr(ChannelAttributes.TARGET)
+            .set(target);
+
+        ch.pipeline()
+            // Logging handler
+            .addLast(new LoggingHandler())
+            // Proxy handler
+            .addLast(new ProxyServerChannelHandler(probeConfig, trace, LISTENER, null, null, bufferBudget));
+    }
+
+}
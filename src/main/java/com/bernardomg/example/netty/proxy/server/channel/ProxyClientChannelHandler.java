@@ -26,6 +26,9 @@
 
 import java.util.Objects;
 
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -59,8 +62,15 @@ public final void channelActive(final ChannelHandlerContext ctx) {
 
     @Override
     public final void channelInactive(final ChannelHandlerContext ctx) {
+        final ConnectionTrace trace;
+
         if (serverChannel.isActive()) {
             log.debug("Closing server");
+            trace = serverChannel.attr(ChannelAttributes.TRACE)
+                .get();
+            if (trace != null) {
+                trace.closing(CloseReason.TARGET);
+            }
             serverChannel.close();
         }
     }
@@ -27,6 +27,8 @@
 import java.util.Objects;
 import java.util.function.BiConsumer;
 
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
@@ -36,6 +38,10 @@
 
 /**
  * Initializes the channel with a message listener. Any message received by the channel will be sent to the listener.
+ * <p>
+ * For tunnels, the data is compressed before sending it and decompressed when received.
+ * <p>
+ * The socket options for the target are applied here, before the channel is connected.
  *
  * @author Bernardo Mart&iacute;nez Garrido
  *
@@ -53,10 +59,23 @@ public final class ProxyClientChannelInitializer extends ChannelInitializer<Sock
      */
     private final Channel                                   serverChannel;
 
-    public ProxyClientChannelInitializer(final Channel channel, final BiConsumer<ChannelHandlerContext, Object> csm) {
+    /**
+     * Socket options for the channel.
+     */
+    private final SocketOptions                             socket;
+
+    /**
+     * Indicates if the channel is a compressed tunnel.
+     */
+    private final boolean                                   tunnel;
+
+    public ProxyClientChannelInitializer(final Channel channel, final boolean tnl, final SocketOptions sckt,
+            final BiConsumer<ChannelHandlerContext, Object> csm) {
         super();
 
+        socket = Objects.requireNonNull(sckt);
         serverChannel = Objects.requireNonNull(channel);
+        tunnel = tnl;
         consumer = Objects.requireNonNull(csm);
     }
 
@@ -70,9 +89,21 @@ protected final void initChannel(final SocketChannel ch) throws Exception {
 
         log.debug("Initializing channel");
 
+        // Registration happens before connecting, so all the options are set in time
+        socket.apply(ch);
+
         ch.pipeline()
             // Transforms message into a string
-            .addLast(new LoggingHandler())
+            .addLast(new LoggingHandler());
+
+        if (tunnel) {
+            // Compresses the tunnel
+            ch.pipeline()
+                .addLast(new TunnelFrameDecoder())
+                .addLast(new TunnelFrameEncoder());
+        }
+
+        ch.pipeline()
             // Adds listener handler
             .addLast(listenerHandler)
             // Adds proxy handler
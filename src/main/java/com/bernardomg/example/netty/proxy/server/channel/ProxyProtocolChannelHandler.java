@@ -0,0 +1,127 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.net.InetSocketAddress;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.haproxy.HAProxyCommand;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
+import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
+import io.netty.util.NetUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives the PROXY protocol header decoded by a {@link HAProxyMessageDecoder}, and stores the original addresses in
+ * the channel. Afterwards it removes itself from the pipeline.
+ * <p>
+ * As the addresses are needed before connecting to the target, if a target is received it is only set once the header
+ * is read. Otherwise the routing is left to the next handlers.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ProxyProtocolChannelHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Target for the connection, or {@code null} if it is chosen by other handler.
+     */
+    private final ProxyTarget target;
+
+    /**
+     * Constructs a handler which leaves the routing to the next handlers.
+     */
+    public ProxyProtocolChannelHandler() {
+        this(null);
+    }
+
+    /**
+     * Constructs a handler which sets the target after reading the header.
+     *
+     * @param trgt
+     *            connection target
+     */
+    public ProxyProtocolChannelHandler(final ProxyTarget trgt) {
+        super();
+
+        target = trgt;
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object message) throws Exception {
+        final HAProxyMessage header;
+
+        if (message instanceof HAProxyMessage) {
+            header = (HAProxyMessage) message;
+            try {
+                log.debug("Received PROXY header {}", header);
+                if ((header.command() == HAProxyCommand.PROXY)
+                        && (header.proxiedProtocol() != HAProxyProxiedProtocol.UNKNOWN)) {
+                    ctx.channel()
+                        .attr(ChannelAttributes.SOURCE)
+                        .set(toAddress(header.sourceAddress(), header.sourcePort()));
+                    ctx.channel()
+                        .attr(ChannelAttributes.DESTINATION)
+                        .set(toAddress(header.destinationAddress(), header.destinationPort()));
+                }
+            } finally {
+                header.release();
+            }
+
+            ctx.pipeline()
+                .remove(this);
+            if (target == null) {
+                // The next handlers need data
+                ctx.read();
+            } else {
+                ctx.channel()
+                    .attr(ChannelAttributes.TARGET)
+                    .set(target);
+                ctx.fireUserEventTriggered(new TargetSelectedEvent(target));
+            }
+        } else {
+            ctx.fireChannelRead(message);
+        }
+    }
+
+    /**
+     * Transforms an address from the header.
+     *
+     * @param address
+     *            IP address, as text
+     * @param port
+     *            port
+     * @return the socket address
+     */
+    private final InetSocketAddress toAddress(final String address, final int port) {
+        return new InetSocketAddress(NetUtil.createInetAddressFromIpAddressString(address), port);
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import io.netty.util.NetUtil;
+
+/**
+ * Writes HAProxy PROXY protocol headers. The header is written straight into a buffer from the allocator, without
+ * creating an intermediate message.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ProxyProtocolHeaders {
+
+    /**
+     * Version 2 signature.
+     */
+    private static final byte[] V2_SIGNATURE = { 0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54,
+            0x0A };
+
+    /**
+     * Creates the header for a connection.
+     *
+     * @param allocator
+     *            allocator for the header buffer
+     * @param version
+     *            protocol version
+     * @param source
+     *            client address
+     * @param destination
+     *            address the client connected to
+     * @return the header
+     */
+    public static final ByteBuf encode(final ByteBufAllocator allocator, final HAProxyProtocolVersion version,
+            final InetSocketAddress source, final InetSocketAddress destination) {
+        final ByteBuf header;
+
+        if (version == HAProxyProtocolVersion.V1) {
+            header = allocator.ioBuffer(108);
+            writeV1(header, source, destination);
+        } else {
+            header = allocator.ioBuffer(52);
+            writeV2(header, source, destination);
+        }
+
+        return header;
+    }
+
+    /**
+     * Writes an address as text.
+     *
+     * @param header
+     *            buffer to write into
+     * @param address
+     *            address to write
+     */
+    private static final void writeAddressText(final ByteBuf header, final InetAddress address) {
+        final byte[] bytes;
+
+        if (address instanceof Inet4Address) {
+            bytes = address.getAddress();
+            for (int i = 0; i < bytes.length; i++) {
+                if (i > 0) {
+                    header.writeByte('.');
+                }
+                writeNumber(header, bytes[i] & 0xFF);
+            }
+        } else {
+            header.writeCharSequence(NetUtil.toAddressString(address), StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Writes a number in decimal notation.
+     *
+     * @param header
+     *            buffer to write into
+     * @param number
+     *            number to write, between 0 and 65535
+     */
+    private static final void writeNumber(final ByteBuf header, final int number) {
+        int divisor;
+
+        divisor = 1;
+        while ((divisor * 10) <= number) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            header.writeByte('0' + ((number / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Writes a version 1 header. This is the text version.
+     *
+     * @param header
+     *            buffer to write into
+     * @param source
+     *            client address
+     * @param destination
+     *            address the client connected to
+     */
+    private static final void writeV1(final ByteBuf header, final InetSocketAddress source,
+            final InetSocketAddress destination) {
+        final boolean ipv4;
+
+        header.writeCharSequence("PROXY ", StandardCharsets.US_ASCII);
+        if (!isSameFamily(source, destination)) {
+            header.writeCharSequence("UNKNOWN\r\n", StandardCharsets.US_ASCII);
+        } else {
+            ipv4 = source.getAddress() instanceof Inet4Address;
+            header.writeCharSequence(ipv4 ? "TCP4 " : "TCP6 ", StandardCharsets.US_ASCII);
+            writeAddressText(header, source.getAddress());
+            header.writeByte(' ');
+            writeAddressText(header, destination.getAddress());
+            header.writeByte(' ');
+            writeNumber(header, source.getPort());
+            header.writeByte(' ');
+            writeNumber(header, destination.getPort());
+            header.writeByte('\r');
+            header.writeByte('\n');
+        }
+    }
+
+    /**
+     * Writes a version 2 header. This is the binary version.
+     *
+     * @param header
+     *            buffer to write into
+     * @param source
+     *            client address
+     * @param destination
+     *            address the client connected to
+     */
+    private static final void writeV2(final ByteBuf header, final InetSocketAddress source,
+            final InetSocketAddress destination) {
+        header.writeBytes(V2_SIGNATURE);
+        if (!isSameFamily(source, destination)) {
+            // Local command, without addresses
+            header.writeByte(0x20);
+            header.writeByte(0x00);
+            header.writeShort(0);
+        } else {
+            // Proxy command
+            header.writeByte(0x21);
+            if (source.getAddress() instanceof Inet4Address) {
+                // TCP over IPv4
+                header.writeByte(0x11);
+                header.writeShort(12);
+            } else {
+                // TCP over IPv6
+                header.writeByte(0x21);
+                header.writeShort(36);
+            }
+            header.writeBytes(source.getAddress()
+                .getAddress());
+            header.writeBytes(destination.getAddress()
+                .getAddress());
+            header.writeShort(source.getPort());
+            header.writeShort(destination.getPort());
+        }
+    }
+
+    /**
+     * Checks that both addresses are resolved and of the same family.
+     *
+     * @param source
+     *            client address
+     * @param destination
+     *            address the client connected to
+     * @return {@code true} if the addresses can be written in the header
+     */
+    private static final boolean isSameFamily(final InetSocketAddress source, final InetSocketAddress destination) {
+        final InetAddress sourceAddress;
+        final InetAddress destinationAddress;
+
+        if ((source == null) || (destination == null)) {
+            return false;
+        }
+
+        sourceAddress = source.getAddress();
+        destinationAddress = destination.getAddress();
+        return ((sourceAddress instanceof Inet4Address) && (destinationAddress instanceof Inet4Address))
+                || ((sourceAddress instanceof Inet6Address) && (destinationAddress instanceof Inet6Address));
+    }
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private ProxyProtocolHeaders() {
+        super();
+    }
+
+}
@@ -24,20 +24,91 @@
 
 package com.bernardomg.example.netty.proxy.server.channel;
 
-import java.nio.charset.Charset;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+import com.bernardomg.example.netty.proxy.server.buffer.BufferBudget;
+import com.bernardomg.example.netty.proxy.server.buffer.RequestBuffer;
+import com.bernardomg.example.netty.proxy.server.config.BufferOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.limit.ConcurrencyLimiter;
+import com.bernardomg.example.netty.proxy.server.limit.ConcurrencyLimiters;
+import com.bernardomg.example.netty.proxy.server.route.AffinityKey;
+import com.bernardomg.example.netty.proxy.server.route.AffinityTable;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.sample.MessageSampler;
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.ChannelInputShutdownEvent;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FutureListener;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Channel handler ready to proxy requests. Will move request between a server, which is the owner of this listener, and
  * an embedded client.
+ * <p>
+ * The client is connected once the target is known. This is either stored in the channel before it is active, or
+ * received through a {@link TargetSelectedEvent}. Requests received before the client is ready are kept until then.
+ * <p>
+ * If a PROXY protocol version is set, the header is sent to the target before any request. It carries the addresses
+ * received from an upstream PROXY header, if any, or otherwise those of the server channel.
+ * <p>
+ * If the target can't be connected, the failover targets are tried in order right away. Once all of them failed, the
+ * whole list is tried again for the configured number of retries, waiting an exponential backoff with jitter before
+ * each round. Nothing is read from the server meanwhile, so the client just sees a slower connection.
+ * <p>
+ * Both channels work with auto read disabled, and a new read is only requested once the previous message has been
+ * written to the other side. Once connected, both channels are wired into a {@link ConnectionPair}, which relays each
+ * direction. They share the event loop of the server, which owns all the state of the handler.
+ * <p>
+ * The listener receives the same buffers being relayed, before they are written. Their indexes are restored after
+ * calling it, so nothing is copied or allocated for it.
+ * <p>
+ * With affinity enabled, the target the client was last connected to is tried first, as long as it is one of the
+ * targets for this connection. Clients are identified by their IP, or by the first bytes they send, which are then
+ * read before connecting.
+ * <p>
+ * With a concurrency limit, each client connection takes a permit from the limiter for its target while open. The
+ * connection and first response latencies are sampled to adapt the limit.
+ * <p>
+ * With buffering enabled, requests are read ahead into a {@link RequestBuffer} instead of waiting for each one to be
+ * written, so a slow target doesn't throttle the client. If the server is closed while there are buffered requests,
+ * the client is kept open until they are sent.
+ * <p>
+ * With sampling enabled, the listener only receives the data chosen by a {@link MessageSampler}, the rest is relayed
+ * without notifying it.
+ * <p>
+ * If a shadow target is set, each request is also sent to it through a {@link MirrorConnection}, which never slows
+ * down the proxied connection.
+ * <p>
+ * When the client shuts down its output, the output to the target is shut down once the requests are sent, and the
+ * responses are still relayed until the target closes. Except with buffering, where the server is closed instead, and
+ * the buffered requests are sent before closing the target.
+ * <p>
+ * The first request and response bytes are marked in the connection trace.
  *
  * @author Bernardo Mart&iacute;nez Garrido
  *
@@ -45,81 +116,760 @@
 @Slf4j
 public final class ProxyServerChannelHandler extends ChannelInboundHandlerAdapter {
 
+    /**
+     * Targets each client was last connected to, or {@code null} if affinity is disabled.
+     */
+    private final AffinityTable          affinity;
+
+    /**
+     * What identifies the client for the affinity.
+     */
+    private final AffinityKey            affinityKey;
+
+    /**
+     * Memory shared by the request buffers, or {@code null} if buffering is disabled.
+     */
+    private final BufferBudget           bufferBudget;
+
+    /**
+     * Request buffer options.
+     */
+    private final BufferOptions          bufferOptions;
+
     /**
      * Embedded client connection.
      */
-    private Channel               clientChannel;
+    private Channel                      clientChannel;
 
     /**
      * Supplier to acquire the client connection.
      */
-    private final ChannelProducer clientChannelSupplier;
+    private final ChannelProducer        clientChannelSupplier;
+
+    /**
+     * Client key for the affinity. Only valid once {@link #keyed} is set.
+     */
+    private long                         clientKey;
 
     /**
-     * Proxy listener. Extension hook which allows reacting to the server events.
+     * Connection id, unique in the process.
      */
-    private final ProxyListener   listener;
+    private final long                   connectionId;
 
     /**
-     * Server request context. Required to redirect messages received by the client.
+     * Times all the targets are tried again after failing to connect.
      */
-    private ChannelHandlerContext serverContext;
+    private final int                    connectRetries;
 
-    public ProxyServerChannelHandler(final String hst, final Integer prt, final ProxyListener lstn) {
+    /**
+     * Milliseconds to wait for each connection attempt.
+     */
+    private final int                    connectTimeout;
+
+    /**
+     * Indicates if the server is closed, and the client is kept open to send the buffered requests.
+     */
+    private boolean                      draining;
+
+    /**
+     * Backup targets, tried when the selected one can't be connected.
+     */
+    private final List<ProxyTarget>      failover;
+
+    /**
+     * Milliseconds a connection can be idle. Also the time given to send the buffered requests after the server is
+     * closed.
+     */
+    private final long                   idleTimeout;
+
+    /**
+     * Indicates if the client shut down its output, to shut down the output to the target once connected.
+     */
+    private boolean                      inputShutdown;
+
+    /**
+     * Indicates if the client key is known.
+     */
+    private boolean                      keyed;
+
+    /**
+     * Concurrency limiter for the connected target, or {@code null} if there is no limit.
+     */
+    private ConcurrencyLimiter           limiter;
+
+    /**
+     * Concurrency limiters for the targets, or {@code null} if there is no limit.
+     */
+    private final ConcurrencyLimiters    limiters;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the connection events.
+     */
+    private final ConnectionListener     listener;
+
+    /**
+     * Connection to the shadow target, or {@code null} if not mirroring.
+     */
+    private MirrorConnection             mirror;
+
+    /**
+     * Maximum bytes waiting to be sent to the shadow target.
+     */
+    private final int                    mirrorBuffer;
+
+    /**
+     * Shadow target, or {@code null} if not mirroring.
+     */
+    private final ProxyTarget            mirrorTarget;
+
+    /**
+     * Server and client relayed into each other, or {@code null} until the client is connected.
+     */
+    private ConnectionPair               pair;
+
+    /**
+     * Requests received before the client connection is ready.
+     */
+    private final Queue<Object>          pendingRequests;
+
+    /**
+     * PROXY protocol version for the header sent to the client, or {@code null} to send no header.
+     */
+    private final HAProxyProtocolVersion proxyProtocol;
+
+    /**
+     * Buffer for the requests sent to the client, or {@code null} if buffering is disabled.
+     */
+    private RequestBuffer                requestBuffer;
+
+    /**
+     * Indicates if the response latency was already sampled for the concurrency limit.
+     */
+    private boolean                      responseSampled;
+
+    /**
+     * Milliseconds to wait before the first retry round.
+     */
+    private final long                   retryBackoff;
+
+    /**
+     * Sampler for the data given to the listener, or {@code null} if all the data is given to it. Created once the
+     * channel is active, as it runs in its event loop.
+     */
+    private MessageSampler               sampler;
+
+    /**
+     * Options for sampling the data given to the listener.
+     */
+    private final SamplingOptions        sampling;
+
+    /**
+     * Socket options for the target connections.
+     */
+    private final SocketOptions          targetSocket;
+
+    /**
+     * Bytes read from the client for the token key.
+     */
+    private final int                    tokenLength;
+
+    /**
+     * Target waiting for the client token before connecting, or {@code null} if not waiting.
+     */
+    private ProxyTarget                  tokenTarget;
+
+    /**
+     * Connection timestamps.
+     */
+    private final ConnectionTrace        trace;
+
+    public ProxyServerChannelHandler(final ProxyConfig config, final ConnectionTrace trc,
+            final ConnectionListener lstn, final AffinityTable affnty, final ConcurrencyLimiters lmtrs,
+            final BufferBudget budget) {
         super();
 
+        proxyProtocol = config.getProxyProtocol();
+        trace = Objects.requireNonNull(trc);
+        connectionId = trc.getId();
         listener = Objects.requireNonNull(lstn);
-        clientChannelSupplier = new ChannelProducer(hst, prt, this::handleClientResponse);
+        clientChannelSupplier = new ChannelProducer(config.getConnectTimeout(), config.isSendTunnel(),
+            config.getTargetSocket(), this::handleClientResponse);
+        pendingRequests = new ArrayDeque<>(2);
+        failover = config.getFailover();
+        connectRetries = config.getConnectRetries();
+        retryBackoff = config.getRetryBackoff();
+        mirrorTarget = config.getMirror();
+        mirrorBuffer = config.getMirrorBuffer();
+        connectTimeout = config.getConnectTimeout();
+        targetSocket = config.getTargetSocket();
+        affinityKey = config.getAffinity()
+            .getKey();
+        tokenLength = config.getAffinity()
+            .getTokenLength();
+        // Affinity can't be enabled by reloading the configuration, as there is no table
+        affinity = (config.getAffinity()
+            .isEnabled()) ? affnty : null;
+        // The limit can't be enabled by reloading the configuration, as there are no limiters
+        limiters = (config.getBackendLimit()
+            .isEnabled()) ? lmtrs : null;
+        idleTimeout = config.getIdleTimeout();
+        bufferOptions = config.getBuffer();
+        // Buffering can't be enabled by reloading the configuration, as there is no budget
+        bufferBudget = (bufferOptions.isEnabled()) ? budget : null;
+        sampling = config.getSampling();
     }
 
     @Override
     public final void channelActive(final ChannelHandlerContext ctx) {
-        clientChannel = clientChannelSupplier.apply(ctx);
+        final ProxyTarget target;
+
+        if (sampling.isEnabled()) {
+            sampler = new MessageSampler(sampling, connectionId, listener, ctx.executor(), System.nanoTime());
+        }
+        if (mirrorTarget != null) {
+            mirror = new MirrorConnection(ctx.channel(), mirrorTarget, connectTimeout, targetSocket, mirrorBuffer);
+        }
+
+        target = ctx.channel()
+            .attr(ChannelAttributes.TARGET)
+            .get();
+        if (target == null) {
+            // Reads until the target is selected
+            log.debug("Waiting for target selection");
+            ctx.read();
+        } else {
+            connect(ctx, target);
+        }
     }
 
     @Override
     public final void channelInactive(final ChannelHandlerContext ctx) {
-        if (clientChannel.isActive()) {
+        if ((requestBuffer != null) && !requestBuffer.isEmpty() && clientChannel.isActive()) {
+            // The requests already received are still sent
+            log.debug("Sending buffered requests before closing client");
+            draining = true;
+            requestBuffer.finish(idleTimeout);
+        } else if ((clientChannel != null) && (clientChannel.isActive())) {
             log.debug("Closing client");
             clientChannel.close();
         }
+        releasePendingRequests();
+        if (mirror != null) {
+            mirror.close();
+        }
+        if (sampler != null) {
+            sampler.close();
+        }
+        listener.onDisconnect(connectionId, System.nanoTime());
     }
 
     @Override
     public final void channelRead(final ChannelHandlerContext ctx, final Object message) throws Exception {
+        final long now;
+
         log.debug("Handling request to server");
 
         log.debug("Received server request: {}", message);
 
-        if (message instanceof ByteBuf) {
-            listener.onRequest(((ByteBuf) message).toString(Charset.defaultCharset()));
+        now = System.nanoTime();
+        trace.requestReceived(now, readableBytes(message));
+        notifyData(TrafficDirection.REQUEST, message, now);
+        if ((mirror != null) && (message instanceof ByteBuf)) {
+            mirror.write((ByteBuf) message);
+        }
+
+        if (pair != null) {
+            if (!pair.getClient()
+                .isActive()) {
+                log.error("Client channel inactive");
+            }
+
+            if ((requestBuffer != null) && (message instanceof ByteBuf)) {
+                // Reads ahead while the buffer has room
+                if (requestBuffer.offer((ByteBuf) message)) {
+                    ctx.read();
+                }
+            } else {
+                // Redirect to the target client
+                pair.toClient(message);
+            }
+        } else {
+            // Kept until the client is ready
+            pendingRequests.add(message);
+            if (tokenTarget != null) {
+                // Waiting for the affinity token
+                connect(ctx, tokenTarget);
+            }
+        }
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.error(cause.getLocalizedMessage(), cause);
+        listener.onError(connectionId, cause);
+        trace.closing(CloseReason.ERROR);
+        ctx.close();
+    }
+
+    @Override
+    public final void userEventTriggered(final ChannelHandlerContext ctx, final Object event) throws Exception {
+        if (event instanceof TargetSelectedEvent) {
+            connect(ctx, ((TargetSelectedEvent) event).getTarget());
+        } else if (event instanceof IdleStateEvent) {
+            log.debug("Closing idle connection");
+            trace.closing(CloseReason.IDLE);
+            ctx.close();
+        } else if (event instanceof ChannelInputShutdownEvent) {
+            shutdownInput(ctx);
         } else {
-            listener.onRequest(message.toString());
+            super.userEventTriggered(ctx, event);
+        }
+    }
+
+    /**
+     * Connects the client to the target, or to the failover targets if it can't be connected.
+     *
+     * @param ctx
+     *            server context
+     * @param target
+     *            target to connect to
+     */
+    private final void connect(final ChannelHandlerContext ctx, final ProxyTarget target) {
+        final List<ProxyTarget> targets;
+        final ProxyTarget       pinned;
+
+        if ((affinity != null) && !keyed) {
+            if (affinityKey == AffinityKey.IP) {
+                clientKey = readAddressKey(ctx.channel());
+            } else if (pendingBytes() >= tokenLength) {
+                clientKey = readTokenKey();
+            } else {
+                // Connects once the whole token is read
+                tokenTarget = target;
+                ctx.read();
+                return;
+            }
+            keyed = true;
+            tokenTarget = null;
+        }
+
+        if (failover.isEmpty()) {
+            targets = Collections.singletonList(target);
+        } else {
+            targets = new ArrayList<>(failover.size() + 1);
+            targets.add(target);
+            for (final ProxyTarget backup : failover) {
+                if (!backup.equals(target)) {
+                    targets.add(backup);
+                }
+            }
+        }
+
+        if (affinity != null) {
+            pinned = affinity.get(clientKey);
+            // Only targets valid for this connection are used, routes may send the client somewhere else
+            if ((pinned != null) && targets.contains(pinned) && !pinned.equals(target)) {
+                log.debug("Client pinned to {}", pinned);
+                targets.remove(pinned);
+                targets.add(0, pinned);
+            }
         }
 
-        if (!clientChannel.isActive()) {
-            log.error("Client channel inactive");
+        connect(ctx, targets, 0);
+    }
+
+    /**
+     * Connects the client to one of the targets. With a concurrency limit, the connection waits for a permit. If the
+     * target is over its limit, the next one in the round is tried, and the connection is closed once none is left.
+     *
+     * @param ctx
+     *            server context
+     * @param targets
+     *            targets to connect to, in order
+     * @param attempt
+     *            attempt number, starting at zero
+     */
+    private final void connect(final ChannelHandlerContext ctx, final List<ProxyTarget> targets, final int attempt) {
+        final ProxyTarget        target;
+        final ConcurrencyLimiter targetLimiter;
+
+        target = targets.get(attempt % targets.size());
+        if (limiters == null) {
+            open(ctx, targets, attempt, null);
+        } else {
+            targetLimiter = limiters.get(target);
+            targetLimiter.acquire(ctx.executor())
+                .addListener((FutureListener<Boolean>) f -> {
+                    if (!ctx.channel()
+                        .isActive()) {
+                        // Closed while waiting
+                        if (f.getNow()) {
+                            targetLimiter.release();
+                        }
+                    } else if (f.getNow()) {
+                        open(ctx, targets, attempt, targetLimiter);
+                    } else if (((attempt + 1) % targets.size()) != 0) {
+                        // The next target may have room
+                        connect(ctx, targets, attempt + 1);
+                    } else {
+                        log.warn("Rejecting connection, all the targets are over their concurrency limit");
+                        releasePendingRequests();
+                        trace.closing(CloseReason.OVERLOAD);
+                        ctx.close();
+                    }
+                });
         }
+    }
 
-        // Redirect to the target client
-        clientChannel.writeAndFlush(message);
+    /**
+     * Opens the client connection to the target for an attempt. Once connected, any pending request is sent and
+     * reading from the server is resumed. If the connection fails, the next attempt is scheduled until all of them are
+     * used.
+     * <p>
+     * With a concurrency limit, the permit is already taken, and it is released when the client is closed.
+     *
+     * @param ctx
+     *            server context
+     * @param targets
+     *            targets to connect to, in order
+     * @param attempt
+     *            attempt number, starting at zero
+     * @param targetLimiter
+     *            concurrency limiter for the target, or {@code null} if there is no limit
+     */
+    private final void open(final ChannelHandlerContext ctx, final List<ProxyTarget> targets, final int attempt,
+            final ConcurrencyLimiter targetLimiter) {
+        final ProxyTarget   target;
+        final ChannelFuture future;
+        final int           attempts;
+        final long          start;
 
-        serverContext = ctx;
+        target = targets.get(attempt % targets.size());
+        attempts = targets.size() * (connectRetries + 1);
+        start = System.nanoTime();
+        future = clientChannelSupplier.apply(ctx, target);
+        clientChannel = future.channel();
+        future.addListener((ChannelFutureListener) f -> {
+            if (targetLimiter != null) {
+                if (f.isSuccess()) {
+                    targetLimiter.onConnected(System.nanoTime() - start);
+                    f.channel()
+                        .closeFuture()
+                        .addListener(c -> targetLimiter.release());
+                } else {
+                    targetLimiter.onFailed();
+                    targetLimiter.release();
+                }
+            }
+            if (f.isSuccess() && !ctx.channel()
+                .isActive()) {
+                // The server was closed while connecting. Closing the target also releases its permit
+                log.debug("Connected to {} after the server was closed", target);
+                f.channel()
+                    .close();
+            } else if (f.isSuccess()) {
+                log.debug("Connected to {}", target);
+                pair = new ConnectionPair(ctx.channel(), clientChannel, trace);
+                limiter = targetLimiter;
+                if (bufferBudget != null) {
+                    // Only notified of failed writes, which close both channels
+                    requestBuffer = new RequestBuffer(ctx.channel(), clientChannel, bufferBudget, bufferOptions,
+                        pair.getRequestWritten());
+                    // First, as the last handlers don't pass on the channel events
+                    clientChannel.pipeline()
+                        .addFirst(requestBuffer);
+                }
+                if (affinity != null) {
+                    affinity.put(clientKey, target);
+                }
+                listener.onConnect(connectionId, ctx.channel()
+                    .remoteAddress(), target, System.nanoTime());
+                if (proxyProtocol != null) {
+                    // The header goes before any request
+                    writeProxyHeader(ctx.channel());
+                }
+                if (pendingRequests.isEmpty()) {
+                    clientChannel.flush();
+                    ctx.channel()
+                        .read();
+                } else {
+                    while (pendingRequests.size() > 1) {
+                        clientChannel.write(pendingRequests.poll());
+                    }
+                    pair.toClient(pendingRequests.poll());
+                }
+                if (inputShutdown) {
+                    // The client finished while connecting
+                    shutdownClientOutput();
+                }
+            } else if (((attempt + 1) < attempts) && ctx.channel()
+                .isActive()) {
+                log.debug("Failed connecting to {}, attempt {} of {}", target, attempt + 1, attempts, f.cause());
+                retry(ctx, targets, attempt + 1);
+            } else {
+                log.error("Failed connecting to {}", target, f.cause());
+                listener.onError(connectionId, f.cause());
+                releasePendingRequests();
+                trace.closing(CloseReason.CONNECT_FAILED);
+                ctx.close();
+            }
+        });
     }
 
     private final void handleClientResponse(final ChannelHandlerContext ctx, final Object message) {
+        final long now;
+        final long latency;
+
         log.debug("Handling client response");
 
         log.debug("Received client response: {}", message);
 
+        now = System.nanoTime();
+        trace.responseReceived(now, readableBytes(message));
+        if ((limiter != null) && !responseSampled) {
+            responseSampled = true;
+            latency = trace.getTargetLatency();
+            if (latency >= 0) {
+                limiter.onResponse(latency);
+            }
+        }
+        notifyData(TrafficDirection.RESPONSE, message, now);
+
+        if (draining) {
+            // The server is closed, the client is only kept open to send the buffered requests
+            ReferenceCountUtil.release(message);
+            ctx.read();
+        } else {
+            // Redirect to the source server
+            pair.toServer(message);
+        }
+    }
+
+    /**
+     * Sends the data to the listener. Only buffers are sent, and their indexes are restored afterwards, so the listener
+     * can't affect the data relayed. With sampling, the sampler decides what is sent.
+     *
+     * @param direction
+     *            direction of the data
+     * @param message
+     *            data received
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    private final void notifyData(final TrafficDirection direction, final Object message, final long nanoTime) {
+        final ByteBuf data;
+        final int     readerIndex;
+        final int     writerIndex;
+
+        if (message instanceof ByteBuf) {
+            data = (ByteBuf) message;
+            if (sampler != null) {
+                sampler.sample(direction, data, nanoTime);
+            } else {
+                readerIndex = data.readerIndex();
+                writerIndex = data.writerIndex();
+                try {
+                    listener.onData(connectionId, direction, data, writerIndex - readerIndex, nanoTime);
+                } finally {
+                    data.setIndex(readerIndex, writerIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes in the pending requests.
+     *
+     * @return the bytes waiting to be sent to the client
+     */
+    private final int pendingBytes() {
+        int bytes;
+
+        bytes = 0;
+        for (final Object request : pendingRequests) {
+            bytes += readableBytes(request);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns the affinity key for the client IP. This is the one received in the PROXY protocol header, if any.
+     *
+     * @param server
+     *            server channel
+     * @return the key for the client IP
+     */
+    private final long readAddressKey(final Channel server) {
+        final byte[] address;
+        InetSocketAddress source;
+
+        source = server.attr(ChannelAttributes.SOURCE)
+            .get();
+        if (source == null) {
+            source = (InetSocketAddress) server.remoteAddress();
+        }
+        address = source.getAddress()
+            .getAddress();
+
+        return AffinityTable.hash(address, address.length);
+    }
+
+    /**
+     * Returns the affinity key for the token at the start of the pending requests. They should contain the whole
+     * token, which is copied without changing them.
+     *
+     * @return the key for the client token
+     */
+    private final long readTokenKey() {
+        final byte[] token;
+        ByteBuf data;
+        int     copied;
+        int     length;
+
+        token = new byte[tokenLength];
+        copied = 0;
+        for (final Object request : pendingRequests) {
+            if ((copied < tokenLength) && (request instanceof ByteBuf)) {
+                data = (ByteBuf) request;
+                length = Math.min(data.readableBytes(), tokenLength - copied);
+                data.getBytes(data.readerIndex(), token, copied, length);
+                copied += length;
+            }
+        }
+
+        return AffinityTable.hash(token, copied);
+    }
+
+    /**
+     * Returns the bytes readable in a message, or zero if it is not a buffer.
+     *
+     * @param message
+     *            message to check
+     * @return the bytes readable in the message
+     */
+    private final int readableBytes(final Object message) {
+        final int bytes;
+
         if (message instanceof ByteBuf) {
-            listener.onResponse(((ByteBuf) message).toString(Charset.defaultCharset()));
+            bytes = ((ByteBuf) message).readableBytes();
+        } else {
+            bytes = 0;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Starts the next connection attempt. The next target is tried right away, unless all of them already failed in
+     * this round. Then the attempt waits the backoff for the round, with a random jitter of up to half of it so the
+     * connections don't retry all at the same time.
+     *
+     * @param ctx
+     *            server context
+     * @param targets
+     *            targets to connect to, in order
+     * @param attempt
+     *            attempt to start
+     */
+    private final void retry(final ChannelHandlerContext ctx, final List<ProxyTarget> targets, final int attempt) {
+        final int  round;
+        final long backoff;
+        final long delay;
+
+        round = attempt / targets.size();
+        if ((attempt % targets.size()) != 0) {
+            // Fast failover to the next target
+            connect(ctx, targets, attempt);
+        } else {
+            backoff = retryBackoff << Math.min(round - 1, 10);
+            delay = (backoff / 2) + ThreadLocalRandom.current()
+                .nextLong((backoff / 2) + 1);
+            log.debug("Retrying connection in {} ms", delay);
+            ctx.executor()
+                .schedule(() -> {
+                    // The server may have been closed while waiting
+                    if (ctx.channel()
+                        .isActive()) {
+                        connect(ctx, targets, attempt);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Shuts down the output to the target, once all the requests written to it are sent. The empty write goes straight
+     * to the socket, so it doesn't go through any encoder.
+     */
+    private final void shutdownClientOutput() {
+        final Channel client;
+
+        client = clientChannel;
+        client.pipeline()
+            .firstContext()
+            .writeAndFlush(Unpooled.EMPTY_BUFFER)
+            .addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    log.debug("Shutting down the output to the target");
+                    ((SocketChannel) client).shutdownOutput();
+                } else {
+                    log.debug("Failed write, closing channels", f.cause());
+                    trace.closing(CloseReason.ERROR);
+                    client.close();
+                }
+            });
+    }
+
+    /**
+     * Handles the client shutting down its output. If the target is connected, its output is shut down once the
+     * requests are sent, while the responses are still relayed. If still connecting, this is done once connected.
+     * Otherwise the connection is closed, as there is nowhere to send it to.
+     *
+     * @param ctx
+     *            server context
+     */
+    private final void shutdownInput(final ChannelHandlerContext ctx) {
+        log.debug("Client shut down its output");
+
+        if ((clientChannel == null) || (bufferBudget != null)) {
+            // Not routed yet, or the buffered requests are sent once the server is closed
+            ctx.close();
+        } else if (pair == null) {
+            inputShutdown = true;
         } else {
-            listener.onResponse(message.toString());
+            shutdownClientOutput();
         }
+    }
 
-        // Redirect to the source server
-        serverContext.writeAndFlush(message);
+    /**
+     * Writes the PROXY protocol header into the client.
+     *
+     * @param server
+     *            server channel, with the connection addresses
+     */
+    private final void writeProxyHeader(final Channel server) {
+        InetSocketAddress source;
+        InetSocketAddress destination;
+
+        source = server.attr(ChannelAttributes.SOURCE)
+            .get();
+        destination = server.attr(ChannelAttributes.DESTINATION)
+            .get();
+        if (source == null) {
+            source = (InetSocketAddress) server.remoteAddress();
+            destination = (InetSocketAddress) server.localAddress();
+        }
+
+        clientChannel.write(ProxyProtocolHeaders.encode(clientChannel.alloc(), proxyProtocol, source, destination));
+    }
+
+    /**
+     * Releases the requests which were not sent to the client.
+     */
+    private final void releasePendingRequests() {
+        while (!pendingRequests.isEmpty()) {
+            ReferenceCountUtil.release(pendingRequests.poll());
+        }
     }
 
 }
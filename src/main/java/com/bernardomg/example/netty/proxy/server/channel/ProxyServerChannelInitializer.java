@@ -25,16 +25,52 @@
 package com.bernardomg.example.netty.proxy.server.channel;
 
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
-import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.buffer.BufferBudget;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.limit.ConcurrencyLimiters;
+import com.bernardomg.example.netty.proxy.server.mux.MuxAcceptorChannelHandler;
+import com.bernardomg.example.netty.proxy.server.mux.MuxConnector;
+import com.bernardomg.example.netty.proxy.server.mux.MuxFrameDecoder;
+import com.bernardomg.example.netty.proxy.server.mux.MuxStreamChannelHandler;
+import com.bernardomg.example.netty.proxy.server.route.AffinityTable;
+import com.bernardomg.example.netty.proxy.server.route.RouteSelector;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.server.trace.AccessLog;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+import com.bernardomg.example.netty.proxy.server.trace.LatencyRecorder;
 
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Initializes the channel for a proxy.
+ * Initializes the channel for a proxy. When the routing table is static the default target is stored in the channel,
+ * otherwise a {@link RoutingChannelHandler} chooses it from the first bytes.
+ * <p>
+ * If PROXY protocol headers are accepted, they are decoded before any routing. Connections received through a
+ * compressed tunnel are decompressed before anything else.
+ * <p>
+ * Connections multiplexed from another proxy carry many streams, and are handled by a
+ * {@link MuxAcceptorChannelHandler}. When multiplexing the connections to the targets, a
+ * {@link MuxStreamChannelHandler} takes the place of the usual proxy handler.
+ * <p>
+ * The configuration is read once for each channel, and used for its whole life. Changes to the configuration only
+ * affect new channels.
+ * <p>
+ * Faults can be injected into the channels, for testing clients, with a {@link ChaosChannelHandler}.
+ * <p>
+ * Each channel is traced, and its latencies recorded once closed. Closed channels are also written to the access log.
  *
  * @author Bernardo Mart&iacute;nez Garrido
  *
@@ -42,32 +78,185 @@
 @Slf4j
 public final class ProxyServerChannelInitializer extends ChannelInitializer<SocketChannel> {
 
-    private final String        host;
+    /**
+     * Maximum number of bytes to inspect when routing.
+     */
+    private static final int            ROUTING_MAX_BYTES = 16 * 1024;
+
+    /**
+     * Last connection id. Shared by all the proxies, so ids are unique in the process.
+     */
+    private static final AtomicLong     CONNECTION_IDS = new AtomicLong();
+
+    /**
+     * Targets each client was last connected to, or {@code null} if affinity is disabled.
+     */
+    private final AffinityTable         affinity;
+
+    /**
+     * Memory shared by the request buffers, or {@code null} if buffering is disabled.
+     */
+    private final BufferBudget          bufferBudget;
+
+    /**
+     * Proxy configuration.
+     */
+    private final Supplier<ProxyConfig> configuration;
+
+    /**
+     * Group where the connections are stored, to track them.
+     */
+    private final ChannelGroup          connectionGroup;
+
+    /**
+     * Number of open connections. Striped, so the event loops don't contend when updating it, and only summed when
+     * checking the limit.
+     */
+    private final LongAdder             connections;
+
+    /**
+     * Recorder for the latencies of the closed connections.
+     */
+    private final LatencyRecorder       latencyRecorder;
 
     /**
-     * Proxy listener. Extension hook which allows reacting to the server events.
+     * Adaptive concurrency limiters for the targets, or {@code null} if there is no limit.
      */
-    private final ProxyListener listener;
+    private final ConcurrencyLimiters   limiters;
 
-    private final Integer       port;
+    /**
+     * Connection listener. Extension hook which allows reacting to the connection events.
+     */
+    private final ConnectionListener    listener;
+
+    /**
+     * Multiplexed connections to other proxies.
+     */
+    private final MuxConnector          muxConnector;
 
-    public ProxyServerChannelInitializer(final String hst, final Integer prt, final ProxyListener lstn) {
+    public ProxyServerChannelInitializer(final Supplier<ProxyConfig> config, final ChannelGroup connGroup,
+            final LatencyRecorder recorder, final ConnectionListener lstn, final MuxConnector mux,
+            final AffinityTable affnty, final ConcurrencyLimiters lmtrs, final BufferBudget budget) {
         super();
 
-        host = Objects.requireNonNull(hst);
-        port = Objects.requireNonNull(prt);
+        configuration = Objects.requireNonNull(config);
+        connectionGroup = Objects.requireNonNull(connGroup);
+        latencyRecorder = Objects.requireNonNull(recorder);
         listener = Objects.requireNonNull(lstn);
+        muxConnector = Objects.requireNonNull(mux);
+        affinity = affnty;
+        limiters = lmtrs;
+        bufferBudget = budget;
+        connections = new LongAdder();
     }
 
     @Override
     protected final void initChannel(final SocketChannel ch) throws Exception {
+        final ProxyConfig     config;
+        final RouteTable      routes;
+        final long            open;
+        final ConnectionTrace trace;
+        final long            slowThreshold;
+
         log.debug("Initializing channel");
 
+        config = configuration.get();
+        routes = config.getRoutes();
+
+        connections.increment();
+        ch.closeFuture()
+            .addListener(f -> connections.decrement());
+        open = connections.sum();
+        if ((config.getMaxConnections() > 0) && (open > config.getMaxConnections())) {
+            log.warn("Rejecting connection, limit of {} connections reached", config.getMaxConnections());
+            ch.close();
+            return;
+        }
+        connectionGroup.add(ch);
+        config.getListenerSocket()
+            .apply(ch);
+
+        trace = new ConnectionTrace(CONNECTION_IDS.incrementAndGet(), ch.remoteAddress(), System.nanoTime());
+        slowThreshold = TimeUnit.MILLISECONDS.toNanos(config.getSlowThreshold());
+        ch.attr(ChannelAttributes.TRACE)
+            .set(trace);
+        ch.closeFuture()
+            .addListener(f -> {
+                trace.closed(System.nanoTime());
+                latencyRecorder.record(ch.eventLoop(), trace, slowThreshold);
+                AccessLog.write(trace);
+            });
+
         ch.pipeline()
             // Logging handler
-            .addLast(new LoggingHandler())
-            // Adds proxy handler
-            .addLast(new ProxyServerChannelHandler(host, port, listener));
+            .addLast(new LoggingHandler());
+
+        if (config.getChaos()
+            .isEnabled()) {
+            // Fault injection, next to the socket
+            ch.pipeline()
+                .addLast(new ChaosChannelHandler(config.getChaos()));
+        }
+
+        if (config.isAcceptTunnel()) {
+            // Compressed tunnel handlers
+            ch.pipeline()
+                .addLast(new TunnelFrameDecoder())
+                .addLast(new TunnelFrameEncoder());
+        }
+
+        if (config.isAcceptMultiplex()) {
+            // Streams are handled by the multiplexing handlers, and always sent to the default target
+            ch.config()
+                .setAutoRead(true);
+            ch.pipeline()
+                .addLast(new MuxFrameDecoder())
+                .addLast(new MuxAcceptorChannelHandler(routes.getDefaultTarget(), config.getConnectTimeout(),
+                    config.getTargetSocket()));
+            log.debug("Initialized multiplexed channel");
+            return;
+        }
+
+        if (config.getIdleTimeout() > 0) {
+            // Idle connections handler
+            ch.pipeline()
+                .addLast(new IdleStateHandler(0, 0, config.getIdleTimeout(), TimeUnit.MILLISECONDS));
+        }
+
+        if (config.isAcceptProxyProtocol()) {
+            // Reads the PROXY header, the target can't be set until then
+            ch.pipeline()
+                .addLast(new HAProxyMessageDecoder());
+            if (routes.isStatic()) {
+                ch.pipeline()
+                    .addLast(new ProxyProtocolChannelHandler(routes.getDefaultTarget()));
+            } else {
+                ch.pipeline()
+                    .addLast(new ProxyProtocolChannelHandler());
+            }
+        } else if (routes.isStatic()) {
+            ch.attr(ChannelAttributes.TARGET)
+                .set(routes.getDefaultTarget());
+        }
+
+        if (!routes.isStatic()) {
+            // Adds routing handler
+            ch.pipeline()
+                .addLast(new RoutingChannelHandler(new RouteSelector(routes), ROUTING_MAX_BYTES,
+                    config.getRoutingTimeout()));
+        }
+
+        if (config.isSendMultiplex()) {
+            // Adds multiplexing proxy handler
+            ch.pipeline()
+                .addLast(new MuxStreamChannelHandler(config, trace, listener, muxConnector));
+        } else {
+            // The proxy handler relays the client shutting down its output, instead of closing
+            ch.config()
+                .setOption(ChannelOption.ALLOW_HALF_CLOSURE, true);
+            ch.pipeline()
+                .addLast(new ProxyServerChannelHandler(config, trace, listener, affinity, limiters, bufferBudget));
+        }
 
         log.debug("Initialized channel");
     }
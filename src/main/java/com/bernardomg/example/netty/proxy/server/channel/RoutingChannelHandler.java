@@ -0,0 +1,149 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteSelector;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Routing channel handler. Accumulates the first bytes of the connection until the target can be selected, then stores
+ * it in the channel, fires a {@link TargetSelectedEvent} and removes itself from the pipeline. The accumulated bytes
+ * are sent down the pipeline untouched, so after routing there is no cost per message.
+ * <p>
+ * If the client sends nothing in time, or sends too much without matching any route, the default target is used.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class RoutingChannelHandler extends ByteToMessageDecoder {
+
+    /**
+     * Maximum number of bytes to inspect.
+     */
+    private final int           maxInspected;
+
+    /**
+     * Indicates if the target has been selected.
+     */
+    private boolean             selected;
+
+    /**
+     * Target selector.
+     */
+    private final RouteSelector selector;
+
+    /**
+     * Milliseconds to wait for the first bytes.
+     */
+    private final long          timeout;
+
+    /**
+     * Scheduled task which applies the default target after the timeout.
+     */
+    private ScheduledFuture<?>  timeoutTask;
+
+    /**
+     * Constructs a routing handler.
+     *
+     * @param slctr
+     *            target selector
+     * @param maxBytes
+     *            maximum number of bytes to inspect
+     * @param tmt
+     *            milliseconds to wait for the first bytes
+     */
+    public RoutingChannelHandler(final RouteSelector slctr, final int maxBytes, final long tmt) {
+        super();
+
+        selector = Objects.requireNonNull(slctr);
+        maxInspected = maxBytes;
+        timeout = tmt;
+    }
+
+    @Override
+    public final void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+
+        timeoutTask = ctx.executor()
+            .schedule(() -> {
+                log.debug("No route selected after {} ms", timeout);
+                select(ctx, selector.getDefaultTarget());
+            }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected final void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        ProxyTarget target;
+
+        target = selector.select(in);
+        if ((target == null) && (in.readableBytes() >= maxInspected)) {
+            log.debug("No route found in the first {} bytes", in.readableBytes());
+            target = selector.getDefaultTarget();
+        }
+
+        if (target != null) {
+            select(ctx, target);
+        }
+    }
+
+    @Override
+    protected final void handlerRemoved0(final ChannelHandlerContext ctx) {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+        }
+    }
+
+    /**
+     * Sets the target for the connection and removes this handler. Any accumulated data is sent down the pipeline.
+     *
+     * @param ctx
+     *            channel context
+     * @param target
+     *            selected target
+     */
+    private final void select(final ChannelHandlerContext ctx, final ProxyTarget target) {
+        if (!selected) {
+            selected = true;
+            ctx.channel()
+                .attr(ChannelAttributes.TARGET)
+                .set(target);
+            ctx.fireUserEventTriggered(new TargetSelectedEvent(target));
+            ctx.pipeline()
+                .remove(this);
+        }
+    }
+
+}
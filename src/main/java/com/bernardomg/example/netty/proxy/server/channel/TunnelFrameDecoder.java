@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Decompresses the data received through a tunnel, from {@link TunnelFrames}. Each frame is sent down the pipeline as
+ * soon as it is complete. Raw frames are sliced from the received data, without copying them.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class TunnelFrameDecoder extends ByteToMessageDecoder {
+
+    /**
+     * LZ4 decompressor. This checks the data, so corrupted frames can't write out of bounds.
+     */
+    private final LZ4SafeDecompressor decompressor;
+
+    public TunnelFrameDecoder() {
+        super();
+
+        decompressor = TunnelFrames.LZ4_FACTORY.safeDecompressor();
+    }
+
+    @Override
+    protected final void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        final byte type;
+        final int  payloadLength;
+        final int  headerLength;
+
+        if (in.readableBytes() < TunnelFrames.HEADER_LENGTH) {
+            return;
+        }
+
+        type = in.getByte(in.readerIndex());
+        payloadLength = in.getInt(in.readerIndex() + 1);
+        if ((payloadLength < 0) || (payloadLength > TunnelFrames.MAX_PAYLOAD_LENGTH)) {
+            throw new CorruptedFrameException("Invalid tunnel frame length " + payloadLength);
+        }
+
+        if (type == TunnelFrames.RAW) {
+            headerLength = TunnelFrames.HEADER_LENGTH;
+        } else if (type == TunnelFrames.LZ4) {
+            headerLength = TunnelFrames.LZ4_HEADER_LENGTH;
+        } else {
+            throw new CorruptedFrameException("Invalid tunnel frame type " + type);
+        }
+
+        if (in.readableBytes() < (headerLength + payloadLength)) {
+            // Waits for the full frame
+            return;
+        }
+
+        if (type == TunnelFrames.RAW) {
+            in.skipBytes(headerLength);
+            out.add(in.readRetainedSlice(payloadLength));
+        } else {
+            out.add(decompress(ctx, in, payloadLength));
+        }
+    }
+
+    /**
+     * Decompresses an LZ4 frame.
+     *
+     * @param ctx
+     *            channel context
+     * @param in
+     *            data received, starting at the frame
+     * @param payloadLength
+     *            length of the compressed data
+     * @return the decompressed data
+     */
+    private final ByteBuf decompress(final ChannelHandlerContext ctx, final ByteBuf in, final int payloadLength) {
+        final int        length;
+        final ByteBuf    decompressed;
+        final ByteBuffer source;
+        final ByteBuffer destination;
+        final int        decompressedLength;
+
+        length = in.getInt(in.readerIndex() + TunnelFrames.HEADER_LENGTH);
+        if ((length <= 0) || (length > TunnelFrames.BLOCK_SIZE)) {
+            throw new CorruptedFrameException("Invalid tunnel frame uncompressed length " + length);
+        }
+        in.skipBytes(TunnelFrames.LZ4_HEADER_LENGTH);
+
+        decompressed = ctx.alloc()
+            .buffer(length, length);
+        try {
+            source = in.nioBuffer(in.readerIndex(), payloadLength);
+            destination = decompressed.internalNioBuffer(0, length);
+            decompressedLength = decompressor.decompress(source, source.position(), payloadLength, destination,
+                destination.position(), length);
+            if (decompressedLength != length) {
+                throw new CorruptedFrameException(
+                    "Tunnel frame decompressed to " + decompressedLength + " bytes instead of " + length);
+            }
+        } catch (final LZ4Exception | CorruptedFrameException e) {
+            decompressed.release();
+            throw new CorruptedFrameException("Invalid tunnel frame", e);
+        }
+        decompressed.writerIndex(length);
+        in.skipBytes(payloadLength);
+
+        return decompressed;
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Compressor;
+
+/**
+ * Compresses the data sent through a tunnel into {@link TunnelFrames}. Messages are split into blocks, and each block
+ * is compressed with LZ4.
+ * <p>
+ * Compression is bypassed adaptively. Small blocks are sent raw, and when a block doesn't compress well enough, the
+ * following blocks are sent raw without trying. Compression is tried again after that, so the encoder recovers once
+ * the data becomes compressible again.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class TunnelFrameEncoder extends MessageToByteEncoder<ByteBuf> {
+
+    /**
+     * Number of blocks sent raw after one which didn't compress well.
+     */
+    private static final int    BYPASS_BLOCKS = 32;
+
+    /**
+     * Blocks smaller than this are always sent raw.
+     */
+    private static final int    MIN_BLOCK_SIZE = 64;
+
+    /**
+     * Blocks are only sent compressed if this ratio of the original size is saved, at least.
+     */
+    private static final int    MIN_SAVING_RATIO = 8;
+
+    /**
+     * Number of blocks to send raw before trying to compress again.
+     */
+    private int                 bypassed;
+
+    /**
+     * LZ4 compressor.
+     */
+    private final LZ4Compressor compressor;
+
+    public TunnelFrameEncoder() {
+        super(ByteBuf.class);
+
+        compressor = TunnelFrames.LZ4_FACTORY.fastCompressor();
+    }
+
+    @Override
+    protected final ByteBuf allocateBuffer(final ChannelHandlerContext ctx, final ByteBuf msg,
+            final boolean preferDirect) throws Exception {
+        final int blocks;
+
+        // Room for the worst case, so the buffer never grows
+        blocks = (msg.readableBytes() + TunnelFrames.BLOCK_SIZE - 1) / TunnelFrames.BLOCK_SIZE;
+        return ctx.alloc()
+            .ioBuffer(blocks * (TunnelFrames.LZ4_HEADER_LENGTH
+                    + compressor.maxCompressedLength(Math.min(msg.readableBytes(), TunnelFrames.BLOCK_SIZE))));
+    }
+
+    @Override
+    protected final void encode(final ChannelHandlerContext ctx, final ByteBuf msg, final ByteBuf out) {
+        int length;
+
+        while (msg.isReadable()) {
+            length = Math.min(msg.readableBytes(), TunnelFrames.BLOCK_SIZE);
+            if ((length < MIN_BLOCK_SIZE) || (bypassed > 0) || (msg.nioBufferCount() != 1)) {
+                if (bypassed > 0) {
+                    bypassed--;
+                }
+                writeRaw(msg, length, out);
+            } else if (!writeCompressed(msg, length, out)) {
+                log.debug("Block not compressible, bypassing compression for {} blocks", BYPASS_BLOCKS);
+                bypassed = BYPASS_BLOCKS;
+                writeRaw(msg, length, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the block as an LZ4 frame, if it compresses well enough. Otherwise nothing is written.
+     *
+     * @param msg
+     *            data to compress
+     * @param length
+     *            length of the block
+     * @param out
+     *            buffer to write into
+     * @return {@code true} if the block was written, {@code false} otherwise
+     */
+    private final boolean writeCompressed(final ByteBuf msg, final int length, final ByteBuf out) {
+        final int        headerIndex;
+        final ByteBuffer source;
+        final ByteBuffer destination;
+        final int        compressedLength;
+        final boolean    written;
+
+        headerIndex = out.writerIndex();
+        source = msg.internalNioBuffer(msg.readerIndex(), length);
+        destination = out.internalNioBuffer(headerIndex + TunnelFrames.LZ4_HEADER_LENGTH,
+            out.writableBytes() - TunnelFrames.LZ4_HEADER_LENGTH);
+        compressedLength = compressor.compress(source, source.position(), length, destination,
+            destination.position(), destination.remaining());
+
+        written = compressedLength < (length - (length / MIN_SAVING_RATIO));
+        if (written) {
+            out.writeByte(TunnelFrames.LZ4);
+            out.writeInt(compressedLength);
+            out.writeInt(length);
+            out.writerIndex(out.writerIndex() + compressedLength);
+            msg.skipBytes(length);
+        }
+
+        return written;
+    }
+
+    /**
+     * Writes the block as a raw frame.
+     *
+     * @param msg
+     *            data to write
+     * @param length
+     *            length of the block
+     * @param out
+     *            buffer to write into
+     */
+    private final void writeRaw(final ByteBuf msg, final int length, final ByteBuf out) {
+        out.writeByte(TunnelFrames.RAW);
+        out.writeInt(length);
+        out.writeBytes(msg, length);
+    }
+
+}
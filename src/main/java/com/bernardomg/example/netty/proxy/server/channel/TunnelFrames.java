@@ -0,0 +1,86 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.channel;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Frame format for the compressed tunnel between two proxies. Each frame starts with a header:
+ * <ul>
+ * <li>Type, one byte: {@link #RAW} or {@link #LZ4}</li>
+ * <li>Payload length, four bytes</li>
+ * <li>Only for LZ4 frames, the uncompressed length, four bytes</li>
+ * </ul>
+ * The payload follows the header. Raw frames carry data which was not worth compressing.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+final class TunnelFrames {
+
+    /**
+     * Maximum uncompressed bytes in a frame.
+     */
+    public static final int        BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Header length for raw frames.
+     */
+    public static final int        HEADER_LENGTH = 5;
+
+    /**
+     * Frame type for LZ4 compressed data.
+     */
+    public static final byte       LZ4 = 1;
+
+    /**
+     * LZ4 implementation. The fastest available is used, native or pure Java.
+     */
+    public static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    /**
+     * Header length for LZ4 frames.
+     */
+    public static final int        LZ4_HEADER_LENGTH = HEADER_LENGTH + 4;
+
+    /**
+     * Maximum payload length accepted. Any longer frame is corrupted.
+     */
+    public static final int        MAX_PAYLOAD_LENGTH = LZ4_FACTORY.fastCompressor()
+        .maxCompressedLength(BLOCK_SIZE);
+
+    /**
+     * Frame type for uncompressed data.
+     */
+    public static final byte       RAW = 0;
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private TunnelFrames() {
+        super();
+    }
+
+}
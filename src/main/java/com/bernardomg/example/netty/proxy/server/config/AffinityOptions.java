@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Locale;
+import java.util.Map;
+
+import com.bernardomg.example.netty.proxy.server.route.AffinityKey;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Sticky affinity between clients and targets. When enabled, a client which reconnects is sent first to the target it
+ * was last connected to, even if that one is a failover target, so stateful backends keep its session. Disabled by
+ * default.
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class AffinityOptions {
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included keep their default value.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final AffinityOptions parse(final Map<String, String> values) {
+        final AffinityOptionsBuilder builder;
+        String value;
+
+        builder = AffinityOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "key":
+                    builder.key(AffinityKey.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "size":
+                    builder.size(parsePositive(value));
+                    break;
+                case "tokenLength":
+                    builder.tokenLength(parsePositive(value));
+                    break;
+                case "ttl":
+                    builder.ttl(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown affinity option %s", option.getKey()));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Parses a number which should be positive.
+     *
+     * @param value
+     *            number to parse
+     * @return the parsed number
+     */
+    private static final int parsePositive(final String value) {
+        final int number;
+
+        number = Integer.parseInt(value);
+        if (number <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid value %s, expected a positive number", value));
+        }
+
+        return number;
+    }
+
+    /**
+     * What identifies a client.
+     */
+    @NonNull
+    @Builder.Default
+    private final AffinityKey key = AffinityKey.NONE;
+
+    /**
+     * Number of clients remembered. Once full, the least recently connected ones are forgotten.
+     */
+    @Builder.Default
+    private final int         size = 64 * 1024;
+
+    /**
+     * Number of bytes read from the client for the token key. The client has to send them before the target is
+     * connected.
+     */
+    @Builder.Default
+    private final int         tokenLength = 16;
+
+    /**
+     * Milliseconds a client is remembered after its last connection.
+     */
+    @Builder.Default
+    private final long        ttl = 30 * 60 * 1000;
+
+    /**
+     * Indicates if clients are pinned to targets.
+     *
+     * @return {@code true} if affinity is enabled
+     */
+    public final boolean isEnabled() {
+        return key != AffinityKey.NONE;
+    }
+
+}
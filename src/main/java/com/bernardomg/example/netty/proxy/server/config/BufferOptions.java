@@ -0,0 +1,136 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Buffering of the requests sent to the targets. Instead of reading from the client only once the previous request was
+ * written, requests are read ahead into a buffer while the target is slow, so a fast client uploading to a slow target
+ * is not throttled. Disabled by default, it is enabled by setting the memory for each connection.
+ * <p>
+ * Each connection keeps up to its memory budget in memory. Once full, the requests are spilled into a memory mapped
+ * temporary file, if a spill size is set, and read back in order. The memory of all the connections is also capped, so
+ * the heap and direct memory used stay predictable.
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class BufferOptions {
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included keep their default value.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final BufferOptions parse(final Map<String, String> values) {
+        final BufferOptionsBuilder builder;
+        final BufferOptions        options;
+        String value;
+
+        builder = BufferOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "directory":
+                    builder.directory(Paths.get(value));
+                    break;
+                case "memory":
+                    builder.memory(Integer.parseInt(value));
+                    break;
+                case "spill":
+                    builder.spill(Integer.parseInt(value));
+                    break;
+                case "total":
+                    builder.total(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown buffer option %s", option.getKey()));
+            }
+        }
+
+        options = builder.build();
+        if (options.isEnabled()) {
+            options.validate();
+        }
+
+        return options;
+    }
+
+    /**
+     * Directory for the spill files, or {@code null} for the default temporary directory.
+     */
+    private final Path directory;
+
+    /**
+     * Bytes each connection keeps in memory. Zero disables buffering.
+     */
+    private final int  memory;
+
+    /**
+     * Bytes each connection spills into a temporary file, once its memory is full. Zero disables spilling.
+     */
+    private final int  spill;
+
+    /**
+     * Bytes kept in memory by all the connections.
+     */
+    @Builder.Default
+    private final long total = 64 * 1024 * 1024;
+
+    /**
+     * Indicates if the requests are buffered.
+     *
+     * @return {@code true} if buffering is enabled
+     */
+    public final boolean isEnabled() {
+        return memory > 0;
+    }
+
+    /**
+     * Checks the options are consistent.
+     */
+    private final void validate() {
+        if (spill < 0) {
+            throw new IllegalArgumentException(String.format("Invalid spill size %d, expected at least 0", spill));
+        }
+        if (total < memory) {
+            throw new IllegalArgumentException(
+                String.format("Invalid total memory %d, expected at least the connection memory (%d)", total, memory));
+        }
+    }
+
+}
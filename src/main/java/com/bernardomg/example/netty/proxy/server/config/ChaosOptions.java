@@ -0,0 +1,146 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Map;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Faults injected into the proxied connections, to test how clients handle a bad network. All of them are disabled by
+ * default.
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class ChaosOptions {
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included are disabled.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final ChaosOptions parse(final Map<String, String> values) {
+        final ChaosOptionsBuilder builder;
+        String value;
+
+        builder = ChaosOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "bandwidth":
+                    builder.bandwidth(Long.parseLong(value));
+                    break;
+                case "dropRate":
+                    builder.dropRate(parseRate(value));
+                    break;
+                case "jitter":
+                    builder.jitter(Long.parseLong(value));
+                    break;
+                case "latency":
+                    builder.latency(Long.parseLong(value));
+                    break;
+                case "partialWrite":
+                    builder.partialWrite(Integer.parseInt(value));
+                    break;
+                case "resetRate":
+                    builder.resetRate(parseRate(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown chaos option %s", option.getKey()));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Parses a probability, which should be between 0 and 1.
+     *
+     * @param value
+     *            probability to parse
+     * @return the parsed probability
+     */
+    private static final double parseRate(final String value) {
+        final double rate;
+
+        rate = Double.parseDouble(value);
+        if ((rate < 0) || (rate > 1)) {
+            throw new IllegalArgumentException(
+                String.format("Invalid rate %s, expected a value between 0 and 1", value));
+        }
+
+        return rate;
+    }
+
+    /**
+     * Maximum bytes per second in each direction of a connection.
+     */
+    private final long   bandwidth;
+
+    /**
+     * Probability for each message of closing the connection without relaying it.
+     */
+    private final double dropRate;
+
+    /**
+     * Maximum milliseconds added to or removed from the latency, at random.
+     */
+    private final long   jitter;
+
+    /**
+     * Milliseconds each message is delayed, in each direction.
+     */
+    private final long   latency;
+
+    /**
+     * Maximum bytes written to the client at once. Larger responses are split.
+     */
+    private final int    partialWrite;
+
+    /**
+     * Probability for each message of resetting the connection without relaying it.
+     */
+    private final double resetRate;
+
+    /**
+     * Indicates if any fault is enabled.
+     *
+     * @return {@code true} if any fault is enabled
+     */
+    public final boolean isEnabled() {
+        return (bandwidth > 0) || (dropRate > 0) || (jitter > 0) || (latency > 0) || (partialWrite > 0)
+                || (resetRate > 0);
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Map;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Adaptive limit for the concurrent connections to each target. The limit grows while the target answers as fast as
+ * usual, and shrinks when it slows down or fails, so a struggling target gets less load instead of more. Disabled by
+ * default, it is enabled by setting the maximum limit.
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class ConcurrencyLimitOptions {
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included keep their default value.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final ConcurrencyLimitOptions parse(final Map<String, String> values) {
+        final ConcurrencyLimitOptionsBuilder builder;
+        final ConcurrencyLimitOptions        options;
+        String value;
+
+        builder = ConcurrencyLimitOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "backoff":
+                    builder.backoff(Double.parseDouble(value));
+                    break;
+                case "initial":
+                    builder.initial(Integer.parseInt(value));
+                    break;
+                case "max":
+                    builder.max(Integer.parseInt(value));
+                    break;
+                case "min":
+                    builder.min(Integer.parseInt(value));
+                    break;
+                case "queueSize":
+                    builder.queueSize(Integer.parseInt(value));
+                    break;
+                case "queueTimeout":
+                    builder.queueTimeout(Long.parseLong(value));
+                    break;
+                case "tolerance":
+                    builder.tolerance(Double.parseDouble(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                        String.format("Unknown concurrency limit option %s", option.getKey()));
+            }
+        }
+
+        options = builder.build();
+        if (options.isEnabled()) {
+            options.validate();
+        }
+
+        return options;
+    }
+
+    /**
+     * Factor applied to the limit when the target slows down or fails.
+     */
+    @Builder.Default
+    private final double backoff = 0.9;
+
+    /**
+     * Limit before any latency is measured. Kept between the lowest and highest limits.
+     */
+    @Builder.Default
+    private final int    initial = 20;
+
+    /**
+     * Highest limit. Zero disables the limit.
+     */
+    private final int    max;
+
+    /**
+     * Lowest limit.
+     */
+    @Builder.Default
+    private final int    min = 1;
+
+    /**
+     * Most connections waiting for the limit. Once full, new connections are rejected right away.
+     */
+    @Builder.Default
+    private final int    queueSize = 100;
+
+    /**
+     * Milliseconds a connection waits for the limit before being rejected. Zero rejects right away.
+     */
+    @Builder.Default
+    private final long   queueTimeout = 50;
+
+    /**
+     * Times the usual latency accepted before considering the target slowed down.
+     */
+    @Builder.Default
+    private final double tolerance = 2;
+
+    /**
+     * Indicates if the connections to the targets are limited.
+     *
+     * @return {@code true} if the limit is enabled
+     */
+    public final boolean isEnabled() {
+        return max > 0;
+    }
+
+    /**
+     * Checks the options are consistent.
+     */
+    private final void validate() {
+        if ((min < 1) || (min > max)) {
+            throw new IllegalArgumentException(
+                String.format("Invalid concurrency limits, expected 1 <= min (%d) <= max (%d)", min, max));
+        }
+        if ((backoff <= 0) || (backoff >= 1)) {
+            throw new IllegalArgumentException(
+                String.format("Invalid backoff %s, expected a value between 0 and 1", backoff));
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException(String.format("Invalid tolerance %s, expected at least 1", tolerance));
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Proxy configuration. This is an immutable snapshot, each connection takes the current one when it is accepted and
+ * keeps it until closed.
+ * <p>
+ * Timeouts are in milliseconds. A zero timeout or limit disables it.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class ProxyConfig {
+
+    /**
+     * Indicates if connections are received multiplexed from another proxy.
+     */
+    private final boolean acceptMultiplex;
+
+    /**
+     * Indicates if connections start with a PROXY protocol header.
+     */
+    private final boolean acceptProxyProtocol;
+
+    /**
+     * Indicates if connections are received through a compressed tunnel.
+     */
+    private final boolean acceptTunnel;
+
+    /**
+     * Sticky affinity between clients and targets.
+     */
+    @NonNull
+    @Builder.Default
+    private final AffinityOptions        affinity       = AffinityOptions.builder()
+        .build();
+
+    /**
+     * Adaptive limit for the concurrent connections to each target.
+     */
+    @NonNull
+    @Builder.Default
+    private final ConcurrencyLimitOptions backendLimit = ConcurrencyLimitOptions.builder()
+        .build();
+
+    /**
+     * Buffering of the requests sent to the targets.
+     */
+    @NonNull
+    @Builder.Default
+    private final BufferOptions          buffer         = BufferOptions.builder()
+        .build();
+
+    /**
+     * Faults injected into the connections, for testing.
+     */
+    @NonNull
+    @Builder.Default
+    private final ChaosOptions           chaos          = ChaosOptions.builder()
+        .build();
+
+    /**
+     * Times all the targets are tried again, after the first round of connection attempts fails.
+     */
+    private final int               connectRetries;
+
+    /**
+     * Milliseconds to wait for each target connection attempt.
+     */
+    @Builder.Default
+    private final int               connectTimeout = 10000;
+
+    /**
+     * Backup targets, tried in order when the selected target can't be connected.
+     */
+    @NonNull
+    @Builder.Default
+    private final List<ProxyTarget> failover = Collections.emptyList();
+
+    /**
+     * Milliseconds without traffic after which the connection is closed.
+     */
+    private final long              idleTimeout;
+
+    /**
+     * Socket options for the connections accepted from the clients.
+     */
+    @NonNull
+    @Builder.Default
+    private final SocketOptions          listenerSocket = SocketOptions.builder()
+        .build();
+
+    /**
+     * Maximum number of concurrent connections.
+     */
+    private final int                    maxConnections;
+
+    /**
+     * Shadow target which receives a copy of the requests, or {@code null} to disable mirroring.
+     */
+    private final ProxyTarget            mirror;
+
+    /**
+     * Maximum bytes waiting to be sent to the shadow target, for each connection.
+     */
+    @Builder.Default
+    private final int                    mirrorBuffer = 1024 * 1024;
+
+    /**
+     * PROXY protocol version for the header sent to the target, or {@code null} to send no header.
+     */
+    private final HAProxyProtocolVersion proxyProtocol;
+
+    /**
+     * Indicates if the connections to the targets are multiplexed, for a proxy accepting multiplexed connections.
+     */
+    private final boolean                sendMultiplex;
+
+    /**
+     * Indicates if the connections to the targets are compressed, for a proxy accepting tunnels.
+     */
+    private final boolean                sendTunnel;
+
+    /**
+     * Milliseconds to wait before the first retry round. Doubled on each round, with a random jitter.
+     */
+    @Builder.Default
+    private final long                   retryBackoff = 100;
+
+    /**
+     * Routing table.
+     */
+    @NonNull
+    private final RouteTable             routes;
+
+    /**
+     * Milliseconds to wait for the first bytes when routing.
+     */
+    @Builder.Default
+    private final long                   routingTimeout = 5000;
+
+    /**
+     * Sampling of the data given to the connection listener.
+     */
+    @NonNull
+    @Builder.Default
+    private final SamplingOptions        sampling       = SamplingOptions.builder()
+        .build();
+
+    /**
+     * Milliseconds after which a connection is logged as slow, if it takes longer to connect or to receive the first
+     * response.
+     */
+    private final long                   slowThreshold;
+
+    /**
+     * Socket options for the connections to the targets.
+     */
+    @NonNull
+    @Builder.Default
+    private final SocketOptions          targetSocket = SocketOptions.builder()
+        .build();
+
+    /**
+     * Indicates if any of the socket options requires the epoll transport.
+     *
+     * @return {@code true} if the epoll transport is required
+     */
+    public final boolean isEpollRequired() {
+        return listenerSocket.requiresEpoll() || targetSocket.requiresEpoll();
+    }
+
+}
@@ -0,0 +1,362 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+
+/**
+ * Reads the proxy configuration from a properties file. The supported keys are:
+ * <ul>
+ * <li>{@code target}: default target, as {@code host:port}, this is the only required key</li>
+ * <li>{@code failover}: comma separated backup targets, tried in order when a target can't be connected</li>
+ * <li>{@code mirror}: shadow target, as {@code host:port}, which receives a copy of the requests</li>
+ * <li>{@code mirror.buffer}: maximum bytes waiting to be sent to the shadow target, for each connection</li>
+ * <li>{@code route.<host name>}: target for a host name, which may be a wildcard</li>
+ * <li>{@code prefixRoute.<prefix>}: target for connections starting with the prefix</li>
+ * <li>{@code proxyProtocol.accept}: {@code true} to expect PROXY protocol headers</li>
+ * <li>{@code proxyProtocol.send}: PROXY protocol version sent to the target, {@code V1} or {@code V2}</li>
+ * <li>{@code timeout.connect}: milliseconds to wait for each target connection attempt</li>
+ * <li>{@code retry.count}: times all the targets are tried again after failing to connect</li>
+ * <li>{@code retry.backoff}: milliseconds to wait before the first retry, doubled on each retry</li>
+ * <li>{@code timeout.idle}: milliseconds without traffic before closing a connection</li>
+ * <li>{@code timeout.routing}: milliseconds to wait for the first bytes when routing</li>
+ * <li>{@code limit.connections}: maximum number of concurrent connections</li>
+ * <li>{@code tunnel.accept}: {@code true} to receive connections through a compressed tunnel</li>
+ * <li>{@code tunnel.send}: {@code true} to compress the connections to the targets</li>
+ * <li>{@code multiplex.accept}: {@code true} to receive connections multiplexed from another proxy</li>
+ * <li>{@code multiplex.send}: {@code true} to multiplex the connections to the targets</li>
+ * <li>{@code trace.slowThreshold}: milliseconds after which a connection is logged as slow</li>
+ * <li>{@code socket.listener.<option>}: socket option for the accepted connections, see {@link SocketOptions}</li>
+ * <li>{@code socket.target.<option>}: socket option for the connections to the targets</li>
+ * <li>{@code chaos.<option>}: fault injected into the connections, see {@link ChaosOptions}</li>
+ * <li>{@code affinity.<option>}: sticky affinity between clients and targets, see {@link AffinityOptions}</li>
+ * <li>{@code limit.backend.<option>}: adaptive limit for the connections to each target, see
+ * {@link ConcurrencyLimitOptions}</li>
+ * <li>{@code buffer.<option>}: buffering of the requests sent to the targets, see {@link BufferOptions}</li>
+ * <li>{@code sampling.<option>}: sampling of the data given to the listener, see {@link SamplingOptions}</li>
+ * </ul>
+ * <p>
+ * A single file may also contain several proxy mappings, see {@link #readAll(Path)}.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ProxyConfigReader {
+
+    /**
+     * Prefix for the affinity keys.
+     */
+    private static final String AFFINITY = "affinity.";
+
+    /**
+     * Prefix for the target concurrency limit keys.
+     */
+    private static final String BACKEND_LIMIT = "limit.backend.";
+
+    /**
+     * Prefix for the request buffer keys.
+     */
+    private static final String BUFFER = "buffer.";
+
+    /**
+     * Prefix for the fault injection keys.
+     */
+    private static final String CHAOS = "chaos.";
+
+    /**
+     * Prefix for the proxy mapping keys.
+     */
+    private static final String MAPPING = "proxy.";
+
+    /**
+     * Prefix for the prefix route keys.
+     */
+    private static final String PREFIX_ROUTE = "prefixRoute.";
+
+    /**
+     * Prefix for the host route keys.
+     */
+    private static final String ROUTE = "route.";
+
+    /**
+     * Prefix for the listener sampling keys.
+     */
+    private static final String SAMPLING = "sampling.";
+
+    /**
+     * Prefix for the listener socket option keys.
+     */
+    private static final String SOCKET_LISTENER = "socket.listener.";
+
+    /**
+     * Prefix for the target socket option keys.
+     */
+    private static final String SOCKET_TARGET = "socket.target.";
+
+    /**
+     * Default constructor.
+     */
+    public ProxyConfigReader() {
+        super();
+    }
+
+    /**
+     * Reads the configuration in the file.
+     *
+     * @param path
+     *            file to read
+     * @return the configuration in the file
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public final ProxyConfig read(final Path path) throws IOException {
+        return parse(load(path), "", path);
+    }
+
+    /**
+     * Reads all the proxy mappings in the file. Each mapping has a name, and all its keys are prefixed with
+     * {@code proxy.<name>.}, including the {@code proxy.<name>.port} to listen to.
+     *
+     * @param path
+     *            file to read
+     * @return the mappings in the file, sorted by name
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public final List<ProxyMapping> readAll(final Path path) throws IOException {
+        final Properties         properties;
+        final List<ProxyMapping> mappings;
+        String name;
+        String prefix;
+
+        properties = load(path);
+
+        mappings = new ArrayList<>();
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith(MAPPING) && key.endsWith(".port")) {
+                name = key.substring(MAPPING.length(), key.length() - ".port".length());
+                prefix = MAPPING + name + ".";
+                mappings.add(new ProxyMapping(name, Integer.valueOf(properties.getProperty(key)
+                    .trim()), parse(properties, prefix, path)));
+            }
+        }
+        if (mappings.isEmpty()) {
+            throw new IOException(String.format("No proxy mappings in %s", path));
+        }
+        mappings.sort(Comparator.comparing(ProxyMapping::getName));
+
+        return mappings;
+    }
+
+    /**
+     * Loads the properties in the file.
+     *
+     * @param path
+     *            file to read
+     * @return the properties in the file
+     * @throws IOException
+     *             if the file can't be read
+     */
+    private final Properties load(final Path path) throws IOException {
+        final Properties properties;
+
+        properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        return properties;
+    }
+
+    /**
+     * Parses the configuration from the properties.
+     *
+     * @param properties
+     *            properties to parse
+     * @param prefix
+     *            prefix for all the keys
+     * @param path
+     *            file being read
+     * @return the configuration in the properties
+     * @throws IOException
+     *             if the configuration is not valid
+     */
+    private final ProxyConfig parse(final Properties properties, final String prefix, final Path path)
+            throws IOException {
+        final Map<String, ProxyTarget>       hostRoutes;
+        final Map<String, ProxyTarget>       prefixRoutes;
+        final Map<String, String>            listenerSocket;
+        final Map<String, String>            targetSocket;
+        final Map<String, String>            chaos;
+        final Map<String, String>            affinity;
+        final Map<String, String>            backendLimit;
+        final Map<String, String>            buffer;
+        final Map<String, String>            sampling;
+        final String                         target;
+        final String                         sendProxy;
+        final ProxyConfig.ProxyConfigBuilder builder;
+        final String                         routePrefix;
+        final String                         prefixRoutePrefix;
+        String value;
+
+        target = properties.getProperty(prefix + "target");
+        if (target == null) {
+            throw new IOException(String.format("Missing %starget in %s", prefix, path));
+        }
+
+        routePrefix = prefix + ROUTE;
+        prefixRoutePrefix = prefix + PREFIX_ROUTE;
+        hostRoutes = new HashMap<>();
+        prefixRoutes = new HashMap<>();
+        listenerSocket = new HashMap<>();
+        targetSocket = new HashMap<>();
+        chaos = new HashMap<>();
+        affinity = new HashMap<>();
+        backendLimit = new HashMap<>();
+        buffer = new HashMap<>();
+        sampling = new HashMap<>();
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix + SOCKET_LISTENER)) {
+                listenerSocket.put(key.substring(prefix.length() + SOCKET_LISTENER.length()),
+                    properties.getProperty(key));
+            } else if (key.startsWith(prefix + SOCKET_TARGET)) {
+                targetSocket.put(key.substring(prefix.length() + SOCKET_TARGET.length()), properties.getProperty(key));
+            } else if (key.startsWith(prefix + CHAOS)) {
+                chaos.put(key.substring(prefix.length() + CHAOS.length()), properties.getProperty(key));
+            } else if (key.startsWith(prefix + AFFINITY)) {
+                affinity.put(key.substring(prefix.length() + AFFINITY.length()), properties.getProperty(key));
+            } else if (key.startsWith(prefix + BACKEND_LIMIT)) {
+                backendLimit.put(key.substring(prefix.length() + BACKEND_LIMIT.length()), properties.getProperty(key));
+            } else if (key.startsWith(prefix + BUFFER)) {
+                buffer.put(key.substring(prefix.length() + BUFFER.length()), properties.getProperty(key));
+            } else if (key.startsWith(prefix + SAMPLING)) {
+                sampling.put(key.substring(prefix.length() + SAMPLING.length()), properties.getProperty(key));
+            } else if (key.startsWith(routePrefix)) {
+                hostRoutes.put(key.substring(routePrefix.length()), ProxyTarget.parse(properties.getProperty(key)));
+            } else if (key.startsWith(prefixRoutePrefix)) {
+                prefixRoutes.put(key.substring(prefixRoutePrefix.length()),
+                    ProxyTarget.parse(properties.getProperty(key)));
+            }
+        }
+
+        builder = ProxyConfig.builder()
+            .routes(new RouteTable(ProxyTarget.parse(target), hostRoutes, prefixRoutes))
+            .acceptProxyProtocol(Boolean.parseBoolean(properties.getProperty(prefix + "proxyProtocol.accept")))
+            .acceptTunnel(Boolean.parseBoolean(properties.getProperty(prefix + "tunnel.accept")))
+            .sendTunnel(Boolean.parseBoolean(properties.getProperty(prefix + "tunnel.send")))
+            .acceptMultiplex(Boolean.parseBoolean(properties.getProperty(prefix + "multiplex.accept")))
+            .sendMultiplex(Boolean.parseBoolean(properties.getProperty(prefix + "multiplex.send")))
+            .listenerSocket(SocketOptions.parse(listenerSocket))
+            .targetSocket(SocketOptions.parse(targetSocket))
+            .chaos(ChaosOptions.parse(chaos))
+            .affinity(AffinityOptions.parse(affinity))
+            .backendLimit(ConcurrencyLimitOptions.parse(backendLimit))
+            .buffer(BufferOptions.parse(buffer))
+            .sampling(SamplingOptions.parse(sampling));
+
+        sendProxy = properties.getProperty(prefix + "proxyProtocol.send");
+        if (sendProxy != null) {
+            builder.proxyProtocol(HAProxyProtocolVersion.valueOf(sendProxy.trim()));
+        }
+        value = properties.getProperty(prefix + "timeout.connect");
+        if (value != null) {
+            builder.connectTimeout(Integer.parseInt(value.trim()));
+        }
+        value = properties.getProperty(prefix + "failover");
+        if (value != null) {
+            builder.failover(parseTargets(value));
+        }
+        value = properties.getProperty(prefix + "mirror");
+        if (value != null) {
+            builder.mirror(ProxyTarget.parse(value.trim()));
+        }
+        value = properties.getProperty(prefix + "mirror.buffer");
+        if (value != null) {
+            builder.mirrorBuffer(Integer.parseInt(value.trim()));
+        }
+        value = properties.getProperty(prefix + "retry.count");
+        if (value != null) {
+            builder.connectRetries(Integer.parseInt(value.trim()));
+        }
+        value = properties.getProperty(prefix + "retry.backoff");
+        if (value != null) {
+            builder.retryBackoff(Long.parseLong(value.trim()));
+        }
+        value = properties.getProperty(prefix + "timeout.idle");
+        if (value != null) {
+            builder.idleTimeout(Long.parseLong(value.trim()));
+        }
+        value = properties.getProperty(prefix + "timeout.routing");
+        if (value != null) {
+            builder.routingTimeout(Long.parseLong(value.trim()));
+        }
+        value = properties.getProperty(prefix + "limit.connections");
+        if (value != null) {
+            builder.maxConnections(Integer.parseInt(value.trim()));
+        }
+        value = properties.getProperty(prefix + "trace.slowThreshold");
+        if (value != null) {
+            builder.slowThreshold(Long.parseLong(value.trim()));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Parses a comma separated list of targets.
+     *
+     * @param value
+     *            targets to parse
+     * @return the parsed targets
+     */
+    private final List<ProxyTarget> parseTargets(final String value) {
+        final List<ProxyTarget> targets;
+
+        targets = new ArrayList<>();
+        for (final String target : value.split(",")) {
+            if (!target.isBlank()) {
+                targets.add(ProxyTarget.parse(target.trim()));
+            }
+        }
+
+        return targets;
+    }
+
+}
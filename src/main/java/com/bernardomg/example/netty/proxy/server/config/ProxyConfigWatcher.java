@@ -0,0 +1,150 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the configuration file, and runs the reload action whenever it changes. If the action fails, the error is
+ * logged and the current configuration is kept.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ProxyConfigWatcher implements AutoCloseable {
+
+    /**
+     * Watched file.
+     */
+    private final Path     path;
+
+    /**
+     * Action which reloads the configuration.
+     */
+    private final Runnable reloadAction;
+
+    /**
+     * Thread waiting for changes.
+     */
+    private Thread         thread;
+
+    /**
+     * File system watch service.
+     */
+    private WatchService   watchService;
+
+    /**
+     * Constructs a watcher for the file.
+     *
+     * @param file
+     *            file to watch
+     * @param reload
+     *            action which reloads the configuration
+     */
+    public ProxyConfigWatcher(final Path file, final Runnable reload) {
+        super();
+
+        path = Objects.requireNonNull(file)
+            .toAbsolutePath();
+        reloadAction = Objects.requireNonNull(reload);
+    }
+
+    @Override
+    public final void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Starts watching the file in a daemon thread.
+     *
+     * @throws IOException
+     *             if the watch service can't be created
+     */
+    public final void start() throws IOException {
+        watchService = FileSystems.getDefault()
+            .newWatchService();
+        path.getParent()
+            .register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::watch, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reloads the configuration file.
+     */
+    private final void reload() {
+        try {
+            reloadAction.run();
+            log.info("Reloaded configuration from {}", path);
+        } catch (final RuntimeException e) {
+            log.error("Invalid configuration in {}, keeping the current one", path, e);
+        }
+    }
+
+    /**
+     * Waits for changes on the file, until the watch service is closed.
+     */
+    private final void watch() {
+        WatchKey key;
+        boolean  changed;
+
+        try {
+            do {
+                key = watchService.take();
+                changed = false;
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (path.getFileName()
+                        .equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    reload();
+                }
+            } while (key.reset());
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        } catch (final ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", path);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Objects;
+
+import lombok.Value;
+
+/**
+ * Proxy mapping. A port to listen to, and the configuration for the connections received there.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+public final class ProxyMapping {
+
+    /**
+     * Configuration for the mapping.
+     */
+    private final ProxyConfig config;
+
+    /**
+     * Mapping name.
+     */
+    private final String      name;
+
+    /**
+     * Port to listen to.
+     */
+    private final Integer     port;
+
+    /**
+     * Constructs a mapping.
+     *
+     * @param nm
+     *            mapping name
+     * @param prt
+     *            port to listen to
+     * @param cfg
+     *            configuration for the mapping
+     */
+    public ProxyMapping(final String nm, final Integer prt, final ProxyConfig cfg) {
+        super();
+
+        name = Objects.requireNonNull(nm);
+        port = Objects.requireNonNull(prt);
+        config = Objects.requireNonNull(cfg);
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the current proxy configuration, which can be replaced at any moment. Reading it is a single volatile load, so
+ * it can be done for each new connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ReloadableProxyConfig implements Supplier<ProxyConfig> {
+
+    /**
+     * Current configuration.
+     */
+    private volatile ProxyConfig current;
+
+    /**
+     * Constructs a holder with the initial configuration.
+     *
+     * @param initial
+     *            initial configuration
+     */
+    public ReloadableProxyConfig(final ProxyConfig initial) {
+        super();
+
+        current = Objects.requireNonNull(initial);
+    }
+
+    @Override
+    public final ProxyConfig get() {
+        return current;
+    }
+
+    /**
+     * Replaces the configuration. Only new connections will use it.
+     *
+     * @param config
+     *            new configuration
+     */
+    public final void update(final ProxyConfig config) {
+        log.debug("Updating configuration to {}", config);
+
+        current = Objects.requireNonNull(config);
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Map;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Sampling of the data given to the connection listener. Inspecting every message, such as printing or capturing it,
+ * can cost more than relaying it, so the listener may receive only part of the traffic. Disabled by default, when any
+ * of the policies is set only the sampled data reaches the listener, and the rest is relayed without inspecting it.
+ * <p>
+ * The policies are applied in order, to each connection on its own:
+ * <ul>
+ * <li>{@code rate}: only one in each N messages is sampled, counting each direction on its own</li>
+ * <li>{@code reservoir}: up to N messages are chosen at random in each window, and given to the listener once the
+ * window ends</li>
+ * <li>{@code connectionBytes}: only the first N bytes in each direction are sampled</li>
+ * <li>{@code messageBytes}: each message is truncated to its first N bytes</li>
+ * </ul>
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+public final class SamplingOptions {
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included keep their default value.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final SamplingOptions parse(final Map<String, String> values) {
+        final SamplingOptionsBuilder builder;
+        final SamplingOptions        options;
+        String value;
+
+        builder = SamplingOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "connectionBytes":
+                    builder.connectionBytes(Long.parseLong(value));
+                    break;
+                case "messageBytes":
+                    builder.messageBytes(Integer.parseInt(value));
+                    break;
+                case "rate":
+                    builder.rate(Integer.parseInt(value));
+                    break;
+                case "reservoir":
+                    builder.reservoir(Integer.parseInt(value));
+                    break;
+                case "window":
+                    builder.window(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown sampling option %s", option.getKey()));
+            }
+        }
+
+        options = builder.build();
+        if (options.isEnabled()) {
+            options.validate();
+        }
+
+        return options;
+    }
+
+    /**
+     * Bytes sampled in each direction of a connection. Zero samples all the bytes.
+     */
+    private final long connectionBytes;
+
+    /**
+     * Bytes sampled from each message. Zero samples the whole message.
+     */
+    private final int  messageBytes;
+
+    /**
+     * Samples one in each this number of messages. One samples all the messages.
+     */
+    @Builder.Default
+    private final int  rate = 1;
+
+    /**
+     * Messages sampled in each window. Zero disables the reservoir.
+     */
+    private final int  reservoir;
+
+    /**
+     * Milliseconds in each reservoir window.
+     */
+    @Builder.Default
+    private final long window = 1000;
+
+    /**
+     * Indicates if the data is sampled.
+     *
+     * @return {@code true} if any sampling policy is enabled
+     */
+    public final boolean isEnabled() {
+        return (connectionBytes > 0) || (messageBytes > 0) || (rate > 1) || (reservoir > 0);
+    }
+
+    /**
+     * Checks the options are consistent.
+     */
+    private final void validate() {
+        if (connectionBytes < 0) {
+            throw new IllegalArgumentException(
+                String.format("Invalid connection bytes %d, expected at least 0", connectionBytes));
+        }
+        if (messageBytes < 0) {
+            throw new IllegalArgumentException(
+                String.format("Invalid message bytes %d, expected at least 0", messageBytes));
+        }
+        if (rate < 1) {
+            throw new IllegalArgumentException(String.format("Invalid rate %d, expected at least 1", rate));
+        }
+        if (reservoir < 0) {
+            throw new IllegalArgumentException(
+                String.format("Invalid reservoir size %d, expected at least 0", reservoir));
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid window %d, expected a positive value", window));
+        }
+    }
+
+}
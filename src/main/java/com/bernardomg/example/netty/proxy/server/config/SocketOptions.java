@@ -0,0 +1,288 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.config;
+
+import java.util.Map;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollSocketChannel;
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * TCP socket options for one side of the proxy, either the listener accepting the clients or the connections to the
+ * targets.
+ * <p>
+ * Zero sizes and times keep the operating system defaults. The keep alive timers, quick ack, cork, not sent low
+ * watermark and fast open options are only supported by the epoll transport, and ignored otherwise.
+ * <p>
+ * Linux turns quick ack off again after sending some acknowledgements, so it is set again after each read from the
+ * socket.
+ * <p>
+ * The options can be parsed from {@code name=value} pairs, using the field names as keys.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+@Builder(toBuilder = true)
+@Slf4j
+public final class SocketOptions {
+
+    /**
+     * Sets quick ack again after each read, as the kernel doesn't keep it.
+     */
+    @Sharable
+    private static final class QuickAckChannelHandler extends ChannelInboundHandlerAdapter {
+
+        /**
+         * Constructs a quick ack handler.
+         */
+        private QuickAckChannelHandler() {
+            super();
+        }
+
+        @Override
+        public final void channelReadComplete(final ChannelHandlerContext ctx) {
+            ctx.channel()
+                .config()
+                .setOption(EpollChannelOption.TCP_QUICKACK, true);
+            ctx.fireChannelReadComplete();
+        }
+
+    }
+
+    /**
+     * Handler setting quick ack again after each read. Shared by all the channels.
+     */
+    private static final QuickAckChannelHandler QUICK_ACK = new QuickAckChannelHandler();
+
+    /**
+     * Parses the options from {@code name=value} pairs. Options not included keep their defaults.
+     *
+     * @param values
+     *            options to parse
+     * @return the parsed options
+     */
+    public static final SocketOptions parse(final Map<String, String> values) {
+        final SocketOptionsBuilder builder;
+        String value;
+
+        builder = SocketOptions.builder();
+        for (final Map.Entry<String, String> option : values.entrySet()) {
+            value = option.getValue()
+                .trim();
+            switch (option.getKey()) {
+                case "backlog":
+                    builder.backlog(Integer.parseInt(value));
+                    break;
+                case "cork":
+                    builder.cork(Boolean.parseBoolean(value));
+                    break;
+                case "fastOpen":
+                    builder.fastOpen(Integer.parseInt(value));
+                    break;
+                case "fastOpenConnect":
+                    builder.fastOpenConnect(Boolean.parseBoolean(value));
+                    break;
+                case "keepAlive":
+                    builder.keepAlive(Boolean.parseBoolean(value));
+                    break;
+                case "keepAliveIdle":
+                    builder.keepAliveIdle(Integer.parseInt(value));
+                    break;
+                case "keepAliveInterval":
+                    builder.keepAliveInterval(Integer.parseInt(value));
+                    break;
+                case "noDelay":
+                    builder.noDelay(Boolean.parseBoolean(value));
+                    break;
+                case "notSentLowWatermark":
+                    builder.notSentLowWatermark(Long.parseLong(value));
+                    break;
+                case "quickAck":
+                    builder.quickAck(Boolean.parseBoolean(value));
+                    break;
+                case "receiveBuffer":
+                    builder.receiveBuffer(Integer.parseInt(value));
+                    break;
+                case "sendBuffer":
+                    builder.sendBuffer(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown socket option %s", option.getKey()));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Pending connections queue length. Only used by the listener.
+     */
+    @Builder.Default
+    private final int     backlog = 1024;
+
+    /**
+     * Indicates if partial segments are held until full, for bulk transfers.
+     */
+    private final boolean cork;
+
+    /**
+     * Queue length for TCP fast open connections, zero to disable it. Only used by the listener.
+     */
+    private final int     fastOpen;
+
+    /**
+     * Indicates if data is sent with the connection request using TCP fast open. Only used for the targets.
+     */
+    private final boolean fastOpenConnect;
+
+    /**
+     * Indicates if keep alive probes are sent.
+     */
+    @Builder.Default
+    private final boolean keepAlive = true;
+
+    /**
+     * Seconds without traffic before sending keep alive probes.
+     */
+    private final int     keepAliveIdle;
+
+    /**
+     * Seconds between keep alive probes.
+     */
+    private final int     keepAliveInterval;
+
+    /**
+     * Indicates if Nagle's algorithm is disabled, so small writes are sent right away.
+     */
+    @Builder.Default
+    private final boolean noDelay = true;
+
+    /**
+     * Maximum bytes written but not yet sent kept in the socket, before it stops being writable.
+     */
+    private final long    notSentLowWatermark;
+
+    /**
+     * Indicates if acknowledgements are sent right away, instead of delayed.
+     */
+    private final boolean quickAck;
+
+    /**
+     * Socket receive buffer size, in bytes.
+     */
+    private final int     receiveBuffer;
+
+    /**
+     * Socket send buffer size, in bytes.
+     */
+    private final int     sendBuffer;
+
+    /**
+     * Applies the options to a connection. For targets this should happen before connecting. With quick ack, a handler
+     * setting it again after each read is added first to the pipeline.
+     *
+     * @param channel
+     *            channel to configure
+     */
+    public final void apply(final Channel channel) {
+        final ChannelConfig config;
+
+        config = channel.config();
+        config.setOption(ChannelOption.SO_KEEPALIVE, keepAlive);
+        config.setOption(ChannelOption.TCP_NODELAY, noDelay);
+        if (receiveBuffer > 0) {
+            config.setOption(ChannelOption.SO_RCVBUF, receiveBuffer);
+        }
+        if (sendBuffer > 0) {
+            config.setOption(ChannelOption.SO_SNDBUF, sendBuffer);
+        }
+
+        if (channel instanceof EpollSocketChannel) {
+            if (keepAliveIdle > 0) {
+                config.setOption(EpollChannelOption.TCP_KEEPIDLE, keepAliveIdle);
+            }
+            if (keepAliveInterval > 0) {
+                config.setOption(EpollChannelOption.TCP_KEEPINTVL, keepAliveInterval);
+            }
+            if (quickAck) {
+                config.setOption(EpollChannelOption.TCP_QUICKACK, true);
+                channel.pipeline()
+                    .addFirst(QUICK_ACK);
+            }
+            if (cork) {
+                config.setOption(EpollChannelOption.TCP_CORK, true);
+            }
+            if (notSentLowWatermark > 0) {
+                config.setOption(EpollChannelOption.TCP_NOTSENT_LOWAT, notSentLowWatermark);
+            }
+            if (fastOpenConnect) {
+                config.setOption(ChannelOption.TCP_FASTOPEN_CONNECT, true);
+            }
+        } else if (requiresEpoll()) {
+            log.debug("Socket options {} require epoll, ignoring them", this);
+        }
+    }
+
+    /**
+     * Applies the listener options to a server. The receive buffer is set on the listener, so the window scaling for
+     * accepted connections takes it into account.
+     *
+     * @param bootstrap
+     *            server to configure
+     * @param epoll
+     *            indicates if the server uses the epoll transport
+     */
+    public final void applyToServer(final ServerBootstrap bootstrap, final boolean epoll) {
+        bootstrap.option(ChannelOption.SO_BACKLOG, backlog);
+        if (receiveBuffer > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, receiveBuffer);
+        }
+        if ((fastOpen > 0) && epoll) {
+            bootstrap.option(ChannelOption.TCP_FASTOPEN, fastOpen);
+        }
+    }
+
+    /**
+     * Indicates if any of the options requires the epoll transport.
+     *
+     * @return {@code true} if the epoll transport is required
+     */
+    public final boolean requiresEpoll() {
+        return (keepAliveIdle > 0) || (keepAliveInterval > 0) || quickAck || cork || (notSentLowWatermark > 0)
+                || (fastOpen > 0) || fastOpenConnect;
+    }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.limit;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.config.ConcurrencyLimitOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adaptive limit for the concurrent connections to a single target, using additive increase and multiplicative
+ * decrease.
+ * <p>
+ * Each connection takes a permit until it is closed. The limit changes with each latency sample:
+ * <ul>
+ * <li>If the sample is over the tolerance times the usual latency, the limit is multiplied by the backoff</li>
+ * <li>Otherwise, if at least half the limit is in use, it grows by one</li>
+ * </ul>
+ * Failed connections are also taken as a sign of overload. The usual latency is a slow moving average of the samples,
+ * kept apart for connection and response latencies, as they have very different scales. So it follows a target which
+ * becomes permanently slower, while a sudden slowdown still shrinks the limit.
+ * <p>
+ * Connections over the limit wait in a bounded queue, for a short time, and are rejected after it. Permits are given in
+ * arrival order.
+ * <p>
+ * The state is guarded by the limiter itself, which is only locked for a few operations. Promises are always completed
+ * outside the lock.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class ConcurrencyLimiter {
+
+    /**
+     * Weight of each sample in the usual latency.
+     */
+    private static final double           SMOOTHING = 0.01;
+
+    /**
+     * Factor applied to the limit when the target slows down.
+     */
+    private final double                  backoff;
+
+    /**
+     * Usual latency for connecting, in nanoseconds. Zero until the first sample.
+     */
+    private double                        connectLatency;
+
+    /**
+     * Connections holding a permit.
+     */
+    private int                           inFlight;
+
+    /**
+     * Current limit. Fractional, so it can be multiplied without losing precision.
+     */
+    private double                        limit;
+
+    /**
+     * Highest limit.
+     */
+    private final int                     max;
+
+    /**
+     * Lowest limit.
+     */
+    private final int                     min;
+
+    /**
+     * Most connections waiting for a permit.
+     */
+    private final int                     queueSize;
+
+    /**
+     * Milliseconds a connection waits for a permit.
+     */
+    private final long                    queueTimeout;
+
+    /**
+     * Usual latency for the first response, in nanoseconds. Zero until the first sample.
+     */
+    private double                        responseLatency;
+
+    /**
+     * Target being limited.
+     */
+    private final ProxyTarget             target;
+
+    /**
+     * Times the usual latency accepted before backing off.
+     */
+    private final double                  tolerance;
+
+    /**
+     * Connections waiting for a permit, in arrival order.
+     */
+    private final Queue<Promise<Boolean>> waiting = new ArrayDeque<>();
+
+    /**
+     * Constructs a limiter for the target.
+     *
+     * @param trgt
+     *            target to limit
+     * @param options
+     *            limit options
+     */
+    public ConcurrencyLimiter(final ProxyTarget trgt, final ConcurrencyLimitOptions options) {
+        super();
+
+        target = Objects.requireNonNull(trgt);
+        min = options.getMin();
+        max = options.getMax();
+        backoff = options.getBackoff();
+        tolerance = options.getTolerance();
+        queueSize = options.getQueueSize();
+        queueTimeout = options.getQueueTimeout();
+        limit = Math.max(min, Math.min(max, options.getInitial()));
+    }
+
+    /**
+     * Acquires a permit for a new connection. The returned future is completed with {@code true} once the permit is
+     * given, which must then be released, or with {@code false} if the connection is rejected.
+     *
+     * @param executor
+     *            executor for the connection, which completes the future
+     * @return the future for the permit
+     */
+    public final Future<Boolean> acquire(final EventExecutor executor) {
+        final Promise<Boolean> promise;
+        final boolean          granted;
+        final boolean          queued;
+
+        promise = executor.newPromise();
+        synchronized (this) {
+            granted = waiting.isEmpty() && (inFlight < (int) limit);
+            queued = !granted && (queueTimeout > 0) && (waiting.size() < queueSize);
+            if (granted) {
+                inFlight++;
+            } else if (queued) {
+                waiting.add(promise);
+            }
+        }
+
+        if (granted) {
+            promise.setSuccess(true);
+        } else if (queued) {
+            executor.schedule(() -> expire(promise), queueTimeout, TimeUnit.MILLISECONDS);
+        } else {
+            log.debug("Rejecting connection to {}, limit of {} reached", target, (int) limit);
+            promise.setSuccess(false);
+        }
+
+        return promise;
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the current limit
+     */
+    public final synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Takes a connection latency sample.
+     *
+     * @param latency
+     *            nanoseconds taken to connect
+     */
+    public final void onConnected(final long latency) {
+        synchronized (this) {
+            adjust(latency, connectLatency);
+            connectLatency = average(connectLatency, latency);
+        }
+        grantWaiting();
+    }
+
+    /**
+     * Marks a failed connection, which shrinks the limit.
+     */
+    public final void onFailed() {
+        synchronized (this) {
+            limit = Math.max(min, limit * backoff);
+        }
+    }
+
+    /**
+     * Takes a response latency sample.
+     *
+     * @param latency
+     *            nanoseconds taken by the target to answer the first request
+     */
+    public final void onResponse(final long latency) {
+        synchronized (this) {
+            adjust(latency, responseLatency);
+            responseLatency = average(responseLatency, latency);
+        }
+        grantWaiting();
+    }
+
+    /**
+     * Releases a permit, giving it to the next waiting connection, if any.
+     */
+    public final void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        grantWaiting();
+    }
+
+    /**
+     * Changes the limit after a sample. Should be called while holding the lock.
+     *
+     * @param latency
+     *            latency sample
+     * @param usual
+     *            usual latency, or zero if unknown
+     */
+    private final void adjust(final long latency, final double usual) {
+        final int previous;
+
+        previous = (int) limit;
+        if ((usual > 0) && (latency > (usual * tolerance))) {
+            limit = Math.max(min, limit * backoff);
+        } else if ((inFlight * 2) >= limit) {
+            limit = Math.min(max, limit + 1);
+        }
+        if ((int) limit != previous) {
+            log.trace("Limit for {} changed from {} to {}", target, previous, (int) limit);
+        }
+    }
+
+    /**
+     * Adds a sample to an average.
+     *
+     * @param average
+     *            current average, or zero if there is none
+     * @param sample
+     *            sample to add
+     * @return the new average
+     */
+    private final double average(final double average, final long sample) {
+        final double result;
+
+        if (average == 0) {
+            result = sample;
+        } else {
+            result = average + ((sample - average) * SMOOTHING);
+        }
+
+        return result;
+    }
+
+    /**
+     * Rejects a waiting connection, unless it already got a permit.
+     *
+     * @param promise
+     *            waiting connection
+     */
+    private final void expire(final Promise<Boolean> promise) {
+        final boolean removed;
+
+        synchronized (this) {
+            removed = waiting.remove(promise);
+        }
+
+        if (removed) {
+            log.debug("Rejecting connection to {}, waited {} ms for the limit", target, queueTimeout);
+            promise.setSuccess(false);
+        }
+    }
+
+    /**
+     * Gives permits to the waiting connections, while there is room under the limit.
+     */
+    private final void grantWaiting() {
+        Promise<Boolean> next;
+
+        do {
+            synchronized (this) {
+                if (inFlight < (int) limit) {
+                    next = waiting.poll();
+                } else {
+                    next = null;
+                }
+                if (next != null) {
+                    inFlight++;
+                }
+            }
+            if (next != null) {
+                next.setSuccess(true);
+            }
+        } while (next != null);
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.limit;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.bernardomg.example.netty.proxy.server.config.ConcurrencyLimitOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+/**
+ * Adaptive concurrency limiters for all the targets of a proxy. Each target gets its own limiter the first time it is
+ * used.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class ConcurrencyLimiters {
+
+    /**
+     * Limiter for each target.
+     */
+    private final ConcurrentMap<ProxyTarget, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Options for new limiters.
+     */
+    private final ConcurrencyLimitOptions                        options;
+
+    /**
+     * Constructs the limiters with the received options.
+     *
+     * @param opts
+     *            limit options
+     */
+    public ConcurrencyLimiters(final ConcurrencyLimitOptions opts) {
+        super();
+
+        options = Objects.requireNonNull(opts);
+    }
+
+    /**
+     * Returns the limiter for the target.
+     *
+     * @param target
+     *            target to limit
+     * @return the limiter for the target
+     */
+    public final ConcurrencyLimiter get(final ProxyTarget target) {
+        return limiters.computeIfAbsent(target, t -> new ConcurrencyLimiter(t, options));
+    }
+
+}
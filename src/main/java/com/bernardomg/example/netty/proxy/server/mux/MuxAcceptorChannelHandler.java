@@ -0,0 +1,109 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.nio.channels.ClosedChannelException;
+
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Accepts the streams of a multiplexed connection from another proxy. Each stream is connected to the target, in the
+ * same event loop as the multiplexed connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class MuxAcceptorChannelHandler extends MuxChannelHandler {
+
+    /**
+     * Milliseconds to wait for the connection to the target.
+     */
+    private final int           connectTimeout;
+
+    /**
+     * Socket options for the connections to the target.
+     */
+    private final SocketOptions socket;
+
+    /**
+     * Target for all the streams.
+     */
+    private final ProxyTarget   target;
+
+    public MuxAcceptorChannelHandler(final ProxyTarget trgt, final int timeout, final SocketOptions sckt) {
+        super();
+
+        target = trgt;
+        connectTimeout = timeout;
+        socket = sckt;
+    }
+
+    @Override
+    protected final void acceptStream(final ChannelHandlerContext ctx, final int streamId) {
+        final Channel         mux;
+        final MuxTargetStream stream;
+
+        log.debug("Accepting stream {}, connecting to {}", streamId, target);
+
+        mux = ctx.channel();
+        stream = new MuxTargetStream();
+        register(streamId, stream);
+        new Bootstrap().group(mux.eventLoop())
+            .channel(mux.getClass())
+            .option(ChannelOption.AUTO_READ, false)
+            .option(ChannelOption.ALLOCATOR, mux.alloc())
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .handler(new ChannelInitializer<Channel>() {
+
+                @Override
+                protected final void initChannel(final Channel ch) {
+                    socket.apply(ch);
+                    ch.pipeline()
+                        .addLast(stream);
+                }
+
+            })
+            .connect(target.getHost(), target.getPort())
+            .addListener((ChannelFutureListener) f -> {
+                if (f.cause() instanceof ClosedChannelException) {
+                    log.debug("Stream {} closed before connecting", streamId);
+                } else if (!f.isSuccess()) {
+                    log.error("Failed connecting stream {} to {}", streamId, target, f.cause());
+                    closeStream(streamId);
+                }
+            });
+    }
+
+}
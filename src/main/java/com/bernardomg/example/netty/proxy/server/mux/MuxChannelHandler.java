@@ -0,0 +1,174 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Handler for a multiplexed connection between two proxies. Keeps the open streams, and sends each of them the frames
+ * received for it.
+ * <p>
+ * All the streams run in the same event loop as the connection, so nothing is accessed concurrently.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+abstract class MuxChannelHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Multiplexed connection context.
+     */
+    private ChannelHandlerContext         context;
+
+    /**
+     * Open streams, by id.
+     */
+    private final IntObjectMap<MuxStream> streams = new IntObjectHashMap<>();
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        final List<MuxStream> open;
+
+        log.debug("Multiplexed connection closed, closing {} streams", streams.size());
+
+        open = new ArrayList<>(streams.values());
+        streams.clear();
+        open.forEach(MuxStream::remoteClose);
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object message) {
+        final MuxFrame  frame;
+        final MuxStream stream;
+
+        frame = (MuxFrame) message;
+        if (frame.getType() == MuxFrames.CLOSE) {
+            stream = streams.remove(frame.getStreamId());
+        } else {
+            stream = streams.get(frame.getStreamId());
+        }
+
+        if (frame.getType() == MuxFrames.OPEN) {
+            if (stream == null) {
+                acceptStream(ctx, frame.getStreamId());
+            } else {
+                log.warn("Stream {} is already open", frame.getStreamId());
+            }
+        } else if (stream == null) {
+            // Already closed
+            ReferenceCountUtil.release(frame.getData());
+        } else if (frame.getType() == MuxFrames.DATA) {
+            stream.handleData(frame.getData());
+        } else if (frame.getType() == MuxFrames.WINDOW) {
+            stream.increaseWindow(frame.getValue());
+        } else {
+            stream.remoteClose();
+        }
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.error(cause.getLocalizedMessage(), cause);
+        ctx.close();
+    }
+
+    @Override
+    public final void handlerAdded(final ChannelHandlerContext ctx) {
+        context = ctx;
+    }
+
+    /**
+     * Closes a stream, telling the other side. Does nothing if it was already closed.
+     *
+     * @param streamId
+     *            stream to close
+     */
+    public final void closeStream(final int streamId) {
+        if ((streams.remove(streamId) != null) && (context.channel()
+            .isActive())) {
+            MuxFrames.writeControl(context.channel(), MuxFrames.CLOSE, streamId, 0);
+        }
+    }
+
+    /**
+     * Sends data for a stream.
+     *
+     * @param streamId
+     *            stream id
+     * @param data
+     *            data to send
+     * @return the write future for the data
+     */
+    public final ChannelFuture writeData(final int streamId, final ByteBuf data) {
+        return MuxFrames.writeData(context.channel(), streamId, data);
+    }
+
+    /**
+     * Increases the window of the other side of a stream.
+     *
+     * @param streamId
+     *            stream id
+     * @param increment
+     *            bytes to add to the window
+     */
+    public final void writeWindowUpdate(final int streamId, final int increment) {
+        MuxFrames.writeControl(context.channel(), MuxFrames.WINDOW, streamId, increment);
+    }
+
+    /**
+     * Handles a stream opened by the other side.
+     *
+     * @param ctx
+     *            multiplexed connection context
+     * @param streamId
+     *            id of the new stream
+     */
+    protected abstract void acceptStream(final ChannelHandlerContext ctx, final int streamId);
+
+    /**
+     * Registers a stream, so it receives the frames for its id.
+     *
+     * @param streamId
+     *            stream id
+     * @param stream
+     *            stream to register
+     */
+    protected final void register(final int streamId, final MuxStream stream) {
+        streams.put(streamId, stream);
+        stream.opened(this, streamId);
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import com.bernardomg.example.netty.proxy.server.channel.TunnelFrameDecoder;
+import com.bernardomg.example.netty.proxy.server.channel.TunnelFrameEncoder;
+import com.bernardomg.example.netty.proxy.server.config.SocketOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.logging.LoggingHandler;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Multiplexed connection opened to another proxy. Streams are opened only from this side, using odd ids.
+ * <p>
+ * The connection belongs to a single event loop, and is only used by streams in that same event loop.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+final class MuxConnection extends MuxChannelHandler {
+
+    /**
+     * Connection to the other proxy.
+     */
+    private final ChannelFuture connectFuture;
+
+    /**
+     * Id for the next stream.
+     */
+    private int                 nextStreamId = 1;
+
+    /**
+     * Connects to the other proxy, using the event loop and transport of the source channel.
+     *
+     * @param source
+     *            channel which requires the connection
+     * @param target
+     *            proxy to connect to
+     * @param connectTimeout
+     *            milliseconds to wait for the connection
+     * @param tunnel
+     *            compresses the connection
+     * @param socket
+     *            socket options for the connection
+     */
+    public MuxConnection(final Channel source, final ProxyTarget target, final int connectTimeout,
+            final boolean tunnel, final SocketOptions socket) {
+        super();
+
+        log.debug("Opening multiplexed connection to {}", target);
+
+        connectFuture = new Bootstrap().group(source.eventLoop())
+            .channel(source.getClass())
+            .option(ChannelOption.ALLOCATOR, source.alloc())
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .handler(new ChannelInitializer<Channel>() {
+
+                @Override
+                protected final void initChannel(final Channel ch) {
+                    socket.apply(ch);
+                    ch.pipeline()
+                        .addLast(new LoggingHandler());
+                    if (tunnel) {
+                        ch.pipeline()
+                            .addLast(new TunnelFrameDecoder())
+                            .addLast(new TunnelFrameEncoder());
+                    }
+                    ch.pipeline()
+                        .addLast(new MuxFrameDecoder())
+                        .addLast(MuxConnection.this);
+                }
+
+            })
+            .connect(target.getHost(), target.getPort());
+    }
+
+    /**
+     * Returns the future for the connection to the other proxy.
+     *
+     * @return the connection future
+     */
+    public final ChannelFuture getConnectFuture() {
+        return connectFuture;
+    }
+
+    /**
+     * Indicates if new streams can be opened in this connection.
+     *
+     * @return {@code true} if the connection accepts new streams, {@code false} otherwise
+     */
+    public final boolean isUsable() {
+        return (nextStreamId > 0) && ((!connectFuture.isDone()) || connectFuture.channel()
+            .isActive());
+    }
+
+    /**
+     * Opens a stream. The connection should be active.
+     *
+     * @param stream
+     *            handler for the stream
+     */
+    public final void openStream(final MuxStream stream) {
+        final int streamId;
+
+        streamId = nextStreamId;
+        nextStreamId += 2;
+        MuxFrames.writeControl(connectFuture.channel(), MuxFrames.OPEN, streamId, 0);
+        register(streamId, stream);
+    }
+
+    @Override
+    protected final void acceptStream(final ChannelHandlerContext ctx, final int streamId) {
+        log.warn("Rejecting stream {}, streams are only opened from this side", streamId);
+        MuxFrames.writeControl(ctx.channel(), MuxFrames.CLOSE, streamId, 0);
+    }
+
+}
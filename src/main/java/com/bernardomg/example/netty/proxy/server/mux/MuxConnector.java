@@ -0,0 +1,123 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * Keeps the multiplexed connections to other proxies. There is one connection for each event loop and target, created
+ * when first needed and replaced if closed. So the number of connections to each target is, at most, the number of
+ * event loops.
+ * <p>
+ * The connections are also kept in a channel group, so they can be closed from any thread when the server stops.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class MuxConnector {
+
+    /**
+     * Channels of all the connections. Closed channels are removed by the group.
+     */
+    private final ChannelGroup                                     channels;
+
+    /**
+     * Connections for the current event loop, by target.
+     */
+    private final FastThreadLocal<Map<ProxyTarget, MuxConnection>> connections;
+
+    public MuxConnector() {
+        super();
+
+        connections = new FastThreadLocal<>() {
+
+            @Override
+            protected final Map<ProxyTarget, MuxConnection> initialValue() {
+                return new HashMap<>();
+            }
+
+        };
+        channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    }
+
+    /**
+     * Closes all the connections, along with their streams.
+     *
+     * @return future for closing the connections
+     */
+    public final ChannelGroupFuture close() {
+        return channels.close();
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return the number of open connections
+     */
+    public final int size() {
+        return channels.size();
+    }
+
+    /**
+     * Returns the connection to the target for the event loop of the source channel. This should be called from that
+     * event loop.
+     *
+     * @param source
+     *            channel which requires the connection
+     * @param target
+     *            proxy to connect to
+     * @param config
+     *            proxy configuration
+     * @return the connection to the target
+     */
+    final MuxConnection getConnection(final Channel source, final ProxyTarget target, final ProxyConfig config) {
+        final Map<ProxyTarget, MuxConnection> loopConnections;
+        MuxConnection connection;
+
+        loopConnections = connections.get();
+        connection = loopConnections.get(target);
+        if ((connection == null) || (!connection.isUsable())) {
+            connection = new MuxConnection(source, target, config.getConnectTimeout(), config.isSendTunnel(),
+                config.getTargetSocket());
+            loopConnections.put(target, connection);
+            channels.add(connection.getConnectFuture()
+                .channel());
+        }
+
+        return connection;
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Decodes {@link MuxFrame}s. Payloads are sliced from the received data, without copying them.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class MuxFrameDecoder extends ByteToMessageDecoder {
+
+    public MuxFrameDecoder() {
+        super();
+    }
+
+    @Override
+    protected final void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        final byte    type;
+        final int     streamId;
+        final int     value;
+        final ByteBuf data;
+
+        if (in.readableBytes() < MuxFrames.HEADER_LENGTH) {
+            return;
+        }
+
+        type = in.getByte(in.readerIndex());
+        value = in.getInt(in.readerIndex() + 5);
+        if ((type < MuxFrames.OPEN) || (type > MuxFrames.WINDOW)) {
+            throw new CorruptedFrameException("Invalid multiplexing frame type " + type);
+        }
+        if ((type == MuxFrames.DATA) && ((value < 0) || (value > MuxFrames.MAX_PAYLOAD_LENGTH))) {
+            throw new CorruptedFrameException("Invalid multiplexing frame length " + value);
+        }
+
+        if ((type == MuxFrames.DATA) && (in.readableBytes() < (MuxFrames.HEADER_LENGTH + value))) {
+            // Waits for the full frame
+            return;
+        }
+
+        in.skipBytes(1);
+        streamId = in.readInt();
+        in.skipBytes(4);
+        if (type == MuxFrames.DATA) {
+            data = in.readRetainedSlice(value);
+        } else {
+            data = null;
+        }
+
+        out.add(new MuxFrame(data, streamId, type, value));
+    }
+
+}
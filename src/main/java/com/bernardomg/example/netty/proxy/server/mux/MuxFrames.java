@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+/**
+ * Frame format for multiplexed connections. Each frame starts with a header:
+ * <ul>
+ * <li>Type, one byte</li>
+ * <li>Stream id, four bytes</li>
+ * <li>Value, four bytes: the payload length for {@link #DATA} frames, the window increment for {@link #WINDOW} frames,
+ * and zero otherwise</li>
+ * </ul>
+ * Only data frames have a payload, which follows the header.
+ * <p>
+ * Each side of a stream can send as many bytes as its window allows. The window starts at {@link #INITIAL_WINDOW}, and
+ * grows again as the other side confirms the data was written to its destination.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class MuxFrames {
+
+    /**
+     * Closes a stream.
+     */
+    public static final byte CLOSE = 3;
+
+    /**
+     * Data for a stream.
+     */
+    public static final byte DATA = 2;
+
+    /**
+     * Header length.
+     */
+    public static final int  HEADER_LENGTH = 9;
+
+    /**
+     * Bytes each side of a stream can send before receiving a window update.
+     */
+    public static final int  INITIAL_WINDOW = 256 * 1024;
+
+    /**
+     * Maximum payload length accepted. Any longer frame is corrupted.
+     */
+    public static final int  MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Opens a stream.
+     */
+    public static final byte OPEN = 1;
+
+    /**
+     * Bytes written to the destination after which a window update is sent.
+     */
+    public static final int  UPDATE_THRESHOLD = INITIAL_WINDOW / 4;
+
+    /**
+     * Increases the window of a stream.
+     */
+    public static final byte WINDOW = 4;
+
+    /**
+     * Writes and flushes a frame without payload.
+     *
+     * @param channel
+     *            channel to write into
+     * @param type
+     *            frame type
+     * @param streamId
+     *            stream id
+     * @param value
+     *            frame value
+     * @return the write future
+     */
+    public static final ChannelFuture writeControl(final Channel channel, final byte type, final int streamId,
+            final int value) {
+        return channel.writeAndFlush(header(channel, type, streamId, value));
+    }
+
+    /**
+     * Writes and flushes a data frame. The data is written after the header as it is, without copying it.
+     *
+     * @param channel
+     *            channel to write into
+     * @param streamId
+     *            stream id
+     * @param data
+     *            data to send
+     * @return the write future for the data
+     */
+    public static final ChannelFuture writeData(final Channel channel, final int streamId, final ByteBuf data) {
+        channel.write(header(channel, DATA, streamId, data.readableBytes()));
+        return channel.writeAndFlush(data);
+    }
+
+    /**
+     * Returns a frame header.
+     *
+     * @param channel
+     *            channel to allocate the header
+     * @param type
+     *            frame type
+     * @param streamId
+     *            stream id
+     * @param value
+     *            frame value
+     * @return the frame header
+     */
+    private static final ByteBuf header(final Channel channel, final byte type, final int streamId, final int value) {
+        return channel.alloc()
+            .ioBuffer(HEADER_LENGTH)
+            .writeByte(type)
+            .writeInt(streamId)
+            .writeInt(value);
+    }
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private MuxFrames() {
+        super();
+    }
+
+}
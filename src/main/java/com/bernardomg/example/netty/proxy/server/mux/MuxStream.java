@@ -0,0 +1,311 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Stream in a multiplexed connection. Handles the local channel, which is the source connection in the proxy which
+ * opens the stream, and the target connection in the proxy which accepts it.
+ * <p>
+ * The local channel works with auto read disabled. A new read is only requested once the previous data was written
+ * into the multiplexed connection, and as long as the send window allows it. The window grows again as the other side
+ * writes the data to its local channel. This way a slow stream never blocks the rest of the multiplexed connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+abstract class MuxStream extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Indicates if the stream is closed.
+     */
+    private boolean               closed;
+
+    /**
+     * Indicates if the local channel is connected.
+     */
+    private boolean               connected;
+
+    /**
+     * Local channel context.
+     */
+    private ChannelHandlerContext context;
+
+    /**
+     * Multiplexed connection, set once the stream is open.
+     */
+    private MuxChannelHandler     mux;
+
+    /**
+     * Indicates if reading is paused until the window grows.
+     */
+    private boolean               paused;
+
+    /**
+     * Data read from the local channel before the stream is open.
+     */
+    private final Deque<ByteBuf>  pendingRequests = new ArrayDeque<>(2);
+
+    /**
+     * Data received for the local channel before it is connected.
+     */
+    private final Queue<ByteBuf>  pendingResponses = new ArrayDeque<>(2);
+
+    /**
+     * Bytes which can be sent before receiving a window update.
+     */
+    private int                   sendWindow = MuxFrames.INITIAL_WINDOW;
+
+    /**
+     * Stream id, set once the stream is open.
+     */
+    private int                   streamId;
+
+    /**
+     * Bytes written to the local channel and not yet acknowledged to the other side.
+     */
+    private int                   unacknowledged;
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        if ((!closed) && (mux != null)) {
+            mux.closeStream(streamId);
+        }
+        closed = true;
+        onClose();
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object message) {
+        final ByteBuf data;
+
+        data = (ByteBuf) message;
+        onLocalData(data);
+
+        if (mux == null) {
+            // Kept until the stream is open
+            pendingRequests.add(data);
+        } else {
+            send(data, true);
+        }
+    }
+
+    @Override
+    public final void handlerAdded(final ChannelHandlerContext ctx) {
+        context = ctx;
+    }
+
+    @Override
+    public final void handlerRemoved(final ChannelHandlerContext ctx) {
+        // Also called when the channel never got connected
+        releasePending(pendingRequests);
+        releasePending(pendingResponses);
+    }
+
+    /**
+     * Writes data received from the other side into the local channel.
+     *
+     * @param data
+     *            data received
+     */
+    final void handleData(final ByteBuf data) {
+        onRemoteData(data);
+
+        if (connected) {
+            writeLocal(data);
+        } else {
+            // Kept until the local channel is connected
+            pendingResponses.add(data);
+        }
+    }
+
+    /**
+     * Increases the send window, resuming reads if they were paused.
+     *
+     * @param increment
+     *            bytes to add to the window
+     */
+    final void increaseWindow(final int increment) {
+        sendWindow += increment;
+        if (paused && (sendWindow > 0)) {
+            paused = false;
+            context.read();
+        }
+    }
+
+    /**
+     * Marks the stream as open, sending any pending data.
+     *
+     * @param connection
+     *            multiplexed connection
+     * @param id
+     *            stream id
+     */
+    final void opened(final MuxChannelHandler connection, final int id) {
+        mux = connection;
+        streamId = id;
+
+        if (!pendingRequests.isEmpty()) {
+            while (pendingRequests.size() > 1) {
+                send(pendingRequests.poll(), false);
+            }
+            send(pendingRequests.poll(), true);
+        } else if (connected) {
+            context.read();
+        }
+    }
+
+    /**
+     * Closes the local channel after the other side closed the stream. Any data already written is flushed first.
+     */
+    final void remoteClose() {
+        closed = true;
+        onRemoteClose();
+        context.writeAndFlush(Unpooled.EMPTY_BUFFER)
+            .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Marks the local channel as connected, writing any pending data into it.
+     */
+    protected final void localConnected() {
+        connected = true;
+
+        while (!pendingResponses.isEmpty()) {
+            writeLocal(pendingResponses.poll());
+        }
+        if (mux != null) {
+            context.read();
+        }
+    }
+
+    /**
+     * Called after the local channel is closed.
+     */
+    protected void onClose() {}
+
+    /**
+     * Called with the data read from the local channel, before sending it.
+     *
+     * @param data
+     *            data read
+     */
+    protected void onLocalData(final ByteBuf data) {}
+
+    /**
+     * Called when the other side closes the stream, before closing the local channel.
+     */
+    protected void onRemoteClose() {}
+
+    /**
+     * Called with the data received from the other side, before writing it.
+     *
+     * @param data
+     *            data received
+     */
+    protected void onRemoteData(final ByteBuf data) {}
+
+    /**
+     * Sends data before anything read from the local channel. Should be called before the stream is open.
+     *
+     * @param data
+     *            data to send first
+     */
+    protected final void sendFirst(final ByteBuf data) {
+        pendingRequests.addFirst(data);
+    }
+
+    /**
+     * Releases the data which was not sent.
+     *
+     * @param pending
+     *            data to release
+     */
+    private final void releasePending(final Queue<ByteBuf> pending) {
+        while (!pending.isEmpty()) {
+            ReferenceCountUtil.release(pending.poll());
+        }
+    }
+
+    /**
+     * Sends data to the other side. Once written, the next read may be requested, if the window allows it.
+     *
+     * @param data
+     *            data to send
+     * @param readNext
+     *            if the next read should be requested
+     */
+    private final void send(final ByteBuf data, final boolean readNext) {
+        sendWindow -= data.readableBytes();
+        mux.writeData(streamId, data)
+            .addListener(f -> {
+                if (!f.isSuccess()) {
+                    context.close();
+                } else if (readNext) {
+                    if (sendWindow > 0) {
+                        context.read();
+                    } else {
+                        paused = true;
+                    }
+                }
+            });
+    }
+
+    /**
+     * Writes data into the local channel. Once written, it is acknowledged to the other side, with a window update
+     * after enough bytes.
+     *
+     * @param data
+     *            data to write
+     */
+    private final void writeLocal(final ByteBuf data) {
+        final int length;
+
+        length = data.readableBytes();
+        context.writeAndFlush(data)
+            .addListener(f -> {
+                if (!f.isSuccess()) {
+                    context.close();
+                } else if (!closed) {
+                    unacknowledged += length;
+                    if (unacknowledged >= MuxFrames.UPDATE_THRESHOLD) {
+                        mux.writeWindowUpdate(streamId, unacknowledged);
+                        unacknowledged = 0;
+                    }
+                }
+            });
+    }
+
+}
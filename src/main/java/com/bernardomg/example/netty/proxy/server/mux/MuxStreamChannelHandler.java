@@ -0,0 +1,274 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.mux;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+import com.bernardomg.example.netty.proxy.server.channel.ChannelAttributes;
+import com.bernardomg.example.netty.proxy.server.channel.ProxyProtocolHeaders;
+import com.bernardomg.example.netty.proxy.server.channel.TargetSelectedEvent;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.sample.MessageSampler;
+import com.bernardomg.example.netty.proxy.server.trace.CloseReason;
+import com.bernardomg.example.netty.proxy.server.trace.ConnectionTrace;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import io.netty.handler.timeout.IdleStateEvent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Channel handler which proxies requests through a multiplexed connection to another proxy. Takes the place of the
+ * usual proxy handler, and works the same way, but instead of opening a connection to the target it opens a stream in
+ * the multiplexed connection to it.
+ * <p>
+ * The other proxy should accept multiplexed connections, and will then connect each stream to its own target.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class MuxStreamChannelHandler extends MuxStream {
+
+    /**
+     * Configuration for the connection.
+     */
+    private final ProxyConfig            config;
+
+    /**
+     * Multiplexed connections.
+     */
+    private final MuxConnector           connector;
+
+    /**
+     * Connection id, unique in the process.
+     */
+    private final long                   connectionId;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the connection events.
+     */
+    private final ConnectionListener     listener;
+
+    /**
+     * PROXY protocol version for the header sent to the target, or {@code null} to send no header.
+     */
+    private final HAProxyProtocolVersion proxyProtocol;
+
+    /**
+     * Sampler for the data given to the listener, or {@code null} if all the data is given to it. Created once the
+     * channel is active, as it runs in its event loop.
+     */
+    private MessageSampler               sampler;
+
+    /**
+     * Connection timestamps.
+     */
+    private final ConnectionTrace        trace;
+
+    public MuxStreamChannelHandler(final ProxyConfig conf, final ConnectionTrace trc, final ConnectionListener lstn,
+            final MuxConnector cnnctr) {
+        super();
+
+        config = Objects.requireNonNull(conf);
+        proxyProtocol = conf.getProxyProtocol();
+        trace = Objects.requireNonNull(trc);
+        connectionId = trc.getId();
+        listener = Objects.requireNonNull(lstn);
+        connector = Objects.requireNonNull(cnnctr);
+    }
+
+    @Override
+    public final void channelActive(final ChannelHandlerContext ctx) {
+        final ProxyTarget target;
+
+        if (config.getSampling()
+            .isEnabled()) {
+            sampler = new MessageSampler(config.getSampling(), connectionId, listener, ctx.executor(),
+                System.nanoTime());
+        }
+        localConnected();
+
+        target = ctx.channel()
+            .attr(ChannelAttributes.TARGET)
+            .get();
+        if (target == null) {
+            // Reads until the target is selected
+            log.debug("Waiting for target selection");
+            ctx.read();
+        } else {
+            connect(ctx, target);
+        }
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.error(cause.getLocalizedMessage(), cause);
+        listener.onError(connectionId, cause);
+        trace.closing(CloseReason.ERROR);
+        ctx.close();
+    }
+
+    @Override
+    public final void userEventTriggered(final ChannelHandlerContext ctx, final Object event) throws Exception {
+        if (event instanceof TargetSelectedEvent) {
+            connect(ctx, ((TargetSelectedEvent) event).getTarget());
+        } else if (event instanceof IdleStateEvent) {
+            log.debug("Closing idle connection");
+            trace.closing(CloseReason.IDLE);
+            ctx.close();
+        } else {
+            super.userEventTriggered(ctx, event);
+        }
+    }
+
+    @Override
+    protected final void onClose() {
+        if (sampler != null) {
+            sampler.close();
+        }
+        listener.onDisconnect(connectionId, System.nanoTime());
+    }
+
+    @Override
+    protected final void onLocalData(final ByteBuf data) {
+        final long now;
+
+        now = System.nanoTime();
+        trace.requestReceived(now, data.readableBytes());
+        notifyData(TrafficDirection.REQUEST, data, now);
+    }
+
+    @Override
+    protected final void onRemoteClose() {
+        trace.closing(CloseReason.TARGET);
+    }
+
+    @Override
+    protected final void onRemoteData(final ByteBuf data) {
+        final long now;
+
+        now = System.nanoTime();
+        trace.responseReceived(now, data.readableBytes());
+        notifyData(TrafficDirection.RESPONSE, data, now);
+    }
+
+    /**
+     * Opens a stream to the target, through the multiplexed connection to it. The connection is shared with other
+     * streams, and only opened if there is none yet.
+     *
+     * @param ctx
+     *            server context
+     * @param target
+     *            target to connect to
+     */
+    private final void connect(final ChannelHandlerContext ctx, final ProxyTarget target) {
+        final MuxConnection connection;
+
+        trace.connecting(target, System.nanoTime());
+        connection = connector.getConnection(ctx.channel(), target, config);
+        connection.getConnectFuture()
+            .addListener((ChannelFutureListener) f -> {
+                if (!ctx.channel()
+                    .isActive()) {
+                    log.debug("Connection closed before opening the stream");
+                } else if (f.isSuccess()) {
+                    log.debug("Opening stream to {}", target);
+                    trace.connected(System.nanoTime());
+                    listener.onConnect(connectionId, ctx.channel()
+                        .remoteAddress(), target, System.nanoTime());
+                    if (proxyProtocol != null) {
+                        // The header goes before any request
+                        sendFirst(proxyHeader(ctx.channel()));
+                    }
+                    connection.openStream(this);
+                } else {
+                    log.error("Failed connecting to {}", target, f.cause());
+                    listener.onError(connectionId, f.cause());
+                    trace.closing(CloseReason.CONNECT_FAILED);
+                    ctx.close();
+                }
+            });
+    }
+
+    /**
+     * Sends the data to the listener. Its indexes are restored afterwards, so the listener can't affect the data
+     * relayed. With sampling, the sampler decides what is sent.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data received
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    private final void notifyData(final TrafficDirection direction, final ByteBuf data, final long nanoTime) {
+        final int readerIndex;
+        final int writerIndex;
+
+        if (sampler != null) {
+            sampler.sample(direction, data, nanoTime);
+        } else {
+            readerIndex = data.readerIndex();
+            writerIndex = data.writerIndex();
+            try {
+                listener.onData(connectionId, direction, data, writerIndex - readerIndex, nanoTime);
+            } finally {
+                data.setIndex(readerIndex, writerIndex);
+            }
+        }
+    }
+
+    /**
+     * Returns the PROXY protocol header for the target.
+     *
+     * @param server
+     *            server channel, with the connection addresses
+     * @return the PROXY protocol header
+     */
+    private final ByteBuf proxyHeader(final Channel server) {
+        InetSocketAddress source;
+        InetSocketAddress destination;
+
+        source = server.attr(ChannelAttributes.SOURCE)
+            .get();
+        destination = server.attr(ChannelAttributes.DESTINATION)
+            .get();
+        if (source == null) {
+            source = (InetSocketAddress) server.remoteAddress();
+            destination = (InetSocketAddress) server.localAddress();
+        }
+
+        return ProxyProtocolHeaders.encode(server.alloc(), proxyProtocol, source, destination);
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.route;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the target each client was last connected to, so it can be sent to the same one when reconnecting. Clients
+ * are identified by a hash, see {@link #hash(byte[], int)}.
+ * <p>
+ * The table is a fixed size open addressing map, so memory is bounded. Each key may only be stored in a short window
+ * of slots after its hash. When all of them are taken, the least recently used entry in the window is replaced.
+ * Entries not used for longer than the time to live are ignored, and replaced by the next put.
+ * <p>
+ * All the slots are updated with compare and set, without locks, so it can be used from all the event loops. Affinity
+ * is best effort: a put which loses a race is dropped, and the client will be pinned again on its next connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class AffinityTable {
+
+    /**
+     * Entry in the table. The target never changes, only the last access.
+     */
+    private static final class Entry {
+
+        /**
+         * Client key.
+         */
+        private final long        key;
+
+        /**
+         * {@link System#nanoTime()} when the entry was last used.
+         */
+        private volatile long     lastAccess;
+
+        /**
+         * Target for the client.
+         */
+        private final ProxyTarget target;
+
+        private Entry(final long k, final ProxyTarget trgt, final long now) {
+            super();
+
+            key = k;
+            target = trgt;
+            lastAccess = now;
+        }
+
+    }
+
+    /**
+     * Slots checked for each key.
+     */
+    private static final int PROBES = 8;
+
+    /**
+     * Hashes the first bytes in the data, with 64 bits FNV-1a.
+     *
+     * @param data
+     *            data to hash
+     * @param length
+     *            number of bytes to hash
+     * @return the hash of the data
+     */
+    public static final long hash(final byte[] data, final int length) {
+        long hash;
+
+        hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the first slot for the key. The bits are mixed, as FNV leaves the lowest ones weak.
+     *
+     * @param key
+     *            key to find
+     * @param mask
+     *            mask for the table size
+     * @return the first slot for the key
+     */
+    private static final int slot(final long key, final int mask) {
+        long mixed;
+
+        mixed = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+
+        return (int) mixed & mask;
+    }
+
+    /**
+     * Slots in the table. Their number is a power of two.
+     */
+    private final AtomicReferenceArray<Entry> entries;
+
+    /**
+     * Mask to find a slot from a hash.
+     */
+    private final int                         mask;
+
+    /**
+     * Nanoseconds an entry is kept without being used.
+     */
+    private final long                        ttl;
+
+    /**
+     * Constructs a table with at least the received capacity.
+     *
+     * @param capacity
+     *            number of clients to remember, rounded up to a power of two
+     * @param ttlMillis
+     *            milliseconds a client is remembered after its last connection
+     */
+    public AffinityTable(final int capacity, final long ttlMillis) {
+        super();
+
+        if ((capacity <= 0) || (capacity > (1 << 30))) {
+            throw new IllegalArgumentException(String.format("Invalid affinity table size %d", capacity));
+        }
+
+        entries = new AtomicReferenceArray<>(Math.max(PROBES, Integer.highestOneBit(capacity - 1) << 1));
+        mask = entries.length() - 1;
+        ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Returns the target the client was pinned to, or {@code null} if it is unknown or expired.
+     *
+     * @param key
+     *            client key
+     * @return the pinned target, or {@code null} if there is none
+     */
+    public final ProxyTarget get(final long key) {
+        final long now;
+        final int  first;
+        ProxyTarget target;
+        Entry       entry;
+
+        now = System.nanoTime();
+        first = slot(key, mask);
+        target = null;
+        for (int i = 0; (i < PROBES) && (target == null); i++) {
+            entry = entries.get((first + i) & mask);
+            if ((entry != null) && (entry.key == key) && !isExpired(entry, now)) {
+                entry.lastAccess = now;
+                target = entry.target;
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Pins the client to the target. If the client was already pinned to it, only its last access is updated.
+     *
+     * @param key
+     *            client key
+     * @param target
+     *            target for the client
+     */
+    public final void put(final long key, final ProxyTarget target) {
+        final long  now;
+        final int   first;
+        final Entry created;
+        int   victimSlot;
+        Entry victim;
+        Entry entry;
+        int   slot;
+
+        now = System.nanoTime();
+        first = slot(key, mask);
+        victimSlot = -1;
+        victim = null;
+        for (int i = 0; i < PROBES; i++) {
+            slot = (first + i) & mask;
+            entry = entries.get(slot);
+            if ((entry != null) && (entry.key == key) && (entry.target.equals(target))) {
+                // Already pinned
+                entry.lastAccess = now;
+                return;
+            } else if ((entry == null) || (entry.key == key) || isExpired(entry, now)) {
+                // Free or reusable slot
+                victimSlot = slot;
+                victim = entry;
+                break;
+            } else if ((victim == null) || (entry.lastAccess < victim.lastAccess)) {
+                // Least recently used so far
+                victimSlot = slot;
+                victim = entry;
+            }
+        }
+
+        created = new Entry(key, target, now);
+        entries.compareAndSet(victimSlot, victim, created);
+    }
+
+    /**
+     * Returns the number of slots in the table, which is the most clients it can remember.
+     *
+     * @return the table capacity
+     */
+    public final int getCapacity() {
+        return entries.length();
+    }
+
+    /**
+     * Checks if the entry was not used for longer than the time to live.
+     *
+     * @param entry
+     *            entry to check
+     * @param now
+     *            current {@link System#nanoTime()}
+     * @return {@code true} if the entry expired
+     */
+    private final boolean isExpired(final Entry entry, final long now) {
+        return (now - entry.lastAccess) > ttl;
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.route;
+
+import java.util.Objects;
+
+import lombok.Value;
+
+/**
+ * Backend to which the proxy redirects a connection.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Value
+public final class ProxyTarget {
+
+    /**
+     * Parses a target in the {@code host:port} format.
+     *
+     * @param target
+     *            target to parse
+     * @return the parsed target
+     */
+    public static final ProxyTarget parse(final String target) {
+        final int separator;
+
+        separator = target.lastIndexOf(':');
+        if ((separator <= 0) || (separator == (target.length() - 1))) {
+            throw new IllegalArgumentException(String.format("Invalid target %s, expected host:port", target));
+        }
+
+        return new ProxyTarget(target.substring(0, separator), Integer.valueOf(target.substring(separator + 1)));
+    }
+
+    /**
+     * Target host.
+     */
+    private final String  host;
+
+    /**
+     * Target port.
+     */
+    private final Integer port;
+
+    /**
+     * Constructs a target for the received host and port.
+     *
+     * @param hst
+     *            target host
+     * @param prt
+     *            target port
+     */
+    public ProxyTarget(final String hst, final Integer prt) {
+        super();
+
+        host = Objects.requireNonNull(hst);
+        port = Objects.requireNonNull(prt);
+    }
+
+    @Override
+    public final String toString() {
+        return host + ":" + port;
+    }
+
+}
@@ -0,0 +1,342 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.route;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import com.bernardomg.example.netty.proxy.server.route.RouteTable.PrefixRoute;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Selects the target for a connection by peeking at its first bytes. These are never consumed, all the reads are
+ * absolute.
+ * <p>
+ * The checks, in order, are:
+ * <ul>
+ * <li>The prefixes in the routing table</li>
+ * <li>The SNI host name in a TLS ClientHello</li>
+ * <li>The Host header in an HTTP/1 request</li>
+ * </ul>
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class RouteSelector {
+
+    /**
+     * Longest HTTP method accepted.
+     */
+    private static final int MAX_METHOD_LENGTH = 16;
+
+    /**
+     * TLS handshake record type.
+     */
+    private static final int TLS_HANDSHAKE = 0x16;
+
+    /**
+     * Routing table.
+     */
+    private final RouteTable routes;
+
+    /**
+     * Constructs a selector for the routing table.
+     *
+     * @param table
+     *            routing table
+     */
+    public RouteSelector(final RouteTable table) {
+        super();
+
+        routes = Objects.requireNonNull(table);
+    }
+
+    /**
+     * Returns the target used when no route matches.
+     *
+     * @return the default target
+     */
+    public final ProxyTarget getDefaultTarget() {
+        return routes.getDefaultTarget();
+    }
+
+    /**
+     * Selects the target for a connection which started with the received data. If the data is not enough to take a
+     * decision then {@code null} is returned.
+     *
+     * @param data
+     *            first bytes of the connection
+     * @return the selected target, or {@code null} if more data is needed
+     */
+    public final ProxyTarget select(final ByteBuf data) {
+        final ProxyTarget target;
+        final String      hostName;
+        boolean pending;
+        int     match;
+
+        if (!data.isReadable()) {
+            return null;
+        }
+
+        // Prefixes
+        pending = false;
+        for (final PrefixRoute route : routes.getPrefixes()) {
+            match = matchPrefix(data, route.getPrefix());
+            if (match > 0) {
+                log.debug("Matched prefix route to {}", route.getTarget());
+                return route.getTarget();
+            } else if (match == 0) {
+                pending = true;
+            }
+        }
+        if (pending) {
+            // A longer prefix may still match
+            return null;
+        }
+
+        // Host names
+        if (data.getUnsignedByte(data.readerIndex()) == TLS_HANDSHAKE) {
+            hostName = readSniHostName(data);
+        } else {
+            hostName = readHttpHost(data);
+        }
+
+        if (hostName == null) {
+            target = null;
+        } else if (hostName.isEmpty()) {
+            target = routes.getDefaultTarget();
+        } else {
+            target = Objects.requireNonNullElse(routes.findByHost(hostName), routes.getDefaultTarget());
+            log.debug("Routing host {} to {}", hostName, target);
+        }
+
+        return target;
+    }
+
+    /**
+     * Compares the data with a prefix.
+     *
+     * @param data
+     *            data to compare
+     * @param prefix
+     *            prefix to match
+     * @return {@code 1} if it matches, {@code 0} if it may match with more data, {@code -1} if it doesn't match
+     */
+    private final int matchPrefix(final ByteBuf data, final byte[] prefix) {
+        final int length;
+        final int start;
+
+        start = data.readerIndex();
+        length = Math.min(prefix.length, data.readableBytes());
+        for (int i = 0; i < length; i++) {
+            if (data.getByte(start + i) != prefix[i]) {
+                return -1;
+            }
+        }
+
+        return (length == prefix.length) ? 1 : 0;
+    }
+
+    /**
+     * Reads the host from the Host header of an HTTP request.
+     *
+     * @param data
+     *            data to read
+     * @return the host, an empty string if there is none, or {@code null} if more data is needed
+     */
+    private final String readHttpHost(final ByteBuf data) {
+        final int start;
+        final int end;
+        int   index;
+        int   lineStart;
+        int   lineEnd;
+        int   colon;
+        short current;
+
+        start = data.readerIndex();
+        end = data.writerIndex();
+
+        // Request line starts with an uppercase method followed by a space
+        index = start;
+        while ((index < end) && ((index - start) <= MAX_METHOD_LENGTH)) {
+            current = data.getUnsignedByte(index);
+            if ((current < 'A') || (current > 'Z')) {
+                break;
+            }
+            index++;
+        }
+        if (index == end) {
+            return null;
+        }
+        if ((index == start) || (data.getUnsignedByte(index) != ' ')) {
+            return "";
+        }
+
+        lineStart = data.indexOf(index, end, (byte) '\n');
+        while (lineStart >= 0) {
+            lineStart++;
+            lineEnd = data.indexOf(lineStart, end, (byte) '\n');
+            if (lineEnd < 0) {
+                // Line not complete
+                return null;
+            }
+            if ((lineEnd > lineStart) && (data.getByte(lineEnd - 1) == '\r')) {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                // End of the headers
+                return "";
+            }
+            if (((lineEnd - lineStart) > 5) && isHostHeader(data, lineStart)) {
+                index = lineStart + 5;
+                while ((index < lineEnd) && (data.getByte(index) == ' ')) {
+                    index++;
+                }
+                if ((index < lineEnd) && (data.getByte(index) == '[')) {
+                    // IPv6 literal
+                    colon = data.indexOf(index, lineEnd, (byte) ']') + 1;
+                } else {
+                    colon = data.indexOf(index, lineEnd, (byte) ':');
+                }
+                if (colon <= 0) {
+                    colon = lineEnd;
+                }
+                while ((colon > index) && (data.getByte(colon - 1) == ' ')) {
+                    colon--;
+                }
+                return data.toString(index, colon - index, StandardCharsets.US_ASCII);
+            }
+            lineStart = data.indexOf(lineStart, end, (byte) '\n');
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the line is a Host header.
+     *
+     * @param data
+     *            data to read
+     * @param lineStart
+     *            start of the line
+     * @return {@code true} if the line starts with {@code host:}, ignoring case
+     */
+    private final boolean isHostHeader(final ByteBuf data, final int lineStart) {
+        return ((data.getByte(lineStart) | 0x20) == 'h') && ((data.getByte(lineStart + 1) | 0x20) == 'o')
+                && ((data.getByte(lineStart + 2) | 0x20) == 's') && ((data.getByte(lineStart + 3) | 0x20) == 't')
+                && (data.getByte(lineStart + 4) == ':');
+    }
+
+    /**
+     * Reads the SNI host name from a TLS ClientHello. Only a ClientHello contained in the first record is supported.
+     *
+     * @param data
+     *            data to read
+     * @return the host name, an empty string if there is none, or {@code null} if more data is needed
+     */
+    private final String readSniHostName(final ByteBuf data) {
+        final int start;
+        final int recordEnd;
+        final int extensionsEnd;
+        int index;
+        int type;
+        int length;
+        int listEnd;
+
+        start = data.readerIndex();
+        if (data.readableBytes() < 5) {
+            return null;
+        }
+        if (data.getUnsignedByte(start + 1) != 3) {
+            // Not SSL 3 or TLS
+            return "";
+        }
+
+        recordEnd = start + 5 + data.getUnsignedShort(start + 3);
+        if (recordEnd > data.writerIndex()) {
+            return null;
+        }
+
+        index = start + 5;
+        if (data.getUnsignedByte(index) != 1) {
+            // Not a ClientHello
+            return "";
+        }
+        // Handshake header, version and random
+        index += 4 + 2 + 32;
+
+        // Session id
+        if (index >= recordEnd) {
+            return "";
+        }
+        index += 1 + data.getUnsignedByte(index);
+
+        // Cipher suites
+        if ((index + 2) > recordEnd) {
+            return "";
+        }
+        index += 2 + data.getUnsignedShort(index);
+
+        // Compression methods
+        if (index >= recordEnd) {
+            return "";
+        }
+        index += 1 + data.getUnsignedByte(index);
+
+        // Extensions
+        if ((index + 2) > recordEnd) {
+            return "";
+        }
+        extensionsEnd = Math.min(recordEnd, index + 2 + data.getUnsignedShort(index));
+        index += 2;
+        while ((index + 4) <= extensionsEnd) {
+            type = data.getUnsignedShort(index);
+            length = data.getUnsignedShort(index + 2);
+            index += 4;
+            if ((type == 0) && ((index + 2) <= extensionsEnd)) {
+                // Server name extension
+                listEnd = Math.min(extensionsEnd, index + 2 + data.getUnsignedShort(index));
+                index += 2;
+                while ((index + 3) <= listEnd) {
+                    type = data.getUnsignedByte(index);
+                    length = data.getUnsignedShort(index + 1);
+                    index += 3;
+                    if ((type == 0) && ((index + length) <= listEnd)) {
+                        return data.toString(index, length, StandardCharsets.US_ASCII);
+                    }
+                    index += length;
+                }
+                return "";
+            }
+            index += length;
+        }
+
+        return "";
+    }
+
+}
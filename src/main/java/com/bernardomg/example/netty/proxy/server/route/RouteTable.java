@@ -0,0 +1,262 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.route;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import io.netty.buffer.ByteBufUtil;
+import lombok.Getter;
+
+/**
+ * Routing table. Maps host names and byte prefixes to the targets which should receive the connection, falling back to
+ * a default target when nothing matches.
+ * <p>
+ * Host names are compiled into a hash map for exact names, and a trie of reversed labels for wildcard names such as
+ * {@code *.example.com}. A wildcard matches any name with at least one more label, and the deepest wildcard wins.
+ * <p>
+ * Prefixes are written as text, or as hexadecimal when starting with {@code 0x}.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class RouteTable {
+
+    /**
+     * Wildcard trie node. Each level is a host name label, starting from the top level domain.
+     */
+    private static final class WildcardNode {
+
+        /**
+         * Nodes for the next labels.
+         */
+        private final Map<String, WildcardNode> children = new HashMap<>();
+
+        /**
+         * Target for names below this node, if any.
+         */
+        private ProxyTarget                     target;
+
+    }
+
+    /**
+     * Prefix route. Connections whose first bytes match the prefix go to the target.
+     */
+    public static final class PrefixRoute {
+
+        /**
+         * Bytes to match.
+         */
+        @Getter
+        private final byte[]      prefix;
+
+        /**
+         * Target for the matching connections.
+         */
+        @Getter
+        private final ProxyTarget target;
+
+        /**
+         * Constructs a prefix route.
+         *
+         * @param prfx
+         *            prefix to match
+         * @param trgt
+         *            target for the matching connections
+         */
+        private PrefixRoute(final byte[] prfx, final ProxyTarget trgt) {
+            super();
+
+            prefix = prfx;
+            target = trgt;
+        }
+
+    }
+
+    /**
+     * Target used when no route matches.
+     */
+    @Getter
+    private final ProxyTarget              defaultTarget;
+
+    /**
+     * Exact host name routes.
+     */
+    private final Map<String, ProxyTarget> hosts;
+
+    /**
+     * Prefix routes, sorted by length so the longest prefix is tested first.
+     */
+    @Getter
+    private final List<PrefixRoute>        prefixes;
+
+    /**
+     * Wildcard host name routes.
+     */
+    private final WildcardNode             wildcards;
+
+    /**
+     * Constructs a routing table with only the default target.
+     *
+     * @param dflt
+     *            default target
+     */
+    public RouteTable(final ProxyTarget dflt) {
+        this(dflt, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Constructs a routing table.
+     *
+     * @param dflt
+     *            default target
+     * @param hostRoutes
+     *            routes by host name, which may start with a {@code *.} wildcard
+     * @param prefixRoutes
+     *            routes by first bytes
+     */
+    public RouteTable(final ProxyTarget dflt, final Map<String, ProxyTarget> hostRoutes,
+            final Map<String, ProxyTarget> prefixRoutes) {
+        super();
+
+        final List<PrefixRoute> prefixList;
+
+        defaultTarget = Objects.requireNonNull(dflt);
+        hosts = new HashMap<>();
+        wildcards = new WildcardNode();
+
+        for (final Map.Entry<String, ProxyTarget> route : hostRoutes.entrySet()) {
+            addHost(route.getKey()
+                .toLowerCase(Locale.ROOT), Objects.requireNonNull(route.getValue()));
+        }
+
+        prefixList = new ArrayList<>();
+        for (final Map.Entry<String, ProxyTarget> route : prefixRoutes.entrySet()) {
+            prefixList.add(new PrefixRoute(parsePrefix(route.getKey()), Objects.requireNonNull(route.getValue())));
+        }
+        prefixList.sort((a, b) -> Integer.compare(b.getPrefix().length, a.getPrefix().length));
+        prefixes = Collections.unmodifiableList(prefixList);
+    }
+
+    /**
+     * Returns the target for the received host name, or {@code null} if no route matches it.
+     *
+     * @param hostName
+     *            host name to route
+     * @return the target for the host, or {@code null} if there is none
+     */
+    public final ProxyTarget findByHost(final String hostName) {
+        final String   name;
+        final String[] labels;
+        ProxyTarget  target;
+        WildcardNode node;
+
+        name = hostName.toLowerCase(Locale.ROOT);
+        target = hosts.get(name);
+        if (target == null) {
+            labels = name.split("\\.");
+            node = wildcards;
+            // Walks from the top level domain, keeping the deepest wildcard with labels left to cover
+            for (int i = labels.length - 1; (i > 0) && (node != null); i--) {
+                node = node.children.get(labels[i]);
+                if ((node != null) && (node.target != null)) {
+                    target = node.target;
+                }
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Indicates if the table only contains the default target. In this case there is no need to inspect connections.
+     *
+     * @return {@code true} if all the connections go to the default target
+     */
+    public final boolean isStatic() {
+        return hosts.isEmpty() && prefixes.isEmpty() && wildcards.children.isEmpty();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("RouteTable(defaultTarget=%s, hosts=%d, prefixes=%d)", defaultTarget, hosts.size(),
+            prefixes.size());
+    }
+
+    /**
+     * Registers a host name route.
+     *
+     * @param name
+     *            host name, in lower case
+     * @param target
+     *            target for the host
+     */
+    private final void addHost(final String name, final ProxyTarget target) {
+        final String[] labels;
+        WildcardNode node;
+
+        if (name.startsWith("*.")) {
+            labels = name.substring(2)
+                .split("\\.");
+            node = wildcards;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(labels[i], k -> new WildcardNode());
+            }
+            node.target = target;
+        } else {
+            hosts.put(name, target);
+        }
+    }
+
+    /**
+     * Transforms a prefix into bytes.
+     *
+     * @param prefix
+     *            prefix to parse
+     * @return the bytes for the prefix
+     */
+    private final byte[] parsePrefix(final String prefix) {
+        final byte[] bytes;
+
+        if (prefix.startsWith("0x")) {
+            bytes = ByteBufUtil.decodeHexDump(prefix, 2, prefix.length() - 2);
+        } else {
+            bytes = prefix.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Empty route prefix");
+        }
+
+        return bytes;
+    }
+
+}
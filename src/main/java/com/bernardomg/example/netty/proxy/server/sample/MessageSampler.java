@@ -0,0 +1,447 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.sample;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Chooses the data of a connection given to the listener, following the {@link SamplingOptions}. Messages not sampled
+ * are ignored before reaching the listener, so they are relayed without inspecting them, and sampled messages are
+ * truncated by moving the writer index, so they are not copied.
+ * <p>
+ * The exception is the reservoir, which keeps a copy of the messages chosen in each window, as they are only known once
+ * the window ends. They are given to the listener in the order they were received, once the window ends, or when the
+ * connection is closed, with their original timestamps. The end of the window is scheduled in the event loop of the
+ * connection when the first message is kept, so an idle connection doesn't hold its messages back. Their bytes are
+ * counted when copied, even if replaced later, so the bytes sampled for the connection also bound the memory taken by
+ * the copies.
+ * <p>
+ * Each connection has its own sampler, which is only used from its event loop.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class MessageSampler {
+
+    /**
+     * Message kept in the reservoir.
+     */
+    private static final class Sample {
+
+        /**
+         * Copy of the data.
+         */
+        private final ByteBuf          data;
+
+        /**
+         * Direction of the data.
+         */
+        private final TrafficDirection direction;
+
+        /**
+         * {@link System#nanoTime()} when the data was received.
+         */
+        private final long             nanoTime;
+
+        /**
+         * Constructs a sample.
+         *
+         * @param drctn
+         *            direction of the data
+         * @param dt
+         *            copy of the data
+         * @param time
+         *            reception time
+         */
+        private Sample(final TrafficDirection drctn, final ByteBuf dt, final long time) {
+            super();
+
+            direction = drctn;
+            data = dt;
+            nanoTime = time;
+        }
+
+    }
+
+    /**
+     * Order in which the reservoir messages are given to the listener.
+     */
+    private static final Comparator<Sample> ORDER = Comparator.comparingLong(sample -> sample.nanoTime);
+
+    /**
+     * Bytes sampled in each direction. Zero samples all the bytes.
+     */
+    private final long                      connectionBytes;
+
+    /**
+     * Connection id, unique in the process.
+     */
+    private final long                      connectionId;
+
+    /**
+     * Event loop of the connection, where the end of each reservoir window is scheduled.
+     */
+    private final EventExecutor             executor;
+
+    /**
+     * Listener receiving the sampled data.
+     */
+    private final ConnectionListener        listener;
+
+    /**
+     * Bytes sampled from each message. Zero samples the whole message.
+     */
+    private final int                       messageBytes;
+
+    /**
+     * Samples one in each this number of messages.
+     */
+    private final int                       rate;
+
+    /**
+     * Requests to skip before the next one sampled by rate.
+     */
+    private int                             requestSkip;
+
+    /**
+     * Bytes sampled from the requests.
+     */
+    private long                            requestBytes;
+
+    /**
+     * Messages chosen in the current window, or {@code null} if the reservoir is disabled.
+     */
+    private final List<Sample>              reservoir;
+
+    /**
+     * Maximum number of messages in the reservoir.
+     */
+    private final int                       reservoirSize;
+
+    /**
+     * Bytes sampled from the responses.
+     */
+    private long                            responseBytes;
+
+    /**
+     * Responses to skip before the next one sampled by rate.
+     */
+    private int                             responseSkip;
+
+    /**
+     * End of the current reservoir window, or {@code null} if nothing was kept in it yet.
+     */
+    private ScheduledFuture<?>              windowEnd;
+
+    /**
+     * Messages offered to the reservoir in the current window.
+     */
+    private long                            windowMessages;
+
+    /**
+     * Nanoseconds in each reservoir window.
+     */
+    private final long                      windowNanos;
+
+    /**
+     * {@link System#nanoTime()} when the current window started.
+     */
+    private long                            windowStart;
+
+    /**
+     * Constructs a sampler for a connection.
+     *
+     * @param options
+     *            sampling options
+     * @param id
+     *            connection id
+     * @param lstn
+     *            listener receiving the sampled data
+     * @param exec
+     *            event loop of the connection
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the connection was accepted, which starts the first reservoir window
+     */
+    public MessageSampler(final SamplingOptions options, final long id, final ConnectionListener lstn,
+            final EventExecutor exec, final long nanoTime) {
+        super();
+
+        connectionId = id;
+        listener = Objects.requireNonNull(lstn);
+        executor = Objects.requireNonNull(exec);
+        connectionBytes = options.getConnectionBytes();
+        messageBytes = options.getMessageBytes();
+        rate = options.getRate();
+        reservoirSize = options.getReservoir();
+        reservoir = (reservoirSize > 0) ? new ArrayList<>(reservoirSize) : null;
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(options.getWindow());
+        windowStart = nanoTime;
+    }
+
+    /**
+     * Gives the messages left in the reservoir to the listener. Should be called before the connection listener is
+     * notified of the disconnection.
+     */
+    public final void close() {
+        if (reservoir != null) {
+            if (windowEnd != null) {
+                windowEnd.cancel(false);
+                windowEnd = null;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Samples a message. If chosen, it is given to the listener, directly or once the reservoir window ends. Its
+     * indexes are restored afterwards, so the listener can't affect the data relayed.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data received
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    public final void sample(final TrafficDirection direction, final ByteBuf data, final long nanoTime) {
+        if (isExhausted(direction)) {
+            // Nothing else is sampled in this direction
+            return;
+        }
+
+        if ((rate > 1) && isSkipped(direction)) {
+            return;
+        }
+
+        if (reservoir == null) {
+            notify(direction, data, sampledLength(direction, data.readableBytes()), nanoTime);
+        } else {
+            offer(direction, data, nanoTime);
+        }
+    }
+
+    /**
+     * Ends the current reservoir window, giving its messages to the listener, and starts the next one.
+     *
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the next window starts
+     */
+    private final void endWindow(final long nanoTime) {
+        if (windowEnd != null) {
+            // Does nothing when the scheduled end is the one running
+            windowEnd.cancel(false);
+            windowEnd = null;
+        }
+        flush();
+        windowStart = nanoTime;
+        windowMessages = 0;
+    }
+
+    /**
+     * Gives the messages in the reservoir to the listener, and empties it.
+     */
+    private final void flush() {
+        reservoir.sort(ORDER);
+        try {
+            for (final Sample sample : reservoir) {
+                notify(sample.direction, sample.data, sample.data.readableBytes(), sample.nanoTime);
+            }
+        } finally {
+            // Released even if the listener fails
+            for (final Sample sample : reservoir) {
+                sample.data.release();
+            }
+            reservoir.clear();
+        }
+    }
+
+    /**
+     * Indicates if all the bytes to sample in a direction were already sampled.
+     *
+     * @param direction
+     *            direction to check
+     * @return {@code true} if nothing else is sampled in the direction
+     */
+    private final boolean isExhausted(final TrafficDirection direction) {
+        final long sampled;
+
+        if (connectionBytes == 0) {
+            return false;
+        }
+
+        if (direction == TrafficDirection.REQUEST) {
+            sampled = requestBytes;
+        } else {
+            sampled = responseBytes;
+        }
+
+        return sampled >= connectionBytes;
+    }
+
+    /**
+     * Indicates if a message is skipped by the rate. Each direction is counted on its own, so the requests and
+     * responses are sampled at the same rate.
+     *
+     * @param direction
+     *            direction of the message
+     * @return {@code true} if the message is not sampled
+     */
+    private final boolean isSkipped(final TrafficDirection direction) {
+        final boolean skipped;
+
+        if (direction == TrafficDirection.REQUEST) {
+            skipped = requestSkip > 0;
+            requestSkip = (skipped) ? (requestSkip - 1) : (rate - 1);
+        } else {
+            skipped = responseSkip > 0;
+            responseSkip = (skipped) ? (responseSkip - 1) : (rate - 1);
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Sends the start of the data to the listener, if there is any to send. Its indexes are restored afterwards.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data to send
+     * @param length
+     *            bytes to send, already counted for the connection
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    private final void notify(final TrafficDirection direction, final ByteBuf data, final int length,
+            final long nanoTime) {
+        final int readerIndex;
+        final int writerIndex;
+
+        if (length > 0) {
+            readerIndex = data.readerIndex();
+            writerIndex = data.writerIndex();
+            try {
+                data.writerIndex(readerIndex + length);
+                listener.onData(connectionId, direction, data, length, nanoTime);
+            } finally {
+                data.setIndex(readerIndex, writerIndex);
+            }
+        }
+    }
+
+    /**
+     * Offers a message to the reservoir. The first messages in the window fill it, and each later one replaces a random
+     * message with the probability needed for all of them to have the same chance of being kept. If the window ended,
+     * the reservoir is flushed first. The first message kept in a window schedules its end.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data received
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    private final void offer(final TrafficDirection direction, final ByteBuf data, final long nanoTime) {
+        final long   index;
+        final Sample replaced;
+
+        if ((nanoTime - windowStart) >= windowNanos) {
+            endWindow(nanoTime);
+        }
+
+        windowMessages++;
+        if (reservoir.size() < reservoirSize) {
+            reservoir.add(new Sample(direction, copy(direction, data), nanoTime));
+            if (windowEnd == null) {
+                windowEnd = executor.schedule(() -> endWindow(System.nanoTime()),
+                    windowStart + windowNanos - nanoTime, TimeUnit.NANOSECONDS);
+            }
+        } else {
+            index = ThreadLocalRandom.current()
+                .nextLong(windowMessages);
+            if (index < reservoirSize) {
+                replaced = reservoir.set((int) index, new Sample(direction, copy(direction, data), nanoTime));
+                replaced.data.release();
+            }
+        }
+    }
+
+    /**
+     * Copies the part of the message which is sampled, and counts it for the connection.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data to copy
+     * @return a copy of the data, truncated to the message bytes and to the bytes left for the connection
+     */
+    private final ByteBuf copy(final TrafficDirection direction, final ByteBuf data) {
+        return data.copy(data.readerIndex(), sampledLength(direction, data.readableBytes()));
+    }
+
+    /**
+     * Returns the bytes sampled from a message, and counts them for the connection.
+     *
+     * @param direction
+     *            direction of the data
+     * @param readable
+     *            bytes in the message
+     * @return the bytes to give to the listener
+     */
+    private final int sampledLength(final TrafficDirection direction, final int readable) {
+        int length;
+
+        if (messageBytes > 0) {
+            length = Math.min(messageBytes, readable);
+        } else {
+            length = readable;
+        }
+
+        if (connectionBytes > 0) {
+            if (direction == TrafficDirection.REQUEST) {
+                length = (int) Math.min(length, connectionBytes - requestBytes);
+                requestBytes += length;
+            } else {
+                length = (int) Math.min(length, connectionBytes - responseBytes);
+                responseBytes += length;
+            }
+        }
+
+        return length;
+    }
+
+}
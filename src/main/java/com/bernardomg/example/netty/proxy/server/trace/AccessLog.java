@@ -0,0 +1,178 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.trace;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Access log, with a line for each closed connection. Lines are made of {@code key=value} fields:
+ * <ul>
+ * <li>{@code id}: connection id</li>
+ * <li>{@code client}: client address</li>
+ * <li>{@code target}: target address, or {@code -} if never routed</li>
+ * <li>{@code attempts}: connection attempts to the targets</li>
+ * <li>{@code requestBytes} and {@code responseBytes}: bytes received from the client and from the target</li>
+ * <li>{@code connectUs}: microseconds taken to connect to the target</li>
+ * <li>{@code firstByteUs}: microseconds between the first request and response bytes</li>
+ * <li>{@code durationUs}: microseconds the connection was open</li>
+ * <li>{@code close}: the {@link CloseReason}</li>
+ * </ul>
+ * Missing times are written as -1.
+ * <p>
+ * The lines are sent to the {@value #LOGGER_NAME} logger, which is disabled by default. Each event loop formats them
+ * in its own reusable buffer, so the buffer never grows again, but this is not garbage free: each line is still copied
+ * into a string, as the asynchronous appender keeps a copy of every event it queues anyway.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class AccessLog {
+
+    /**
+     * Name of the access log logger.
+     */
+    public static final String LOGGER_NAME = "proxy.access";
+
+    /**
+     * Buffer for each thread, where the lines are formatted.
+     */
+    private static final FastThreadLocal<StringBuilder> BUFFERS = new FastThreadLocal<>() {
+
+        @Override
+        protected final StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+
+    };
+
+    /**
+     * Access log logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LOGGER_NAME);
+
+    /**
+     * Writes the access log line for a closed connection. Does nothing if the access log is disabled.
+     *
+     * @param trace
+     *            closed connection
+     */
+    public static final void write(final ConnectionTrace trace) {
+        final StringBuilder line;
+
+        if (!LOG.isInfoEnabled()) {
+            return;
+        }
+
+        line = BUFFERS.get();
+        line.setLength(0);
+        line.append("id=")
+            .append(trace.getId())
+            .append(" client=");
+        appendAddress(line, trace.getClient());
+        line.append(" target=");
+        if (trace.getTarget() == null) {
+            line.append('-');
+        } else {
+            line.append(trace.getTarget()
+                .getHost())
+                .append(':')
+                .append(trace.getTarget()
+                    .getPort());
+        }
+        line.append(" attempts=")
+            .append(trace.getConnectAttempts())
+            .append(" requestBytes=")
+            .append(trace.getRequestBytes())
+            .append(" responseBytes=")
+            .append(trace.getResponseBytes())
+            .append(" connectUs=")
+            .append(toMicros(trace.getConnectLatency()))
+            .append(" firstByteUs=")
+            .append(toMicros(trace.getFirstByteLatency()))
+            .append(" durationUs=")
+            .append(toMicros(trace.getDuration()))
+            .append(" close=")
+            .append(trace.getCloseReason());
+
+        LOG.info(line.toString());
+    }
+
+    /**
+     * Appends an address as {@code ip:port}, or {@code -} if there is no address.
+     *
+     * @param line
+     *            line to append to
+     * @param address
+     *            address to append
+     */
+    private static final void appendAddress(final StringBuilder line, final SocketAddress address) {
+        final InetSocketAddress inetAddress;
+
+        if (address instanceof InetSocketAddress) {
+            inetAddress = (InetSocketAddress) address;
+            line.append(inetAddress.getAddress()
+                .getHostAddress())
+                .append(':')
+                .append(inetAddress.getPort());
+        } else if (address == null) {
+            line.append('-');
+        } else {
+            line.append(address);
+        }
+    }
+
+    /**
+     * Transforms nanoseconds into microseconds, keeping -1 for missing values.
+     *
+     * @param nanos
+     *            nanoseconds to transform
+     * @return the received nanoseconds as microseconds
+     */
+    private static final long toMicros(final long nanos) {
+        final long result;
+
+        if (nanos < 0) {
+            result = -1;
+        } else {
+            result = nanos / 1000;
+        }
+
+        return result;
+    }
+
+    /**
+     * Private constructor to avoid initialization.
+     */
+    private AccessLog() {
+        super();
+    }
+
+}
@@ -0,0 +1,306 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.trace;
+
+import java.net.SocketAddress;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import lombok.Getter;
+
+/**
+ * Timestamps for a single proxied connection. All of them are taken from {@link System#nanoTime()}, and are zero until
+ * the event happens.
+ * <p>
+ * It also counts the bytes received in each direction, and keeps the reason the connection was closed.
+ * <p>
+ * It is meant to be updated only from the event loop of the connection, so it is not thread safe. The byte counts
+ * can still be read from other threads, to sample the live connections.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Getter
+public final class ConnectionTrace {
+
+    /**
+     * When the connection was accepted.
+     */
+    private final long          acceptTime;
+
+    /**
+     * Client address.
+     */
+    private final SocketAddress client;
+
+    /**
+     * Why the connection was closed. The first reason given is kept.
+     */
+    private CloseReason         closeReason;
+
+    /**
+     * When the connection was closed.
+     */
+    private long                closeTime;
+
+    /**
+     * Number of connection attempts to the targets.
+     */
+    private int                 connectAttempts;
+
+    /**
+     * When the target connection was completed.
+     */
+    private long                connectedTime;
+
+    /**
+     * When the first target connection attempt was started.
+     */
+    private long                connectingTime;
+
+    /**
+     * When the first request byte was received.
+     */
+    private long                firstRequestTime;
+
+    /**
+     * When the first response byte was received.
+     */
+    private long                firstResponseTime;
+
+    /**
+     * Connection id.
+     */
+    private final long          id;
+
+    /**
+     * Bytes received from the client. Volatile, as it is sampled from other threads.
+     */
+    private volatile long       requestBytes;
+
+    /**
+     * Bytes received from the target. Volatile, as it is sampled from other threads.
+     */
+    private volatile long       responseBytes;
+
+    /**
+     * Target the connection is proxied to.
+     */
+    private ProxyTarget         target;
+
+    public ConnectionTrace(final long connId, final SocketAddress clnt, final long accept) {
+        super();
+
+        id = connId;
+        client = clnt;
+        acceptTime = accept;
+    }
+
+    /**
+     * Marks the connection as closed. If no reason was given, it was closed by the client.
+     *
+     * @param time
+     *            event time
+     */
+    public final void closed(final long time) {
+        closeTime = time;
+        closing(CloseReason.CLIENT);
+    }
+
+    /**
+     * Sets the reason for closing the connection. Only the first reason is kept, as closing the connection may cause
+     * further events.
+     *
+     * @param reason
+     *            reason for closing the connection
+     */
+    public final void closing(final CloseReason reason) {
+        if (closeReason == null) {
+            closeReason = reason;
+        }
+    }
+
+    /**
+     * Marks the target connection as completed.
+     *
+     * @param time
+     *            event time
+     */
+    public final void connected(final long time) {
+        connectedTime = time;
+    }
+
+    /**
+     * Marks a target connection attempt as started. The connection latency is measured from the first attempt, so it
+     * includes any retry.
+     *
+     * @param trgt
+     *            target being connected
+     * @param time
+     *            event time
+     */
+    public final void connecting(final ProxyTarget trgt, final long time) {
+        target = trgt;
+        if (connectAttempts == 0) {
+            connectingTime = time;
+        }
+        connectAttempts++;
+    }
+
+    /**
+     * Returns the nanoseconds taken to connect to the target, or -1 if it was never connected.
+     *
+     * @return the nanoseconds taken to connect to the target
+     */
+    public final long getConnectLatency() {
+        return span(connectingTime, connectedTime);
+    }
+
+    /**
+     * Returns the nanoseconds the connection was open, or -1 if it is still open.
+     *
+     * @return the nanoseconds the connection was open
+     */
+    public final long getDuration() {
+        return span(acceptTime, closeTime);
+    }
+
+    /**
+     * Returns the nanoseconds between the first request byte and the first response byte, or -1 if any of them is
+     * missing. This is the time taken by the target to answer, plus the time spent in the proxy.
+     *
+     * @return the nanoseconds between the first request and response bytes
+     */
+    public final long getFirstByteLatency() {
+        return span(firstRequestTime, firstResponseTime);
+    }
+
+    /**
+     * Returns the nanoseconds taken by the target to answer, from the first request reaching it to the first response
+     * byte, or -1 if any of them is missing. Unlike {@link #getFirstByteLatency()}, the time waiting for the target
+     * connection is not included.
+     *
+     * @return the nanoseconds taken by the target to answer
+     */
+    public final long getTargetLatency() {
+        final long result;
+
+        if (firstRequestTime == 0) {
+            result = -1;
+        } else {
+            result = span(Math.max(firstRequestTime, connectedTime), firstResponseTime);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the nanoseconds between accepting the connection and the first response byte, or -1 if there was no
+     * response. This is the latency seen by the client.
+     *
+     * @return the nanoseconds between accepting the connection and the first response byte
+     */
+    public final long getTimeToFirstResponse() {
+        return span(acceptTime, firstResponseTime);
+    }
+
+    /**
+     * Marks a request as received. Only the time of the first one is kept.
+     *
+     * @param time
+     *            event time
+     * @param bytes
+     *            bytes received
+     */
+    public final void requestReceived(final long time, final int bytes) {
+        if (firstRequestTime == 0) {
+            firstRequestTime = time;
+        }
+        requestBytes += bytes;
+    }
+
+    /**
+     * Marks a response as received. Only the time of the first one is kept.
+     *
+     * @param time
+     *            event time
+     * @param bytes
+     *            bytes received
+     */
+    public final void responseReceived(final long time, final int bytes) {
+        if (firstResponseTime == 0) {
+            firstResponseTime = time;
+        }
+        responseBytes += bytes;
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("connection %d to %s, connect %d us, first byte %d us, first response %d us, open %d ms",
+            id, target, toMicros(getConnectLatency()), toMicros(getFirstByteLatency()),
+            toMicros(getTimeToFirstResponse()), toMicros(getDuration()) / 1000);
+    }
+
+    /**
+     * Returns the time between both events, or -1 if any of them didn't happen.
+     *
+     * @param start
+     *            start event
+     * @param end
+     *            end event
+     * @return the time between both events
+     */
+    private final long span(final long start, final long end) {
+        final long result;
+
+        if ((start == 0) || (end == 0)) {
+            result = -1;
+        } else {
+            result = end - start;
+        }
+
+        return result;
+    }
+
+    /**
+     * Transforms nanoseconds into microseconds, keeping -1 for missing values.
+     *
+     * @param nanos
+     *            nanoseconds to transform
+     * @return the received nanoseconds as microseconds
+     */
+    private final long toMicros(final long nanos) {
+        final long result;
+
+        if (nanos < 0) {
+            result = -1;
+        } else {
+            result = nanos / 1000;
+        }
+
+        return result;
+    }
+
+}
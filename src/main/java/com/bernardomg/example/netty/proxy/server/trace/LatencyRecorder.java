@@ -0,0 +1,123 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.trace;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Aggregates the latencies of closed connections by target. Connections slower than a threshold are logged.
+ * <p>
+ * Each event loop records into its own {@link LatencyShard}, so closing connections never contends across event loops.
+ * The shards are only aggregated when the latencies are read.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class LatencyRecorder {
+
+    /**
+     * Latencies by event loop.
+     */
+    private final ConcurrentMap<EventExecutor, LatencyShard> shards = new ConcurrentHashMap<>();
+
+    public LatencyRecorder() {
+        super();
+    }
+
+    /**
+     * Returns the latencies by target, aggregated from all the event loops. This is a snapshot, which doesn't change as
+     * new connections are recorded.
+     *
+     * @return the latencies by target
+     */
+    public final Map<ProxyTarget, TargetLatencies> getLatencies() {
+        final Map<ProxyTarget, TargetLatencies> latencies;
+
+        latencies = new HashMap<>();
+        for (final LatencyShard shard : shards.values()) {
+            shard.addTo(latencies);
+        }
+
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Records a closed connection. If the client waited for the first response longer than the threshold, the
+     * connection is logged as slow.
+     * <p>
+     * Should be called from the event loop of the connection, which owns the shard it is recorded into.
+     *
+     * @param loop
+     *            event loop of the connection
+     * @param trace
+     *            connection to record
+     * @param slowThreshold
+     *            nanoseconds after which a connection is slow, zero to disable the slow connections log
+     */
+    public final void record(final EventExecutor loop, final ConnectionTrace trace, final long slowThreshold) {
+        final ProxyTarget target;
+        LatencyShard shard;
+
+        target = trace.getTarget();
+        if (target == null) {
+            // Never routed
+            return;
+        }
+
+        shard = shards.get(loop);
+        if (shard == null) {
+            shard = shards.computeIfAbsent(loop, l -> new LatencyShard());
+        }
+        shard.record(target, trace);
+
+        if ((slowThreshold > 0) && (isSlow(trace, slowThreshold))) {
+            log.warn("Slow {}", trace);
+        }
+    }
+
+    /**
+     * Indicates if the connection took longer than the threshold to connect or to receive the first response.
+     *
+     * @param trace
+     *            connection to check
+     * @param slowThreshold
+     *            nanoseconds after which a connection is slow
+     * @return {@code true} if the connection is slow, {@code false} otherwise
+     */
+    private final boolean isSlow(final ConnectionTrace trace, final long slowThreshold) {
+        return (trace.getConnectLatency() > slowThreshold) || (trace.getTimeToFirstResponse() > slowThreshold);
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.server.trace;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+
+/**
+ * Latencies recorded by a single event loop, by target.
+ * <p>
+ * Only the event loop writes into the shard, through single writer recorders, so recording never contends with other
+ * event loops. Readers take the values recorded since the last read, and add them to the totals, which are guarded by
+ * the shard.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+final class LatencyShard {
+
+    /**
+     * Latencies of a single target.
+     */
+    private static final class Target {
+
+        /**
+         * Connect latencies recorded since the last read.
+         */
+        private final SingleWriterRecorder connect;
+
+        /**
+         * Connect latencies read so far.
+         */
+        private final Histogram            connectTotal;
+
+        /**
+         * First byte latencies recorded since the last read.
+         */
+        private final SingleWriterRecorder firstByte;
+
+        /**
+         * First byte latencies read so far.
+         */
+        private final Histogram            firstByteTotal;
+
+        private Target() {
+            super();
+
+            connect = new SingleWriterRecorder(TargetLatencies.SIGNIFICANT_DIGITS);
+            connectTotal = new Histogram(TargetLatencies.SIGNIFICANT_DIGITS);
+            firstByte = new SingleWriterRecorder(TargetLatencies.SIGNIFICANT_DIGITS);
+            firstByteTotal = new Histogram(TargetLatencies.SIGNIFICANT_DIGITS);
+        }
+
+    }
+
+    /**
+     * Latencies by target.
+     */
+    private final ConcurrentMap<ProxyTarget, Target> targets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty shard.
+     */
+    public LatencyShard() {
+        super();
+    }
+
+    /**
+     * Adds the latencies of the shard to the received ones.
+     *
+     * @param latencies
+     *            latencies by target to add to
+     */
+    public final synchronized void addTo(final Map<ProxyTarget, TargetLatencies> latencies) {
+        Target target;
+
+        for (final Map.Entry<ProxyTarget, Target> entry : targets.entrySet()) {
+            target = entry.getValue();
+            target.connectTotal.add(target.connect.getIntervalHistogram());
+            target.firstByteTotal.add(target.firstByte.getIntervalHistogram());
+            latencies.computeIfAbsent(entry.getKey(), t -> new TargetLatencies())
+                .add(target.connectTotal, target.firstByteTotal);
+        }
+    }
+
+    /**
+     * Records the latencies of a connection. Those which are missing are ignored. Should only be called from the event
+     * loop owning the shard.
+     *
+     * @param target
+     *            target of the connection
+     * @param trace
+     *            connection to record
+     */
+    public final void record(final ProxyTarget target, final ConnectionTrace trace) {
+        final Target latencies;
+        final long   connectLatency;
+        final long   firstByteLatency;
+
+        latencies = targets.computeIfAbsent(target, t -> new Target());
+        connectLatency = trace.getConnectLatency();
+        if (connectLatency >= 0) {
+            latencies.connect.recordValue(connectLatency / 1000);
+        }
+        firstByteLatency = trace.getFirstByteLatency();
+        if (firstByteLatency >= 0) {
+            latencies.firstByte.recordValue(firstByteLatency / 1000);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.trace;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histograms for a single target. Values are recorded in microseconds.
+ * <p>
+ * This is a snapshot, aggregated from the shards of all the event loops when the latencies are read. It doesn't change
+ * with new connections.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class TargetLatencies {
+
+    /**
+     * Significant digits kept by the histograms.
+     */
+    static final int         SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Time taken to connect to the target.
+     */
+    private final Histogram  connect;
+
+    /**
+     * Time between the first request and response bytes.
+     */
+    private final Histogram  firstByte;
+
+    public TargetLatencies() {
+        super();
+
+        connect = new Histogram(SIGNIFICANT_DIGITS);
+        firstByte = new Histogram(SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Returns a copy of the connect latencies histogram.
+     *
+     * @return the connect latencies
+     */
+    public final Histogram getConnect() {
+        return connect.copy();
+    }
+
+    /**
+     * Returns a copy of the first byte latencies histogram.
+     *
+     * @return the first byte latencies
+     */
+    public final Histogram getFirstByte() {
+        return firstByte.copy();
+    }
+
+    /**
+     * Adds the latencies recorded by a shard.
+     *
+     * @param connectLatencies
+     *            connect latencies to add
+     * @param firstByteLatencies
+     *            first byte latencies to add
+     */
+    final void add(final Histogram connectLatencies, final Histogram firstByteLatencies) {
+        connect.add(connectLatencies);
+        firstByte.add(firstByteLatencies);
+    }
+
+    @Override
+    public final String toString() {
+        final Histogram connectCopy;
+        final Histogram firstByteCopy;
+
+        connectCopy = getConnect();
+        firstByteCopy = getFirstByte();
+        return String.format(
+            "%d connections, connect p50 %d us, p99 %d us, max %d us, first byte p50 %d us, p99 %d us, max %d us",
+            connectCopy.getTotalCount(), connectCopy.getValueAtPercentile(50), connectCopy.getValueAtPercentile(99),
+            connectCopy.getMaxValue(), firstByteCopy.getValueAtPercentile(50), firstByteCopy.getValueAtPercentile(99),
+            firstByteCopy.getMaxValue());
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.udp;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.ProxyEventLoops;
+import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ProxyListenerAdapter;
+import com.bernardomg.example.netty.proxy.server.Server;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.EpollChannelOption;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Netty based UDP server. Relays datagrams to the default target, with a session for each source. Sessions are closed
+ * after the idle timeout, 60 seconds by default, and there can be at most as many sessions as the connections limit,
+ * 4096 by default. Sessions have no channel of their own, so they are not listed as connections.
+ * <p>
+ * With the epoll transport, datagrams are read in batches with {@code recvmmsg}, and written in batches with
+ * {@code sendmmsg}. Each datagram in the batch has room for the maximum UDP payload, so none is truncated, whatever
+ * the transport. The responses from the targets are read one at a time, so each one only keeps its own buffer while
+ * waiting to be sent back.
+ * <p>
+ * The server creates its own event loops, and shuts them down when stopped. Datagrams have no connection to wait for,
+ * so draining the server just stops it.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+public final class NettyUdpProxyServer implements Server {
+
+    /**
+     * Maximum datagrams read at once.
+     */
+    private static final int            DATAGRAM_BATCH = 8;
+
+    /**
+     * Maximum datagram size. The largest UDP payload over IPv4.
+     */
+    private static final int            MAX_DATAGRAM_SIZE = 65507;
+
+    /**
+     * Proxy configuration.
+     */
+    private final Supplier<ProxyConfig> configuration;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the session events.
+     */
+    private final ConnectionListener    connectionListener;
+
+    /**
+     * Server channel handler.
+     */
+    private UdpProxyChannelHandler      handler;
+
+    /**
+     * Proxy listener. Extension hook which allows reacting to the proxy events.
+     */
+    private final ProxyListener         listener;
+
+    /**
+     * Event loops.
+     */
+    private ProxyEventLoops             loops;
+
+    /**
+     * Port which the server will listen to.
+     */
+    private final Integer               port;
+
+    /**
+     * Channel bound to the port.
+     */
+    private Channel                     serverChannel;
+
+    public NettyUdpProxyServer(final Integer prt, final Supplier<ProxyConfig> config, final ProxyListener lst) {
+        this(prt, config, lst, new ProxyListenerAdapter(lst));
+    }
+
+    public NettyUdpProxyServer(final Integer prt, final Supplier<ProxyConfig> config, final ProxyListener lst,
+            final ConnectionListener connLst) {
+        super();
+
+        port = Objects.requireNonNull(prt);
+        configuration = Objects.requireNonNull(config);
+        listener = Objects.requireNonNull(lst);
+        connectionListener = Objects.requireNonNull(connLst);
+    }
+
+    /**
+     * Checks the server channel is bound. Datagrams are not acknowledged, so there is nothing to connect to.
+     *
+     * @param timeout
+     *            ignored
+     * @return {@code true} if the server is bound, {@code false} otherwise
+     */
+    @Override
+    public final boolean selfTest(final Duration timeout) {
+        final boolean success;
+
+        success = (serverChannel != null) && serverChannel.isActive();
+        if (!success) {
+            log.error("Self test failed, port {} is not bound", port);
+        }
+
+        return success;
+    }
+
+    @Override
+    public final void start() {
+        log.trace("Starting UDP proxy");
+
+        listener.onStart();
+
+        // Epoll allows reading and writing datagrams in batches. Nothing is accepted, so there is no parent group
+        loops = new ProxyEventLoops(0, true, false);
+        loops.warmUp();
+
+        handler = new UdpProxyChannelHandler(configuration, targetBootstrap(), connectionListener);
+
+        log.debug("Binding UDP port {}", port);
+        serverChannel = serverBootstrap().handler(handler)
+            .bind(port)
+            .syncUninterruptibly()
+            .channel();
+        log.debug("Bound correctly to UDP port {}", port);
+
+        log.trace("Started UDP proxy");
+    }
+
+    @Override
+    public final void stop() {
+        log.trace("Stopping UDP proxy");
+
+        listener.onStop();
+
+        if (serverChannel != null) {
+            serverChannel.close()
+                .awaitUninterruptibly();
+        }
+        if (loops != null) {
+            loops.shutdown();
+        }
+
+        if ((handler != null) && (handler.getDropped() > 0)) {
+            log.warn("Dropped {} datagrams from new sources, as the session table was full", handler.getDropped());
+        }
+
+        log.trace("Stopped UDP proxy");
+    }
+
+    /**
+     * Returns the bootstrap for datagram channels, with the options shared by the server and the target channels.
+     *
+     * @return the bootstrap for datagram channels
+     */
+    private final Bootstrap datagramBootstrap() {
+        return new Bootstrap()
+            // Registers groups
+            .group(loops.getChildGroup())
+            // Defines channel
+            .channel(loops.getDatagramChannelClass())
+            // Configuration
+            .option(ChannelOption.ALLOCATOR, loops.getAllocator());
+    }
+
+    /**
+     * Returns the bootstrap for the server channel, which reads the datagrams in batches when possible.
+     *
+     * @return the bootstrap for the server channel
+     */
+    private final Bootstrap serverBootstrap() {
+        final Bootstrap bootstrap;
+
+        bootstrap = datagramBootstrap();
+
+        if (loops.isEpoll()) {
+            // Each read takes as many datagrams as fit in the buffer, with a single recvmmsg
+            bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                .option(ChannelOption.RCVBUF_ALLOCATOR,
+                    new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE * DATAGRAM_BATCH));
+        } else {
+            // Each read takes a single datagram
+            bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE));
+        }
+
+        return bootstrap;
+    }
+
+    /**
+     * Returns the bootstrap for the target channels of the sessions. These read a single datagram each time, as a
+     * response sliced from a batch would keep the buffer for the whole batch until it is sent back.
+     *
+     * @return the bootstrap for the target channels
+     */
+    private final Bootstrap targetBootstrap() {
+        return datagramBootstrap().option(ChannelOption.RCVBUF_ALLOCATOR,
+            new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE));
+    }
+
+}
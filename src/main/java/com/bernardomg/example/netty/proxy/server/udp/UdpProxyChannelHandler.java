@@ -0,0 +1,290 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.udp;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Handler for the server datagram channel. Keeps a session for each source, and relays the datagrams through it.
+ * <p>
+ * The session table is bounded. Once full, datagrams from new sources are dropped, so a flood of datagrams from spoofed
+ * sources can't exhaust the memory or the sockets. Sessions expire after some time without datagrams, and expired
+ * sessions are closed periodically.
+ * <p>
+ * The configuration is read for each new session. The target is always the default one, as datagrams are not routed.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+final class UdpProxyChannelHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Milliseconds without datagrams after which a session expires, if not configured.
+     */
+    public static final long            DEFAULT_IDLE_TIMEOUT = 60000;
+
+    /**
+     * Maximum number of sessions, if not configured.
+     */
+    public static final int             DEFAULT_MAX_SESSIONS = 4096;
+
+    /**
+     * Last session id. Shared by all the proxies, so ids are unique in the process.
+     */
+    private static final AtomicLong     SESSION_IDS = new AtomicLong();
+
+    /**
+     * Milliseconds between checks for expired sessions.
+     */
+    private static final long           SWEEP_INTERVAL = 1000;
+
+    /**
+     * Bootstrap for the target channels. Cloned into the event loop of the server channel.
+     */
+    private final Bootstrap             bootstrap;
+
+    /**
+     * Proxy configuration.
+     */
+    private final Supplier<ProxyConfig> configuration;
+
+    /**
+     * Datagrams dropped because the session table was full.
+     */
+    private final AtomicLong            dropped = new AtomicLong();
+
+    /**
+     * Indicates if the session table is full. Used to log it only once each time it fills.
+     */
+    private boolean                     full;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the session events.
+     */
+    private final ConnectionListener    listener;
+
+    /**
+     * Periodic check for expired sessions.
+     */
+    private ScheduledFuture<?>          sweep;
+
+    /**
+     * Sessions by source.
+     */
+    private final UdpSessionTable       sessions = new UdpSessionTable();
+
+    /**
+     * Sessions which received datagrams in the current read, waiting to be flushed. Each session is added only once.
+     */
+    private final List<UdpSession>      unflushed = new ArrayList<>();
+
+    public UdpProxyChannelHandler(final Supplier<ProxyConfig> config, final Bootstrap btstrp,
+            final ConnectionListener lstn) {
+        super();
+
+        configuration = Objects.requireNonNull(config);
+        bootstrap = Objects.requireNonNull(btstrp);
+        listener = Objects.requireNonNull(lstn);
+    }
+
+    @Override
+    public final void channelActive(final ChannelHandlerContext ctx) {
+        sweep = ctx.executor()
+            .scheduleAtFixedRate(this::closeExpired, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext ctx) {
+        final int closed;
+
+        if (sweep != null) {
+            sweep.cancel(false);
+        }
+        closed = sessions.closeIf(session -> true, System.nanoTime());
+        log.debug("Closed {} sessions", closed);
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object message) {
+        final DatagramPacket    packet;
+        final InetSocketAddress source;
+        final long              now;
+        UdpSession session;
+
+        packet = (DatagramPacket) message;
+        source = packet.sender();
+        now = System.nanoTime();
+
+        session = sessions.get(source);
+        if (session == null) {
+            session = openSession(ctx, source, now);
+        }
+
+        if (session == null) {
+            packet.release();
+        } else {
+            session.write(packet.content(), now);
+            if (session.markUnflushed()) {
+                unflushed.add(session);
+            }
+        }
+    }
+
+    @Override
+    public final void channelReadComplete(final ChannelHandlerContext ctx) {
+        // All the datagrams read together are flushed together
+        for (final UdpSession session : unflushed) {
+            session.flush();
+        }
+        unflushed.clear();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        log.error(cause.getLocalizedMessage(), cause);
+    }
+
+    /**
+     * Returns the number of datagrams dropped because the session table was full.
+     *
+     * @return the number of datagrams dropped
+     */
+    public final long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Closes the expired sessions.
+     */
+    private final void closeExpired() {
+        final long now;
+        final long idleNanos;
+        final int  closed;
+
+        now = System.nanoTime();
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(getIdleTimeout(configuration.get()));
+        closed = sessions.closeIf(session -> session.isExpired(now, idleNanos), now);
+        if (closed > 0) {
+            log.debug("Closed {} expired sessions, {} remaining", closed, sessions.size());
+        }
+    }
+
+    /**
+     * Returns the milliseconds without datagrams after which a session expires.
+     *
+     * @param config
+     *            proxy configuration
+     * @return the session idle timeout
+     */
+    private final long getIdleTimeout(final ProxyConfig config) {
+        final long timeout;
+
+        if (config.getIdleTimeout() > 0) {
+            timeout = config.getIdleTimeout();
+        } else {
+            timeout = DEFAULT_IDLE_TIMEOUT;
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Returns the maximum number of sessions.
+     *
+     * @param config
+     *            proxy configuration
+     * @return the maximum number of sessions
+     */
+    private final int getMaxSessions(final ProxyConfig config) {
+        final int max;
+
+        if (config.getMaxConnections() > 0) {
+            max = config.getMaxConnections();
+        } else {
+            max = DEFAULT_MAX_SESSIONS;
+        }
+
+        return max;
+    }
+
+    /**
+     * Opens a session for a new source, unless the session table is full.
+     *
+     * @param ctx
+     *            server channel context
+     * @param source
+     *            source address
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the first datagram was received
+     * @return the new session, or {@code null} if the table is full
+     */
+    private final UdpSession openSession(final ChannelHandlerContext ctx, final InetSocketAddress source,
+            final long nanoTime) {
+        final ProxyConfig config;
+        final int         maxSessions;
+        final UdpSession  session;
+
+        config = configuration.get();
+        maxSessions = getMaxSessions(config);
+        if (sessions.size() >= maxSessions) {
+            dropped.incrementAndGet();
+            if (!full) {
+                log.warn("Session table full, with {} sessions. Dropping datagrams from new sources", maxSessions);
+                full = true;
+            }
+            return null;
+        }
+        full = false;
+
+        session = new UdpSession(SESSION_IDS.incrementAndGet(), source, ctx.channel(), listener,
+            config.getSampling(), nanoTime);
+        sessions.put(source, session);
+        session.connect(bootstrap, config.getRoutes()
+            .getDefaultTarget());
+
+        return session;
+    }
+
+}
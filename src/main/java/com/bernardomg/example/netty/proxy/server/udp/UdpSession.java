@@ -0,0 +1,309 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.udp;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.sample.MessageSampler;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Session for a datagram source. Relays the datagrams from the source through its own channel, connected to the target,
+ * and sends the responses received in that channel back to the source.
+ * <p>
+ * The session runs in the same event loop as the server channel. Writes are not flushed on each datagram, but once for
+ * all the datagrams read together, which allows the epoll transport to send them with a single system call.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+@Slf4j
+final class UdpSession extends ChannelInboundHandlerAdapter {
+
+    /**
+     * Maximum number of datagrams kept while connecting to the target. Any other datagram is dropped.
+     */
+    private static final int         MAX_PENDING = 16;
+
+    /**
+     * Channel connected to the target.
+     */
+    private Channel                  channel;
+
+    /**
+     * Indicates if the channel is connected to the target.
+     */
+    private boolean                  connected;
+
+    /**
+     * Session id, unique in the process.
+     */
+    private final long               id;
+
+    /**
+     * {@link System#nanoTime()} for the last datagram, in any direction.
+     */
+    private long                     lastActivity;
+
+    /**
+     * Connection listener. Extension hook which allows reacting to the session events.
+     */
+    private final ConnectionListener listener;
+
+    /**
+     * Datagrams received before the channel is connected.
+     */
+    private final Queue<ByteBuf>     pending = new ArrayDeque<>(2);
+
+    /**
+     * Sampler for the data given to the listener, or {@code null} if all the data is given to it.
+     */
+    private final MessageSampler     sampler;
+
+    /**
+     * Server channel, which receives the datagrams from the source.
+     */
+    private final Channel            server;
+
+    /**
+     * Source address.
+     */
+    private final InetSocketAddress  source;
+
+    /**
+     * Indicates if there are writes waiting to be flushed, so the session is flushed once for each read.
+     */
+    private boolean                  unflushed;
+
+    public UdpSession(final long sessionId, final InetSocketAddress src, final Channel srv,
+            final ConnectionListener lstn, final SamplingOptions sampling, final long nanoTime) {
+        super();
+
+        id = sessionId;
+        source = src;
+        server = srv;
+        listener = lstn;
+        lastActivity = nanoTime;
+        if (sampling.isEnabled()) {
+            sampler = new MessageSampler(sampling, sessionId, lstn, srv.eventLoop(), nanoTime);
+        } else {
+            sampler = null;
+        }
+    }
+
+    @Override
+    public final void channelRead(final ChannelHandlerContext ctx, final Object message) {
+        final ByteBuf data;
+
+        if (message instanceof DatagramPacket) {
+            data = ((DatagramPacket) message).content();
+        } else {
+            data = (ByteBuf) message;
+        }
+
+        lastActivity = System.nanoTime();
+        notifyData(TrafficDirection.RESPONSE, data, lastActivity);
+
+        if (server.isWritable()) {
+            server.write(new DatagramPacket(data, source));
+        } else {
+            // Datagrams can be lost, so they are not buffered
+            log.debug("Server channel not writable, dropping response to {}", source);
+            data.release();
+        }
+    }
+
+    @Override
+    public final void channelReadComplete(final ChannelHandlerContext ctx) {
+        server.flush();
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        // Such as unreachable targets, which don't close the session
+        log.debug("Session {} error", id, cause);
+        listener.onError(id, cause);
+    }
+
+    /**
+     * Closes the session.
+     *
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the session is closed
+     */
+    public final void close(final long nanoTime) {
+        if (channel != null) {
+            channel.close();
+        }
+        while (!pending.isEmpty()) {
+            pending.poll()
+                .release();
+        }
+        if (sampler != null) {
+            sampler.close();
+        }
+        listener.onDisconnect(id, nanoTime);
+    }
+
+    /**
+     * Connects the session to the target.
+     *
+     * @param bootstrap
+     *            bootstrap for the target channel, in the event loop of the server channel
+     * @param target
+     *            target to connect to
+     */
+    public final void connect(final Bootstrap bootstrap, final ProxyTarget target) {
+        final ChannelFuture future;
+
+        future = bootstrap.clone(server.eventLoop())
+            .handler(this)
+            .connect(target.getHost(), target.getPort());
+        channel = future.channel();
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                log.debug("Session {} from {} connected to {}", id, source, target);
+                connected = true;
+                listener.onConnect(id, source, target, System.nanoTime());
+                while (!pending.isEmpty()) {
+                    channel.write(pending.poll());
+                }
+                channel.flush();
+            } else {
+                log.debug("Session {} failed connecting to {}", id, target, f.cause());
+                listener.onError(id, f.cause());
+            }
+        });
+    }
+
+    /**
+     * Flushes the datagrams written to the target.
+     */
+    public final void flush() {
+        unflushed = false;
+        if (connected) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * Indicates if the session has been idle for too long.
+     *
+     * @param nanoTime
+     *            current {@link System#nanoTime()}
+     * @param idleNanos
+     *            nanoseconds without datagrams after which the session expires
+     * @return {@code true} if the session expired, {@code false} otherwise
+     */
+    public final boolean isExpired(final long nanoTime, final long idleNanos) {
+        return (nanoTime - lastActivity) > idleNanos;
+    }
+
+    /**
+     * Marks the session as having writes waiting to be flushed.
+     *
+     * @return {@code true} if it was not marked since the last flush, {@code false} otherwise
+     */
+    public final boolean markUnflushed() {
+        final boolean marked;
+
+        marked = !unflushed;
+        unflushed = true;
+
+        return marked;
+    }
+
+    /**
+     * Writes a datagram from the source into the target channel. It is not flushed.
+     *
+     * @param data
+     *            datagram content
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the datagram was received
+     */
+    public final void write(final ByteBuf data, final long nanoTime) {
+        lastActivity = nanoTime;
+        notifyData(TrafficDirection.REQUEST, data, nanoTime);
+
+        if (connected) {
+            if (channel.isWritable()) {
+                channel.write(data);
+            } else {
+                log.debug("Session {} not writable, dropping datagram", id);
+                data.release();
+            }
+        } else if (pending.size() < MAX_PENDING) {
+            pending.add(data);
+        } else {
+            log.debug("Session {} still connecting, dropping datagram", id);
+            data.release();
+        }
+    }
+
+    /**
+     * Sends the data to the listener. Its indexes are restored afterwards, so the listener can't affect the data
+     * relayed. With sampling, the sampler decides what is sent.
+     *
+     * @param direction
+     *            direction of the data
+     * @param data
+     *            data received
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the data was received
+     */
+    private final void notifyData(final TrafficDirection direction, final ByteBuf data, final long nanoTime) {
+        final int readerIndex;
+        final int writerIndex;
+
+        if (sampler != null) {
+            sampler.sample(direction, data, nanoTime);
+        } else {
+            readerIndex = data.readerIndex();
+            writerIndex = data.writerIndex();
+            try {
+                listener.onData(id, direction, data, writerIndex - readerIndex, nanoTime);
+            } finally {
+                data.setIndex(readerIndex, writerIndex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.server.udp;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import io.netty.util.collection.LongObjectMap.PrimitiveEntry;
+
+/**
+ * Sessions by source address. IPv4 sources, address and port, are packed into a single {@code long} and kept in a
+ * primitive map, so looking them up doesn't box the key or hash the address object. Other sources use a regular map.
+ * <p>
+ * Not thread safe, it should only be used from the event loop of the server channel.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+final class UdpSessionTable {
+
+    /**
+     * Sessions for IPv4 sources.
+     */
+    private final LongObjectMap<UdpSession>          ipv4Sessions = new LongObjectHashMap<>();
+
+    /**
+     * Sessions for any other source.
+     */
+    private final Map<InetSocketAddress, UdpSession> otherSessions = new HashMap<>();
+
+    public UdpSessionTable() {
+        super();
+    }
+
+    /**
+     * Returns the session for the source, or {@code null} if there is none.
+     *
+     * @param source
+     *            source address
+     * @return the session for the source
+     */
+    public final UdpSession get(final InetSocketAddress source) {
+        final UdpSession session;
+
+        if (source.getAddress() instanceof Inet4Address) {
+            session = ipv4Sessions.get(key(source));
+        } else {
+            session = otherSessions.get(source);
+        }
+
+        return session;
+    }
+
+    /**
+     * Stores the session for the source.
+     *
+     * @param source
+     *            source address
+     * @param session
+     *            session to store
+     */
+    public final void put(final InetSocketAddress source, final UdpSession session) {
+        if (source.getAddress() instanceof Inet4Address) {
+            ipv4Sessions.put(key(source), session);
+        } else {
+            otherSessions.put(source, session);
+        }
+    }
+
+    /**
+     * Closes and removes all the sessions matching the filter.
+     *
+     * @param filter
+     *            filter for the sessions to close
+     * @param nanoTime
+     *            {@link System#nanoTime()} when the sessions are closed
+     * @return the number of sessions closed
+     */
+    public final int closeIf(final Predicate<UdpSession> filter, final long nanoTime) {
+        final Iterator<PrimitiveEntry<UdpSession>> ipv4Entries;
+        final Iterator<UdpSession>                 otherEntries;
+        UdpSession session;
+        int        closed;
+
+        closed = 0;
+        ipv4Entries = ipv4Sessions.entries()
+            .iterator();
+        while (ipv4Entries.hasNext()) {
+            session = ipv4Entries.next()
+                .value();
+            if (filter.test(session)) {
+                ipv4Entries.remove();
+                session.close(nanoTime);
+                closed++;
+            }
+        }
+
+        otherEntries = otherSessions.values()
+            .iterator();
+        while (otherEntries.hasNext()) {
+            session = otherEntries.next();
+            if (filter.test(session)) {
+                otherEntries.remove();
+                session.close(nanoTime);
+                closed++;
+            }
+        }
+
+        return closed;
+    }
+
+    /**
+     * Returns the number of sessions.
+     *
+     * @return the number of sessions
+     */
+    public final int size() {
+        return ipv4Sessions.size() + otherSessions.size();
+    }
+
+    /**
+     * Returns the key for an IPv4 source. The address takes the upper bits, and the port the lower 16 bits.
+     *
+     * @param source
+     *            IPv4 source address
+     * @return the key for the source
+     */
+    private final long key(final InetSocketAddress source) {
+        final byte[] address;
+        final long   ip;
+
+        address = source.getAddress()
+            .getAddress();
+        ip = ((address[0] & 0xFFL) << 24) | ((address[1] & 0xFFL) << 16) | ((address[2] & 0xFFL) << 8)
+                | (address[3] & 0xFFL);
+
+        return (ip << 16) | source.getPort();
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.bernardomg.example.netty.proxy.server.config.AffinityOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+@DisplayName("Proxy client affinity")
+public final class ITProxyAffinity {
+
+    /**
+     * Length of the requests, which start with the token.
+     */
+    private static final int REQUEST_LENGTH = 8;
+
+    /**
+     * Starts a backend which answers each request with its name.
+     *
+     * @param port
+     *            port to listen to, or zero for an ephemeral one
+     * @param name
+     *            backend name
+     * @return the backend
+     * @throws IOException
+     *             if the port can't be bound
+     */
+    private static final EchoBackend namedBackend(final int port, final String name) throws IOException {
+        return new EchoBackend(port, s -> {
+            new DataInputStream(s.getInputStream()).readFully(new byte[REQUEST_LENGTH]);
+            s.getOutputStream()
+                .write(name.getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    private EchoBackend failover;
+
+    private EchoBackend primary;
+
+    private int         primaryPort;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyAffinity() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        // The primary is down until started by the test
+        primaryPort = LoopbackProxy.freePort();
+        failover = namedBackend(0, "failover");
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        failover.close();
+        if (primary != null) {
+            primary.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Keeps clients on the failover target by IP")
+    public final void testIpAffinity() throws IOException {
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Map.of("key", "ip")))) {
+            Assertions.assertEquals("failover", request(proxy, "client-1"));
+
+            primary = namedBackend(primaryPort, "primary");
+
+            Assertions.assertEquals("failover", request(proxy, "client-1"));
+        }
+    }
+
+    @Test
+    @DisplayName("Without affinity, clients go back to the primary target")
+    public final void testNoAffinity() throws IOException {
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Collections.emptyMap()))) {
+            Assertions.assertEquals("failover", request(proxy, "client-1"));
+
+            primary = namedBackend(primaryPort, "primary");
+
+            Assertions.assertEquals("primary", request(proxy, "client-1"));
+        }
+    }
+
+    @Test
+    @DisplayName("Keeps clients on the failover target by token")
+    public final void testTokenAffinity() throws IOException {
+        try (LoopbackProxy proxy = new LoopbackProxy(
+            config(Map.of("key", "token", "tokenLength", String.valueOf(REQUEST_LENGTH))))) {
+            Assertions.assertEquals("failover", request(proxy, "client-1"));
+
+            primary = namedBackend(primaryPort, "primary");
+
+            Assertions.assertEquals("failover", request(proxy, "client-1"));
+            Assertions.assertEquals("primary", request(proxy, "client-2"));
+        }
+    }
+
+    /**
+     * Returns a configuration with the primary and failover targets, and the received affinity.
+     *
+     * @param affinity
+     *            affinity options
+     * @return the proxy configuration
+     */
+    private final ProxyConfig config(final Map<String, String> affinity) {
+        return ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(primaryPort)))
+            .failover(Collections.singletonList(LoopbackProxy.target(failover.getPort())))
+            .affinity(AffinityOptions.parse(affinity))
+            .build();
+    }
+
+    /**
+     * Sends a request, and returns the name of the backend which answered it.
+     *
+     * @param proxy
+     *            proxy to send the request to
+     * @param request
+     *            request, starting with the client token
+     * @return the backend name
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final String request(final LoopbackProxy proxy, final String request) throws IOException {
+        try (Socket socket = proxy.connect()) {
+            socket.getOutputStream()
+                .write(request.getBytes(StandardCharsets.UTF_8));
+
+            return new String(socket.getInputStream()
+                .readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
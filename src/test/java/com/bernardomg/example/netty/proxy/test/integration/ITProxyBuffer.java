@@ -0,0 +1,256 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.bernardomg.example.netty.proxy.server.config.BufferOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+@DisplayName("Proxy request buffer")
+public final class ITProxyBuffer {
+
+    /**
+     * Chunks sent by the client.
+     */
+    private static final int CHUNKS = 768;
+
+    /**
+     * Bytes in the pattern sent by the client. Each byte is its position modulo this length, so bytes out of order are
+     * detected.
+     */
+    private static final int PATTERN = 251;
+
+    /**
+     * Bytes in each chunk, a multiple of the pattern. The whole upload is way over what the socket buffers can hold.
+     */
+    private static final int CHUNK = PATTERN * 256;
+
+    /**
+     * Reads the whole stream, checking the pattern.
+     *
+     * @param input
+     *            stream to read
+     * @return the bytes read, or -1 if they don't follow the pattern
+     * @throws IOException
+     *             if the connection fails
+     */
+    private static final long readPattern(final InputStream input) throws IOException {
+        final byte[] buffer;
+        long count;
+        int  read;
+        int  index;
+
+        buffer = new byte[64 * 1024];
+        count = 0;
+        read = input.read(buffer);
+        while (read >= 0) {
+            index = 0;
+            while ((index < read) && (count >= 0)) {
+                if (buffer[index] != (byte) (count % PATTERN)) {
+                    count = -1;
+                } else {
+                    count++;
+                    index++;
+                }
+            }
+            read = input.read(buffer);
+        }
+
+        return count;
+    }
+
+    private EchoBackend             backend;
+
+    private CompletableFuture<Long> received;
+
+    private CountDownLatch          release;
+
+    @TempDir
+    private Path                    spillDirectory;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyBuffer() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        release = new CountDownLatch(1);
+        received = new CompletableFuture<>();
+        // The backend doesn't read anything until released
+        backend = new EchoBackend(s -> {
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+            }
+            received.complete(readPattern(s.getInputStream()));
+        });
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        release.countDown();
+        backend.close();
+    }
+
+    @Test
+    @DisplayName("Without spilling, stops reading once the memory is full")
+    public final void testMemoryFull() throws Exception {
+        final CompletableFuture<Void> upload;
+
+        try (LoopbackProxy proxy = new LoopbackProxy(config(0)); Socket socket = proxy.connect()) {
+            upload = upload(socket);
+
+            Assertions.assertThrows(TimeoutException.class, () -> upload.get(1, TimeUnit.SECONDS));
+
+            release.countDown();
+            upload.get(30, TimeUnit.SECONDS);
+
+            Assertions.assertEquals((long) CHUNK * CHUNKS, received.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @DisplayName("Spills a whole upload while the target doesn't read, and sends it in order after the client closes")
+    public final void testSpill() throws Exception {
+        try (LoopbackProxy proxy = new LoopbackProxy(config(64 * 1024 * 1024))) {
+            try (Socket socket = proxy.connect()) {
+                upload(socket).get(30, TimeUnit.SECONDS);
+            }
+
+            release.countDown();
+
+            Assertions.assertEquals((long) CHUNK * CHUNKS, received.get(30, TimeUnit.SECONDS));
+            Assertions.assertTrue(proxy.awaitNoConnections(5000));
+            // The file is deleted once the target connection is closed, just after the backend reads the end of stream
+            Assertions.assertTrue(awaitNoSpillFiles(5000), "Spill files left");
+        }
+    }
+
+    /**
+     * Waits until there are no spill files, or the timeout expires.
+     *
+     * @param timeoutMillis
+     *            maximum time to wait, in milliseconds
+     * @return {@code true} if all the spill files were deleted
+     * @throws IOException
+     *             if the spill directory can't be read
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private final boolean awaitNoSpillFiles(final long timeoutMillis) throws IOException, InterruptedException {
+        final long deadline;
+
+        deadline = System.currentTimeMillis() + timeoutMillis;
+        while ((countSpillFiles() > 0) && (System.currentTimeMillis() < deadline)) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        return countSpillFiles() == 0;
+    }
+
+    /**
+     * Returns a configuration with a small buffer for each connection, and the received spill size.
+     *
+     * @param spill
+     *            bytes spilled for each connection
+     * @return the proxy configuration
+     */
+    private final ProxyConfig config(final int spill) {
+        return ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .buffer(BufferOptions.parse(Map.of("memory", "65536", "spill", String.valueOf(spill), "directory",
+                spillDirectory.toString())))
+            .build();
+    }
+
+    /**
+     * Returns the number of files in the spill directory.
+     *
+     * @return the number of spill files
+     * @throws IOException
+     *             if the spill directory can't be read
+     */
+    private final long countSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Sends the whole upload in the background, shutting down the output afterwards.
+     *
+     * @param socket
+     *            connection to the proxy
+     * @return the upload future
+     */
+    private final CompletableFuture<Void> upload(final Socket socket) {
+        return CompletableFuture.runAsync(() -> {
+            final byte[]       chunk;
+            final OutputStream output;
+
+            chunk = new byte[CHUNK];
+            for (int i = 0; i < CHUNK; i++) {
+                chunk[i] = (byte) (i % PATTERN);
+            }
+            try {
+                output = socket.getOutputStream();
+                for (int i = 0; i < CHUNKS; i++) {
+                    output.write(chunk);
+                }
+                socket.shutdownOutput();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+}
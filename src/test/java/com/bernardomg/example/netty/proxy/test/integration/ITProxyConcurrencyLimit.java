@@ -0,0 +1,160 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.bernardomg.example.netty.proxy.server.config.ConcurrencyLimitOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+@DisplayName("Proxy backend concurrency limit")
+public final class ITProxyConcurrencyLimit {
+
+    private EchoBackend backend;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyConcurrencyLimit() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        backend = new EchoBackend();
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        backend.close();
+    }
+
+    @Test
+    @DisplayName("Rejects connections over the limit, and accepts them once there is room")
+    public final void testOverLimit() throws IOException, InterruptedException {
+        try (LoopbackProxy proxy = new LoopbackProxy(config())) {
+            try (Socket held = proxy.connect()) {
+                Assertions.assertEquals("held", echo(held, "held"));
+
+                try (Socket rejected = proxy.connect()) {
+                    rejected.getOutputStream()
+                        .write(1);
+
+                    Assertions.assertEquals(-1, rejected.getInputStream()
+                        .read());
+                }
+            }
+
+            Assertions.assertTrue(proxy.awaitNoConnections(5000));
+
+            // The permit is released once the target connection is closed, just after the client one
+            Assertions.assertEquals("accepted", echoWithRetries(proxy, "accepted"));
+        }
+    }
+
+    /**
+     * Returns a configuration limited to a single connection, which rejects any other right away.
+     *
+     * @return the proxy configuration
+     */
+    private final ProxyConfig config() {
+        return ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .backendLimit(ConcurrencyLimitOptions.parse(Map.of("max", "1", "initial", "1", "queueTimeout", "0")))
+            .build();
+    }
+
+    /**
+     * Sends a message through a new connection, and reads it back. Retries while the connection is rejected.
+     *
+     * @param proxy
+     *            proxy to connect to
+     * @param message
+     *            message to send
+     * @return the echoed message, or an empty string if all the connections were rejected
+     * @throws IOException
+     *             if the connection fails
+     * @throws InterruptedException
+     *             if interrupted while waiting to retry
+     */
+    private final String echoWithRetries(final LoopbackProxy proxy, final String message)
+            throws IOException, InterruptedException {
+        String received;
+        int    retries;
+
+        received = "";
+        retries = 0;
+        while (received.isEmpty() && (retries < 50)) {
+            try (Socket socket = proxy.connect()) {
+                received = echo(socket, message);
+            }
+            if (received.isEmpty()) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            retries++;
+        }
+
+        return received;
+    }
+
+    /**
+     * Sends a message, and reads it back.
+     *
+     * @param socket
+     *            connection to the proxy
+     * @param message
+     *            message to send
+     * @return the echoed message
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final String echo(final Socket socket, final String message) throws IOException {
+        final byte[]      expected;
+        final byte[]      received;
+        final InputStream input;
+
+        expected = message.getBytes(StandardCharsets.UTF_8);
+        socket.getOutputStream()
+            .write(expected);
+        input = socket.getInputStream();
+        received = input.readNBytes(expected.length);
+
+        return new String(received, StandardCharsets.UTF_8);
+    }
+
+}
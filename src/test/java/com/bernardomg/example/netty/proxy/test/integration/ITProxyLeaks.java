@@ -0,0 +1,295 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.bernardomg.example.netty.proxy.server.ExecutorConnectionListener;
+import com.bernardomg.example.netty.proxy.server.config.BufferOptions;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+import io.netty.buffer.AbstractByteBuf;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+
+/**
+ * Relays traffic with the leak detector in paranoid mode, tracking every buffer, and checks none of them is garbage
+ * collected without being released. Besides the plain relay, the features keeping their own buffers are run too.
+ */
+@DisplayName("Proxy buffer leaks")
+public final class ITProxyLeaks {
+
+    /**
+     * Leaks reported while the tests run.
+     */
+    private static final Collection<String>   leaks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Leak detection level before the tests.
+     */
+    private static ResourceLeakDetector.Level previousLevel;
+
+    @BeforeAll
+    public static final void enableLeakDetection() throws ReflectiveOperationException {
+        previousLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        getBufferLeakDetector().setLeakListener((type, records) -> leaks.add(type + ": " + records));
+    }
+
+    @AfterAll
+    public static final void restoreLeakDetection() throws ReflectiveOperationException {
+        getBufferLeakDetector().setLeakListener(null);
+        ResourceLeakDetector.setLevel(previousLevel);
+    }
+
+    /**
+     * Returns the leak detector shared by all the buffers. It is not public, but it is the only way to listen for
+     * leaks without depending on the logs.
+     *
+     * @return the buffers leak detector
+     * @throws ReflectiveOperationException
+     *             if the detector can't be read
+     */
+    @SuppressWarnings("unchecked")
+    private static final ResourceLeakDetector<ByteBuf> getBufferLeakDetector() throws ReflectiveOperationException {
+        final Field field;
+
+        field = AbstractByteBuf.class.getDeclaredField("leakDetector");
+        field.setAccessible(true);
+
+        return (ResourceLeakDetector<ByteBuf>) field.get(null);
+    }
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyLeaks() {
+        super();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers when connections are reset")
+    public final void testResetConnections() throws IOException, InterruptedException {
+        final byte[] payload;
+
+        payload = new byte[256 * 1024];
+        new Random(0).nextBytes(payload);
+        try (EchoBackend backend = new EchoBackend(); LoopbackProxy proxy = new LoopbackProxy(backend.getPort())) {
+            for (int i = 0; i < 50; i++) {
+                try (Socket socket = proxy.connect()) {
+                    socket.getOutputStream()
+                        .write(payload);
+                    // Reset with data still in flight
+                    socket.setSoLinger(true, 0);
+                }
+            }
+
+            Assertions.assertTrue(proxy.awaitNoConnections(5000), "The proxied connections were left open");
+        }
+
+        assertNoLeaks();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers when buffering and spilling the requests")
+    public final void testBuffer(@TempDir final Path spillDirectory) throws IOException, InterruptedException {
+        final byte[] payload;
+
+        payload = new byte[1024 * 1024];
+        new Random(2).nextBytes(payload);
+        // Slow target, so the requests are buffered and spilled
+        try (EchoBackend backend = new EchoBackend(s -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+            }
+            s.getInputStream()
+                .readAllBytes();
+        }); LoopbackProxy proxy = new LoopbackProxy(ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .buffer(BufferOptions.parse(Map.of("memory", "65536", "spill", String.valueOf(4 * 1024 * 1024),
+                "directory", spillDirectory.toString())))
+            .build())) {
+            for (int i = 0; i < 10; i++) {
+                try (Socket socket = proxy.connect()) {
+                    socket.getOutputStream()
+                        .write(payload);
+                    if ((i % 2) == 1) {
+                        // Reset with requests still buffered
+                        socket.setSoLinger(true, 0);
+                    }
+                }
+            }
+
+            Assertions.assertTrue(proxy.awaitNoConnections(10000), "The proxied connections were left open");
+        }
+
+        assertNoLeaks();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers when the listener runs in an executor")
+    public final void testExecutorListener() throws IOException, InterruptedException {
+        final ExecutorService executor;
+
+        executor = Executors.newFixedThreadPool(2);
+        try (EchoBackend backend = new EchoBackend(); LoopbackProxy proxy = new LoopbackProxy(config(backend),
+            new ExecutorConnectionListener((id, direction, data, length, time) -> {}, executor))) {
+            relay(proxy, 10);
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS), "The listener didn't finish");
+
+        assertNoLeaks();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers when mirroring the requests")
+    public final void testMirror() throws IOException, InterruptedException {
+        try (EchoBackend backend = new EchoBackend(); EchoBackend shadow = new EchoBackend();
+                LoopbackProxy proxy = new LoopbackProxy(config(backend).toBuilder()
+                    .mirror(LoopbackProxy.target(shadow.getPort()))
+                    .build())) {
+            relay(proxy, 10);
+        }
+
+        assertNoLeaks();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers after relaying")
+    public final void testRelay() throws IOException, InterruptedException {
+        try (EchoBackend backend = new EchoBackend(); LoopbackProxy proxy = new LoopbackProxy(backend.getPort())) {
+            relay(proxy, 50);
+        }
+
+        assertNoLeaks();
+    }
+
+    @Test
+    @DisplayName("Releases all the buffers kept by the sampling reservoir")
+    public final void testReservoir() throws IOException, InterruptedException {
+        try (EchoBackend backend = new EchoBackend(); LoopbackProxy proxy = new LoopbackProxy(config(backend)
+            .toBuilder()
+            .sampling(SamplingOptions.parse(Map.of("reservoir", "3", "window", "10")))
+            .build(), (id, direction, data, length, time) -> {})) {
+            relay(proxy, 10);
+        }
+
+        assertNoLeaks();
+    }
+
+    /**
+     * Returns a configuration relaying to the backend.
+     *
+     * @param backend
+     *            backend to relay to
+     * @return the proxy configuration
+     */
+    private final ProxyConfig config(final EchoBackend backend) {
+        return ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .build();
+    }
+
+    /**
+     * Sends payloads through the proxy on each connection, waiting for each echo, and then waits for the connections to
+     * be closed.
+     *
+     * @param proxy
+     *            proxy to relay through
+     * @param connections
+     *            number of connections
+     * @throws IOException
+     *             if a connection fails
+     * @throws InterruptedException
+     *             if interrupted while waiting for the connections to close
+     */
+    private final void relay(final LoopbackProxy proxy, final int connections)
+            throws IOException, InterruptedException {
+        final byte[] payload;
+        final byte[] received;
+
+        payload = new byte[4 * 1024];
+        new Random(1).nextBytes(payload);
+        received = new byte[payload.length];
+        for (int i = 0; i < connections; i++) {
+            try (Socket socket = proxy.connect()) {
+                for (int j = 0; j < 20; j++) {
+                    socket.getOutputStream()
+                        .write(payload);
+                    new DataInputStream(socket.getInputStream()).readFully(received);
+                }
+            }
+        }
+
+        Assertions.assertTrue(proxy.awaitNoConnections(5000), "The proxied connections were left open");
+    }
+
+    /**
+     * Collects the garbage, and checks no leak was reported. Leaks are only reported once the buffers are collected,
+     * when a new buffer is tracked.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the garbage collector
+     */
+    private final void assertNoLeaks() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(100);
+            ByteBufAllocator.DEFAULT.buffer(64)
+                .release();
+        }
+
+        Assertions.assertEquals("", String.join("\n", leaks), "Buffers were leaked");
+    }
+
+}
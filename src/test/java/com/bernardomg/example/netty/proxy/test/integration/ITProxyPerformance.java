@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Performance guardrails. The limits are loose on purpose, so they only catch large regressions, such as copying or
+ * logging every message, and not the noise of a shared machine.
+ */
+@DisplayName("Proxy performance guardrails")
+public final class ITProxyPerformance {
+
+    /**
+     * Maximum bytes allocated by the whole process for each message relayed, in both directions.
+     */
+    private static final long   MAX_ALLOCATION_PER_MESSAGE = 4 * 1024;
+
+    /**
+     * Size of the messages for the allocation test.
+     */
+    private static final int    MESSAGE_SIZE               = 256;
+
+    /**
+     * Minimum throughput, in MB per second, of a single connection.
+     */
+    private static final long   MIN_THROUGHPUT             = 20;
+
+    /**
+     * Logger for the proxy classes.
+     */
+    private static final String PROXY_LOGGER               = "com.bernardomg.example";
+
+    @BeforeAll
+    public static final void disableDebugLogs() {
+        // Logging each message would dominate the measures
+        Configurator.setLevel(PROXY_LOGGER, Level.WARN);
+    }
+
+    @AfterAll
+    public static final void restoreDebugLogs() {
+        Configurator.setLevel(PROXY_LOGGER, Level.DEBUG);
+    }
+
+    /**
+     * Returns the bytes allocated so far by all the live threads.
+     *
+     * @return the bytes allocated
+     */
+    private static final long allocatedBytes() {
+        final ThreadMXBean threads;
+        long total;
+
+        threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        total = 0;
+        for (final long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+
+        return total;
+    }
+
+    private EchoBackend   backend;
+
+    private LoopbackProxy proxy;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyPerformance() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        backend = new EchoBackend();
+        proxy = new LoopbackProxy(backend.getPort());
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        proxy.close();
+        backend.close();
+    }
+
+    @Test
+    @DisplayName("Allocates little memory for each message")
+    public final void testAllocationPerMessage() throws IOException {
+        final byte[] message;
+        final long   before;
+        final long   perMessage;
+        final int    count;
+
+        message = new byte[MESSAGE_SIZE];
+        count = 20_000;
+        try (Socket socket = proxy.connect()) {
+            // Warms up the pools and the JIT
+            exchange(socket, message, count);
+
+            before = allocatedBytes();
+            exchange(socket, message, count);
+            perMessage = (allocatedBytes() - before) / count;
+        }
+
+        Assertions.assertTrue(perMessage <= MAX_ALLOCATION_PER_MESSAGE,
+            () -> String.format("Allocated %d bytes per message, over the limit of %d", perMessage,
+                MAX_ALLOCATION_PER_MESSAGE));
+    }
+
+    @Test
+    @DisplayName("Relays over the minimum throughput")
+    public final void testThroughput() throws IOException {
+        final CompletableFuture<Void> writer;
+        final byte[]                  chunk;
+        final byte[]                  buffer;
+        final long                    total;
+        final long                    start;
+        final long                    throughput;
+        final InputStream             input;
+        long received;
+        int  read;
+
+        chunk = new byte[64 * 1024];
+        buffer = new byte[64 * 1024];
+        total = 256L * 1024 * 1024;
+        try (Socket socket = proxy.connect()) {
+            start = System.nanoTime();
+            writer = CompletableFuture.runAsync(() -> {
+                final OutputStream output;
+
+                try {
+                    output = socket.getOutputStream();
+                    for (long sent = 0; sent < total; sent += chunk.length) {
+                        output.write(chunk);
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            input = socket.getInputStream();
+            received = 0;
+            while (received < total) {
+                read = input.read(buffer);
+                Assertions.assertTrue(read >= 0, "Connection closed before receiving all the data");
+                received += read;
+            }
+            throughput = (total * TimeUnit.SECONDS.toNanos(1)) / (System.nanoTime() - start) / (1024 * 1024);
+            writer.join();
+        }
+
+        Assertions.assertTrue(throughput >= MIN_THROUGHPUT,
+            () -> String.format("Relayed %d MB/s, under the minimum of %d", throughput, MIN_THROUGHPUT));
+    }
+
+    /**
+     * Sends messages one at a time, waiting for the echo of each before sending the next.
+     *
+     * @param socket
+     *            connection to the proxy
+     * @param message
+     *            message to send
+     * @param count
+     *            number of messages
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final void exchange(final Socket socket, final byte[] message, final int count) throws IOException {
+        final DataInputStream input;
+        final OutputStream    output;
+        final byte[]          received;
+
+        input = new DataInputStream(socket.getInputStream());
+        output = socket.getOutputStream();
+        received = new byte[message.length];
+        for (int i = 0; i < count; i++) {
+            output.write(message);
+            input.readFully(received);
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.bernardomg.example.netty.proxy.server.ProxyEventLoops;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+@DisplayName("Proxy relay over loopback")
+public final class ITProxyRelay {
+
+    private EchoBackend   backend;
+
+    private LoopbackProxy proxy;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxyRelay() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        backend = new EchoBackend();
+        proxy = new LoopbackProxy(backend.getPort());
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        proxy.close();
+        backend.close();
+    }
+
+    @Test
+    @DisplayName("Relays the responses after the client shuts down its output")
+    public final void testClientHalfClose() throws IOException, InterruptedException {
+        final byte[] request;
+
+        request = "last words".getBytes(StandardCharsets.UTF_8);
+        // Only answers once it reads the end of the requests
+        try (EchoBackend answerer = new EchoBackend(a -> a.getOutputStream()
+            .write(a.getInputStream()
+                .readAllBytes())); LoopbackProxy answererProxy = new LoopbackProxy(answerer.getPort());
+                Socket socket = answererProxy.connect()) {
+            socket.getOutputStream()
+                .write(request);
+            socket.shutdownOutput();
+
+            Assertions.assertArrayEquals(request, socket.getInputStream()
+                .readAllBytes());
+            Assertions.assertTrue(answererProxy.awaitNoConnections(5000), "The proxied connection was left open");
+        }
+    }
+
+    @Test
+    @DisplayName("Relays many connections at the same time")
+    public final void testConcurrentConnections() {
+        final List<CompletableFuture<Void>> clients;
+
+        clients = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final int seed = i;
+            clients.add(CompletableFuture.runAsync(() -> {
+                try {
+                    roundTrip(randomBytes(seed, 256 * 1024));
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> CompletableFuture
+            .allOf(clients.toArray(new CompletableFuture[clients.size()]))
+            .get());
+    }
+
+    @Test
+    @DisplayName("Relays a large payload byte by byte")
+    public final void testLargePayload() throws IOException {
+        roundTrip(randomBytes(1, 16 * 1024 * 1024));
+    }
+
+    @Test
+    @DisplayName("Closes the multiplexed connections when stopped, even if the event loops are still running")
+    public final void testMultiplexClosedOnStop() throws IOException, InterruptedException {
+        final ProxyEventLoops loops;
+        final byte[]          payload;
+
+        payload = "multiplexed".getBytes(StandardCharsets.UTF_8);
+        loops = new ProxyEventLoops(0, false);
+        try (LoopbackProxy acceptor = new LoopbackProxy(ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .acceptMultiplex(true)
+            .build())) {
+            try (LoopbackProxy sender = new LoopbackProxy(ProxyConfig.builder()
+                .routes(new RouteTable(LoopbackProxy.target(acceptor.getPort())))
+                .sendMultiplex(true)
+                .build(), loops); Socket socket = sender.connect()) {
+                socket.getOutputStream()
+                    .write(payload);
+                Assertions.assertArrayEquals(payload, socket.getInputStream()
+                    .readNBytes(payload.length));
+            }
+
+            Assertions.assertTrue(acceptor.awaitNoConnections(5000), "The multiplexed connection was left open");
+        } finally {
+            loops.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Sends the self test probe through the proxy without reaching the target")
+    public final void testSelfTest() throws IOException, InterruptedException {
+        final AtomicInteger connections;
+
+        connections = new AtomicInteger();
+        try (EchoBackend target = new EchoBackend(socket -> connections.incrementAndGet());
+                LoopbackProxy probed = new LoopbackProxy(target.getPort())) {
+            Assertions.assertTrue(probed.selfTest(Duration.ofSeconds(5)), "The self test failed");
+            Assertions.assertEquals(0, connections.get(), "The probe reached the target");
+            Assertions.assertTrue(probed.awaitNoConnections(5000), "The probe connection was left open");
+        }
+    }
+
+    @Test
+    @DisplayName("Keeps the order of the messages")
+    public final void testOrdering() throws IOException {
+        final ByteArrayOutputStream expected;
+        final byte[]                received;
+        final OutputStream          output;
+        byte[] message;
+
+        expected = new ByteArrayOutputStream();
+        try (Socket socket = proxy.connect()) {
+            output = socket.getOutputStream();
+            for (int i = 0; i < 2000; i++) {
+                message = String.format("message-%06d;", i)
+                    .getBytes(StandardCharsets.UTF_8);
+                expected.write(message);
+                output.write(message);
+                output.flush();
+            }
+
+            received = new byte[expected.size()];
+            new DataInputStream(socket.getInputStream()).readFully(received);
+        }
+
+        Assertions.assertEquals(expected.toString(StandardCharsets.UTF_8),
+            new String(received, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Relays binary data unchanged")
+    public final void testRelaysBytes() throws IOException {
+        roundTrip(randomBytes(0, 64 * 1024));
+    }
+
+    @Test
+    @DisplayName("Relays the whole response when the target closes the connection")
+    public final void testTargetClose() throws IOException, InterruptedException {
+        final byte[] request;
+        final byte[] response;
+        final byte[] received;
+
+        request = "request".getBytes(StandardCharsets.UTF_8);
+        response = randomBytes(2, 32 * 1024);
+        // Answers the request and closes, without waiting for the client
+        try (EchoBackend responder = new EchoBackend(s -> {
+            new DataInputStream(s.getInputStream()).readFully(new byte[request.length]);
+            s.getOutputStream()
+                .write(response);
+        }); LoopbackProxy responderProxy = new LoopbackProxy(responder.getPort());
+                Socket socket = responderProxy.connect()) {
+            socket.getOutputStream()
+                .write(request);
+            received = socket.getInputStream()
+                .readAllBytes();
+
+            Assertions.assertArrayEquals(response, received);
+            Assertions.assertTrue(responderProxy.awaitNoConnections(5000), "The proxied connection was left open");
+        }
+    }
+
+    @Test
+    @DisplayName("Relays a greeting sent by the target before any request")
+    public final void testTargetSpeaksFirst() throws IOException {
+        final byte[] greeting;
+        final byte[] request;
+        final byte[] received;
+
+        greeting = "greeting".getBytes(StandardCharsets.UTF_8);
+        request = "request".getBytes(StandardCharsets.UTF_8);
+        // Greets the client as soon as it connects, and then echoes the requests
+        try (EchoBackend greeter = new EchoBackend(s -> {
+            final byte[] echo;
+
+            s.getOutputStream()
+                .write(greeting);
+            echo = new byte[request.length];
+            new DataInputStream(s.getInputStream()).readFully(echo);
+            s.getOutputStream()
+                .write(echo);
+        }); LoopbackProxy greeterProxy = new LoopbackProxy(greeter.getPort());
+                Socket socket = greeterProxy.connect()) {
+            received = new byte[greeting.length];
+            new DataInputStream(socket.getInputStream()).readFully(received);
+            Assertions.assertArrayEquals(greeting, received);
+
+            socket.getOutputStream()
+                .write(request);
+            Assertions.assertArrayEquals(request, socket.getInputStream()
+                .readNBytes(request.length));
+        }
+    }
+
+    /**
+     * Generates reproducible random data.
+     *
+     * @param seed
+     *            random seed
+     * @param size
+     *            number of bytes
+     * @return random data
+     */
+    private final byte[] randomBytes(final long seed, final int size) {
+        final byte[] data;
+
+        data = new byte[size];
+        new Random(seed).nextBytes(data);
+
+        return data;
+    }
+
+    /**
+     * Sends the payload through the proxy, while reading the echo, and checks it is returned unchanged.
+     *
+     * @param payload
+     *            data to send
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final void roundTrip(final byte[] payload) throws IOException {
+        final CompletableFuture<Void> writer;
+        final byte[]                  received;
+        final InputStream             input;
+
+        try (Socket socket = proxy.connect()) {
+            // Written in parallel, so the socket buffers don't fill up
+            writer = CompletableFuture.runAsync(() -> {
+                try {
+                    socket.getOutputStream()
+                        .write(payload);
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            input = socket.getInputStream();
+            received = new byte[payload.length];
+            new DataInputStream(input).readFully(received);
+            writer.orTimeout(10, TimeUnit.SECONDS)
+                .join();
+        }
+
+        Assertions.assertArrayEquals(payload, received);
+    }
+
+}
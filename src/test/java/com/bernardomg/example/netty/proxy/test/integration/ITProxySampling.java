@@ -0,0 +1,251 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.bernardomg.example.netty.proxy.test.integration;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.TrafficDirection;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.config.SamplingOptions;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+import com.bernardomg.example.netty.proxy.test.util.EchoBackend;
+import com.bernardomg.example.netty.proxy.test.util.LoopbackProxy;
+
+import io.netty.buffer.ByteBuf;
+
+@DisplayName("Proxy listener sampling")
+public final class ITProxySampling {
+
+    /**
+     * Listener keeping the requests received.
+     */
+    private static final class RecordingListener implements ConnectionListener {
+
+        /**
+         * Counted down when the connection is closed.
+         */
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+
+        /**
+         * Requests received.
+         */
+        private final Queue<String>  requests     = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Responses received.
+         */
+        private final Queue<String>  responses    = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public final void onData(final long connectionId, final TrafficDirection direction, final ByteBuf data,
+                final int length, final long nanoTime) {
+            final String text;
+
+            text = data.toString(data.readerIndex(), length, StandardCharsets.UTF_8);
+            if (direction == TrafficDirection.REQUEST) {
+                requests.add(text);
+            } else {
+                responses.add(text);
+            }
+        }
+
+        @Override
+        public final void onDisconnect(final long connectionId, final long nanoTime) {
+            disconnected.countDown();
+        }
+
+    }
+
+    private EchoBackend       backend;
+
+    private RecordingListener listener;
+
+    /**
+     * Default constructor.
+     */
+    public ITProxySampling() {
+        super();
+    }
+
+    @BeforeEach
+    public final void start() throws IOException {
+        backend = new EchoBackend();
+        listener = new RecordingListener();
+    }
+
+    @AfterEach
+    public final void stop() throws IOException {
+        backend.close();
+    }
+
+    @Test
+    @DisplayName("Truncates the messages and stops after the connection bytes")
+    public final void testBytes() throws Exception {
+        final List<String> requests;
+
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Map.of("messageBytes", "4", "connectionBytes", "10")),
+            listener)) {
+            exchange(proxy, 5);
+
+            Assertions.assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS), "Disconnection not received");
+        }
+
+        requests = List.copyOf(listener.requests);
+        Assertions.assertEquals(10, requests.stream()
+            .mapToInt(String::length)
+            .sum(), "Sampled request bytes");
+        Assertions.assertTrue(requests.stream()
+            .allMatch(r -> r.length() <= 4), "Messages not truncated: " + requests);
+        Assertions.assertTrue(requests.get(0)
+            .startsWith("msg-"), "Unexpected first sample: " + requests);
+    }
+
+    @Test
+    @DisplayName("Samples one in each N messages")
+    public final void testRate() throws Exception {
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Map.of("rate", "4")), listener)) {
+            exchange(proxy, 8);
+
+            Assertions.assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS), "Disconnection not received");
+        }
+
+        Assertions.assertEquals(List.of("msg-0000", "msg-0004"), List.copyOf(listener.requests));
+        Assertions.assertEquals(List.of("msg-0000", "msg-0004"), List.copyOf(listener.responses));
+    }
+
+    @Test
+    @DisplayName("Keeps the reservoir until the window ends")
+    public final void testReservoir() throws Exception {
+        final List<String> requests;
+
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Map.of("reservoir", "3", "window", "60000")), listener)) {
+            exchange(proxy, 10);
+
+            Assertions.assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS), "Disconnection not received");
+        }
+
+        // The messages are only given to the listener when the connection is closed
+        requests = List.copyOf(listener.requests);
+        Assertions.assertEquals(3, requests.size() + listener.responses.size(), "Sampled messages");
+        Assertions.assertEquals(requests.stream()
+            .sorted()
+            .collect(Collectors.toList()), requests, "Samples out of order");
+    }
+
+    @Test
+    @DisplayName("Gives the reservoir to the listener when the window ends on an idle connection")
+    public final void testReservoirIdle() throws Exception {
+        final long deadline;
+
+        try (LoopbackProxy proxy = new LoopbackProxy(config(Map.of("reservoir", "3", "window", "200")), listener);
+                Socket socket = proxy.connect()) {
+            exchange(socket, 10);
+
+            // Nothing else is sent, the window ends by itself
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (((listener.requests.size() + listener.responses.size()) < 3) && (System.nanoTime() < deadline)) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+
+            Assertions.assertEquals(3, listener.requests.size() + listener.responses.size(), "Sampled messages");
+            Assertions.assertEquals(1, listener.disconnected.getCount(), "Connection closed");
+        }
+    }
+
+    /**
+     * Returns the configuration for the backend, with the sampling options.
+     *
+     * @param sampling
+     *            sampling options
+     * @return the proxy configuration
+     */
+    private final ProxyConfig config(final Map<String, String> sampling) {
+        return ProxyConfig.builder()
+            .routes(new RouteTable(LoopbackProxy.target(backend.getPort())))
+            .sampling(SamplingOptions.parse(sampling))
+            .build();
+    }
+
+    /**
+     * Sends the messages one at a time, waiting for each echo, so each one is read on its own.
+     *
+     * @param proxy
+     *            proxy to connect to
+     * @param messages
+     *            number of messages
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final void exchange(final LoopbackProxy proxy, final int messages) throws IOException {
+        try (Socket socket = proxy.connect()) {
+            exchange(socket, messages);
+        }
+    }
+
+    /**
+     * Sends the messages one at a time through an open connection, waiting for each echo, so each one is read on its
+     * own.
+     *
+     * @param socket
+     *            connection to the proxy
+     * @param messages
+     *            number of messages
+     * @throws IOException
+     *             if the connection fails
+     */
+    private final void exchange(final Socket socket, final int messages) throws IOException {
+        final DataInputStream input;
+        byte[]                message;
+        byte[]                received;
+
+        input = new DataInputStream(socket.getInputStream());
+        for (int i = 0; i < messages; i++) {
+            message = String.format("msg-%04d", i)
+                .getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream()
+                .write(message);
+            received = new byte[message.length];
+            input.readFully(received);
+            Assertions.assertArrayEquals(message, received);
+        }
+    }
+
+}
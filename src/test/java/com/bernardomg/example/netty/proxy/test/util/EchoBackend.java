@@ -0,0 +1,190 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loopback backend for the tests. Each accepted connection is handled in its own thread, by default echoing back
+ * everything it receives, and closing once the client stops sending.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class EchoBackend implements AutoCloseable {
+
+    /**
+     * Handles a single accepted connection.
+     */
+    @FunctionalInterface
+    public static interface ConnectionHandler {
+
+        /**
+         * Handles the connection. The socket is closed afterwards.
+         *
+         * @param socket
+         *            accepted connection
+         * @throws IOException
+         *             if the connection fails
+         */
+        public void handle(final Socket socket) throws IOException;
+
+    }
+
+    /**
+     * Echoes back all the data received, until the client shuts down its output.
+     *
+     * @param socket
+     *            connection to echo
+     * @throws IOException
+     *             if the connection fails
+     */
+    private static final void echo(final Socket socket) throws IOException {
+        final InputStream  input;
+        final OutputStream output;
+        final byte[]       buffer;
+        int read;
+
+        input = socket.getInputStream();
+        output = socket.getOutputStream();
+        buffer = new byte[64 * 1024];
+        read = input.read(buffer);
+        while (read >= 0) {
+            output.write(buffer, 0, read);
+            read = input.read(buffer);
+        }
+        socket.shutdownOutput();
+    }
+
+    /**
+     * Threads handling the connections.
+     */
+    private final ExecutorService   executor = Executors.newCachedThreadPool();
+
+    /**
+     * Connection handler.
+     */
+    private final ConnectionHandler handler;
+
+    /**
+     * Socket accepting the connections.
+     */
+    private final ServerSocket      serverSocket;
+
+    /**
+     * Starts an echo backend on an ephemeral loopback port.
+     *
+     * @throws IOException
+     *             if the port can't be bound
+     */
+    public EchoBackend() throws IOException {
+        this(EchoBackend::echo);
+    }
+
+    /**
+     * Starts a backend on an ephemeral loopback port, handling the connections with the received handler.
+     *
+     * @param hndlr
+     *            connection handler
+     * @throws IOException
+     *             if the port can't be bound
+     */
+    public EchoBackend(final ConnectionHandler hndlr) throws IOException {
+        this(0, hndlr);
+    }
+
+    /**
+     * Starts a backend on a loopback port, handling the connections with the received handler.
+     *
+     * @param port
+     *            port to listen to, or zero for an ephemeral one
+     * @param hndlr
+     *            connection handler
+     * @throws IOException
+     *             if the port can't be bound
+     */
+    public EchoBackend(final int port, final ConnectionHandler hndlr) throws IOException {
+        super();
+
+        handler = Objects.requireNonNull(hndlr);
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        executor.execute(this::accept);
+    }
+
+    @Override
+    public final void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the backend listens to.
+     *
+     * @return the backend port
+     */
+    public final int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the backend is closed.
+     */
+    private final void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            } catch (final IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Handles a connection, closing it afterwards.
+     *
+     * @param socket
+     *            connection to handle
+     */
+    private final void handle(final Socket socket) {
+        try (socket) {
+            handler.handle(socket);
+        } catch (final IOException e) {
+            // The client went away
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ * <p>
+ * Copyright (c) 2023 the original author or authors.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.bernardomg.example.netty.proxy.test.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bernardomg.example.netty.proxy.server.ConnectionListener;
+import com.bernardomg.example.netty.proxy.server.NettyTcpProxyServer;
+import com.bernardomg.example.netty.proxy.server.ProxyEventLoops;
+import com.bernardomg.example.netty.proxy.server.ProxyListener;
+import com.bernardomg.example.netty.proxy.server.ProxyListenerAdapter;
+import com.bernardomg.example.netty.proxy.server.config.ProxyConfig;
+import com.bernardomg.example.netty.proxy.server.route.ProxyTarget;
+import com.bernardomg.example.netty.proxy.server.route.RouteTable;
+
+/**
+ * Proxy listening on a free loopback port, for the tests. Runs without listeners.
+ *
+ * @author Bernardo Mart&iacute;nez Garrido
+ *
+ */
+public final class LoopbackProxy implements AutoCloseable {
+
+    /**
+     * Listener ignoring all the events.
+     */
+    private static final ProxyListener NO_LISTENER = new ProxyListener() {
+
+        @Override
+        public final void onRequest(final Object message) {}
+
+        @Override
+        public final void onResponse(final Object message) {}
+
+        @Override
+        public final void onStart() {}
+
+        @Override
+        public final void onStop() {}
+
+    };
+
+    /**
+     * Returns a free loopback port. It may be taken again before using it, but that is unlikely on a test machine.
+     *
+     * @return a free port
+     */
+    public static final int freePort() {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a loopback target.
+     *
+     * @param port
+     *            target port
+     * @return a target in the loopback address
+     */
+    public static final ProxyTarget target(final int port) {
+        return new ProxyTarget(InetAddress.getLoopbackAddress()
+            .getHostAddress(), port);
+    }
+
+    /**
+     * Port the proxy listens to.
+     */
+    private final int                 port;
+
+    /**
+     * Proxy server.
+     */
+    private final NettyTcpProxyServer server;
+
+    /**
+     * Starts a proxy relaying into the received target port.
+     *
+     * @param targetPort
+     *            loopback port to relay into
+     */
+    public LoopbackProxy(final int targetPort) {
+        this(ProxyConfig.builder()
+            .routes(new RouteTable(target(targetPort)))
+            .build());
+    }
+
+    /**
+     * Starts a proxy with the received configuration.
+     *
+     * @param config
+     *            proxy configuration
+     */
+    public LoopbackProxy(final ProxyConfig config) {
+        this(config, new ProxyListenerAdapter(NO_LISTENER));
+    }
+
+    public LoopbackProxy(final ProxyConfig config, final ConnectionListener listener) {
+        super();
+
+        port = freePort();
+        server = new NettyTcpProxyServer(port, false, () -> config, NO_LISTENER, listener);
+        server.start();
+    }
+
+    public LoopbackProxy(final ProxyConfig config, final ProxyEventLoops loops) {
+        super();
+
+        port = freePort();
+        server = new NettyTcpProxyServer(port, false, () -> config, loops, NO_LISTENER);
+        server.start();
+    }
+
+    @Override
+    public final void close() {
+        server.stop();
+    }
+
+    /**
+     * Opens a connection to the proxy. Reads time out, so a stalled relay fails the test instead of hanging it.
+     *
+     * @return a connection to the proxy
+     * @throws IOException
+     *             if the connection fails
+     */
+    public final Socket connect() throws IOException {
+        final Socket socket;
+
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(10));
+        socket.setTcpNoDelay(true);
+
+        return socket;
+    }
+
+    /**
+     * Returns the number of connections open in the proxy.
+     *
+     * @return the number of open connections
+     */
+    public final int countConnections() {
+        final AtomicInteger count;
+
+        count = new AtomicInteger();
+        server.forEachConnection(c -> count.incrementAndGet());
+
+        return count.get();
+    }
+
+    /**
+     * Returns the port the proxy listens to.
+     *
+     * @return the proxy port
+     */
+    public final int getPort() {
+        return port;
+    }
+
+    /**
+     * Runs the proxy self test.
+     *
+     * @param timeout
+     *            maximum time to wait for the probe
+     * @return {@code true} if the probe went through the proxy
+     */
+    public final boolean selfTest(final Duration timeout) {
+        return server.selfTest(timeout);
+    }
+
+    /**
+     * Waits until the proxy has no open connections, or the timeout expires.
+     *
+     * @param timeoutMillis
+     *            maximum time to wait, in milliseconds
+     * @return {@code true} if all the connections were closed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public final boolean awaitNoConnections(final long timeoutMillis) throws InterruptedException {
+        final long deadline;
+
+        deadline = System.currentTimeMillis() + timeoutMillis;
+        while ((countConnections() > 0) && (System.currentTimeMillis() < deadline)) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        return countConnections() == 0;
+    }
+
+}